@@ -29,6 +29,90 @@ public class CsvConfiguration extends AbstractConfiguration {
         return config.getPreserveOldSyncFiles();
     }
 
+    @ConfigurationProperty(
+            displayMessageKey = "UI_CSV_SORT_MEMORY_LIMIT",
+            helpMessageKey = "UI_CSV_SORT_MEMORY_LIMIT_HELP")
+    public int getSortMemoryLimit() {
+        return config.getSortMemoryLimit();
+    }
+
+    @ConfigurationProperty(
+            displayMessageKey = "UI_CSV_PARALLELISM",
+            helpMessageKey = "UI_CSV_PARALLELISM_HELP")
+    public int getParallelism() {
+        return config.getParallelism();
+    }
+
+    @ConfigurationProperty(
+            displayMessageKey = "UI_CSV_LOCK_TIMEOUT",
+            helpMessageKey = "UI_CSV_LOCK_TIMEOUT_HELP")
+    public int getLockTimeout() {
+        return config.getLockTimeout();
+    }
+
+    @ConfigurationProperty(
+            displayMessageKey = "UI_CSV_JOURNAL",
+            helpMessageKey = "UI_CSV_JOURNAL_HELP")
+    public boolean isJournal() {
+        return config.isJournal();
+    }
+
+    @ConfigurationProperty(
+            displayMessageKey = "UI_CSV_JOURNAL_COMPACTION_SIZE",
+            helpMessageKey = "UI_CSV_JOURNAL_COMPACTION_SIZE_HELP")
+    public int getJournalCompactionSize() {
+        return config.getJournalCompactionSize();
+    }
+
+    @ConfigurationProperty(
+            displayMessageKey = "UI_CSV_JOURNAL_COMPACTION_INTERVAL",
+            helpMessageKey = "UI_CSV_JOURNAL_COMPACTION_INTERVAL_HELP")
+    public int getJournalCompactionInterval() {
+        return config.getJournalCompactionInterval();
+    }
+
+    @ConfigurationProperty(
+            displayMessageKey = "UI_CSV_DURABILITY",
+            helpMessageKey = "UI_CSV_DURABILITY_HELP")
+    public String getDurability() {
+        return config.getDurability();
+    }
+
+    @ConfigurationProperty(
+            displayMessageKey = "UI_CSV_DURABILITY_INTERVAL",
+            helpMessageKey = "UI_CSV_DURABILITY_INTERVAL_HELP")
+    public int getDurabilityInterval() {
+        return config.getDurabilityInterval();
+    }
+
+    @ConfigurationProperty(
+            displayMessageKey = "UI_CSV_LINK_SYNC_FILES",
+            helpMessageKey = "UI_CSV_LINK_SYNC_FILES_HELP")
+    public boolean isLinkSyncFiles() {
+        return config.isLinkSyncFiles();
+    }
+
+    @ConfigurationProperty(
+            displayMessageKey = "UI_CSV_STREAMING_SYNC",
+            helpMessageKey = "UI_CSV_STREAMING_SYNC_HELP")
+    public boolean isStreamingSync() {
+        return config.isStreamingSync();
+    }
+
+    @ConfigurationProperty(
+            displayMessageKey = "UI_CSV_PRESERVE_RECORD_ORDER",
+            helpMessageKey = "UI_CSV_PRESERVE_RECORD_ORDER_HELP")
+    public boolean isPreserveRecordOrder() {
+        return config.isPreserveRecordOrder();
+    }
+
+    @ConfigurationProperty(
+            displayMessageKey = "UI_CSV_FAST_PARSER",
+            helpMessageKey = "UI_CSV_FAST_PARSER_HELP")
+    public boolean isFastParser() {
+        return config.isFastParser();
+    }
+
     @ConfigurationProperty(
             displayMessageKey = "UI_CSV_UNIQUE_ATTRIBUTE",
             helpMessageKey = "UI_CSV_UNIQUE_ATTRIBUTE_HELP")
@@ -141,6 +225,13 @@ public class CsvConfiguration extends AbstractConfiguration {
         return config.getMultivalueDelimiter();
     }
 
+    @ConfigurationProperty(
+            displayMessageKey = "UI_CSV_MULTI_VALUE_ESCAPE",
+            helpMessageKey = "UI_CSV_MULTI_VALUE_ESCAPE_HELP")
+    public String getMultivalueEscape() {
+        return config.getMultivalueEscape();
+    }
+
     @ConfigurationProperty(
             displayMessageKey = "UI_CSV_OBJECT_CLASS_DEFINITION",
             helpMessageKey = "UI_CSV_OBJECT_CLASS_DEFINITION_HELP")
@@ -229,6 +320,10 @@ public class CsvConfiguration extends AbstractConfiguration {
         config.setMultivalueDelimiter(multivalueDelimiter);
     }
 
+    public void setMultivalueEscape(String multivalueEscape) {
+        config.setMultivalueEscape(multivalueEscape);
+    }
+
     public void setFilePath(File filePath) {
         config.setFilePath(filePath);
     }
@@ -241,6 +336,54 @@ public class CsvConfiguration extends AbstractConfiguration {
         config.setPreserveOldSyncFiles(preserverOldSyncFiles);
     }
 
+    public void setSortMemoryLimit(int sortMemoryLimit) {
+        config.setSortMemoryLimit(sortMemoryLimit);
+    }
+
+    public void setParallelism(int parallelism) {
+        config.setParallelism(parallelism);
+    }
+
+    public void setLockTimeout(int lockTimeout) {
+        config.setLockTimeout(lockTimeout);
+    }
+
+    public void setJournal(boolean journal) {
+        config.setJournal(journal);
+    }
+
+    public void setJournalCompactionSize(int journalCompactionSize) {
+        config.setJournalCompactionSize(journalCompactionSize);
+    }
+
+    public void setJournalCompactionInterval(int journalCompactionInterval) {
+        config.setJournalCompactionInterval(journalCompactionInterval);
+    }
+
+    public void setDurability(String durability) {
+        config.setDurability(durability);
+    }
+
+    public void setDurabilityInterval(int durabilityInterval) {
+        config.setDurabilityInterval(durabilityInterval);
+    }
+
+    public void setLinkSyncFiles(boolean linkSyncFiles) {
+        config.setLinkSyncFiles(linkSyncFiles);
+    }
+
+    public void setStreamingSync(boolean streamingSync) {
+        config.setStreamingSync(streamingSync);
+    }
+
+    public void setPreserveRecordOrder(boolean preserveRecordOrder) {
+        config.setPreserveRecordOrder(preserveRecordOrder);
+    }
+
+    public void setFastParser(boolean fastParser) {
+        config.setFastParser(fastParser);
+    }
+
     public void setUniqueAttribute(String uniqueAttribute) {
         config.setUniqueAttribute(uniqueAttribute);
     }
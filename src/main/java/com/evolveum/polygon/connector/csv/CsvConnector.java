@@ -1,5 +1,7 @@
 package com.evolveum.polygon.connector.csv;
 
+import com.evolveum.polygon.connector.csv.util.Durability;
+import com.evolveum.polygon.connector.csv.util.Journal;
 import com.evolveum.polygon.connector.csv.util.Util;
 import org.identityconnectors.common.logging.Log;
 import org.identityconnectors.common.security.GuardedString;
@@ -27,18 +29,21 @@ import java.util.Set;
 @ConnectorClass(
         displayNameKey = "UI_CSV_CONNECTOR_NAME",
         configurationClass = CsvConfiguration.class)
-public class CsvConnector implements Connector, TestOp, SchemaOp, SearchOp<String>, AuthenticateOp,
+public class CsvConnector implements Connector, TestOp, SchemaOp, SearchOp<CsvFilter>, AuthenticateOp,
         ResolveUsernameOp, SyncOp, CreateOp, UpdateOp, UpdateAttributeValuesOp, DeleteOp, ScriptOnResourceOp,
         ScriptOnConnectorOp, DiscoverConfigurationOp {
 
-	public static final Integer SYNCH_FILE_LOCK = 0;
-	
     private static final Log LOG = Log.getLog(CsvConnector.class);
 
     private CsvConfiguration configuration;
 
     private Map<ObjectClass, ObjectClassHandler> handlers = new HashMap<>();
 
+    /**
+     * Whether this instance holds background threads of journal compaction and batched durability
+     */
+    private boolean backgroundAcquired;
+
     @Override
     public Configuration getConfiguration() {
         return configuration;
@@ -64,11 +69,22 @@ public class CsvConnector implements Connector, TestOp, SchemaOp, SearchOp<Strin
             Util.handleGenericException(ex, "Couldn't initialize connector");
         }
 
+        Journal.acquireCompactor();
+        Durability.acquireSyncer();
+        backgroundAcquired = true;
+
         LOG.info(">>> Connector initialization finished");
     }
 
     @Override
     public void dispose() {
+        if (backgroundAcquired) {
+            // last instance stops background threads, so that they don't outlive connector class loader
+            backgroundAcquired = false;
+            Journal.releaseCompactor();
+            Durability.releaseSyncer();
+        }
+
         configuration = null;
         handlers = null;
     }
@@ -119,6 +135,11 @@ public class CsvConnector implements Connector, TestOp, SchemaOp, SearchOp<Strin
             LOG.info("schema finished for {0}", handler.getObjectClass());
         });
 
+        builder.defineOperationOption(OperationOptionInfoBuilder.buildPageSize(), SearchOp.class);
+        builder.defineOperationOption(OperationOptionInfoBuilder.buildPagedResultsOffset(), SearchOp.class);
+        builder.defineOperationOption(OperationOptionInfoBuilder.buildPagedResultsCookie(), SearchOp.class);
+        builder.defineOperationOption(OperationOptionInfoBuilder.buildSortKeys(), SearchOp.class);
+
         Schema schema = builder.build();
         LOG.info(">>> schema finished");
 
@@ -126,10 +147,10 @@ public class CsvConnector implements Connector, TestOp, SchemaOp, SearchOp<Strin
     }
 
     @Override
-    public FilterTranslator<String> createFilterTranslator(ObjectClass oc, OperationOptions oo) {
+    public FilterTranslator<CsvFilter> createFilterTranslator(ObjectClass oc, OperationOptions oo) {
         LOG.info(">>> createFilterTranslator {0} {1}", oc, oo);
 
-        FilterTranslator<String> translator = getHandler(oc).createFilterTranslator(oc, oo);
+        FilterTranslator<CsvFilter> translator = getHandler(oc).createFilterTranslator(oc, oo);
 
         LOG.info(">>> createFilterTranslator finished");
 
@@ -137,10 +158,10 @@ public class CsvConnector implements Connector, TestOp, SchemaOp, SearchOp<Strin
     }
 
     @Override
-    public void executeQuery(ObjectClass oc, String uid, ResultsHandler handler, OperationOptions oo) {
-        LOG.info(">>> executeQuery {0} {1} {2} {3}", oc, uid, handler, oo);
+    public void executeQuery(ObjectClass oc, CsvFilter filter, ResultsHandler handler, OperationOptions oo) {
+        LOG.info(">>> executeQuery {0} {1} {2} {3}", oc, filter, handler, oo);
 
-        getHandler(oc).executeQuery(oc, uid, handler, oo);
+        getHandler(oc).executeQuery(oc, filter, handler, oo);
 
         LOG.info(">>> executeQuery finished");
     }
@@ -0,0 +1,198 @@
+package com.evolveum.polygon.connector.csv;
+
+import com.evolveum.polygon.connector.csv.util.Util;
+import org.identityconnectors.common.StringUtil;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.function.Predicate;
+
+/**
+ * Filter compiled by {@link CsvFilterTranslator}. It's evaluated against raw csv record values
+ * before connector object is created, therefore rejected records don't allocate any attributes.
+ * <p>
+ * Semantics follow ConnId filters evaluated on connector object: empty csv value means that
+ * attribute is not present and such record doesn't match any (not negated) attribute filter.
+ */
+public abstract class CsvFilter {
+
+    /**
+     * @param record values of csv record, number of values must match header
+     */
+    public abstract boolean matches(String[] record);
+
+    /**
+     * Adds indexes of columns used by this filter.
+     */
+    public abstract void collectColumns(Set<Integer> columns);
+
+    /**
+     * @return unique attribute value if filter can match only record with this value, otherwise null
+     */
+    public String getUid() {
+        return null;
+    }
+
+    static CsvFilter and(CsvFilter left, CsvFilter right) {
+        return new AndFilter(left, right);
+    }
+
+    static CsvFilter or(CsvFilter left, CsvFilter right) {
+        return new OrFilter(left, right);
+    }
+
+    static CsvFilter uidEquals(int column, String uid, boolean ignoreCase) {
+        return new UidEqualsFilter(column, uid, ignoreCase);
+    }
+
+    /**
+     * @param multivalue whether value has to be split using multivalue delimiter (same as when connector object
+     *                   attribute is created)
+     */
+    static CsvFilter attribute(int column, boolean multivalue, ObjectClassHandlerConfiguration configuration,
+                               Predicate<List<String>> predicate, boolean not) {
+
+        return new AttributeFilter(column, multivalue, configuration, predicate, not);
+    }
+
+    private static class AndFilter extends CsvFilter {
+
+        private final CsvFilter left;
+        private final CsvFilter right;
+
+        private AndFilter(CsvFilter left, CsvFilter right) {
+            this.left = left;
+            this.right = right;
+        }
+
+        @Override
+        public boolean matches(String[] record) {
+            return left.matches(record) && right.matches(record);
+        }
+
+        @Override
+        public void collectColumns(Set<Integer> columns) {
+            left.collectColumns(columns);
+            right.collectColumns(columns);
+        }
+
+        @Override
+        public String getUid() {
+            String uid = left.getUid();
+            return uid != null ? uid : right.getUid();
+        }
+
+        @Override
+        public String toString() {
+            return "(" + left + " AND " + right + ")";
+        }
+    }
+
+    private static class OrFilter extends CsvFilter {
+
+        private final CsvFilter left;
+        private final CsvFilter right;
+
+        private OrFilter(CsvFilter left, CsvFilter right) {
+            this.left = left;
+            this.right = right;
+        }
+
+        @Override
+        public boolean matches(String[] record) {
+            return left.matches(record) || right.matches(record);
+        }
+
+        @Override
+        public void collectColumns(Set<Integer> columns) {
+            left.collectColumns(columns);
+            right.collectColumns(columns);
+        }
+
+        @Override
+        public String toString() {
+            return "(" + left + " OR " + right + ")";
+        }
+    }
+
+    private static class UidEqualsFilter extends CsvFilter {
+
+        private final int column;
+        private final String uid;
+        private final boolean ignoreCase;
+
+        private UidEqualsFilter(int column, String uid, boolean ignoreCase) {
+            this.column = column;
+            this.uid = uid;
+            this.ignoreCase = ignoreCase;
+        }
+
+        @Override
+        public boolean matches(String[] record) {
+            String value = record[column];
+
+            return uid.equals(value) || ignoreCase && uid.equalsIgnoreCase(value);
+        }
+
+        @Override
+        public void collectColumns(Set<Integer> columns) {
+            columns.add(column);
+        }
+
+        @Override
+        public String getUid() {
+            return uid;
+        }
+
+        @Override
+        public String toString() {
+            return "UID=" + uid;
+        }
+    }
+
+    private static class AttributeFilter extends CsvFilter {
+
+        private final int column;
+        private final boolean multivalue;
+        private final ObjectClassHandlerConfiguration configuration;
+        private final Predicate<List<String>> predicate;
+        private final boolean not;
+
+        private AttributeFilter(int column, boolean multivalue, ObjectClassHandlerConfiguration configuration,
+                                Predicate<List<String>> predicate, boolean not) {
+            this.column = column;
+            this.multivalue = multivalue;
+            this.configuration = configuration;
+            this.predicate = predicate;
+            this.not = not;
+        }
+
+        @Override
+        public boolean matches(String[] record) {
+            String value = record[column];
+
+            boolean result;
+            if (StringUtil.isEmpty(value)) {
+                // attribute not present
+                result = false;
+            } else if (multivalue) {
+                result = predicate.test(Util.createAttributeValues(value, String.class, configuration));
+            } else {
+                result = predicate.test(Collections.singletonList(value));
+            }
+
+            return not != result;
+        }
+
+        @Override
+        public void collectColumns(Set<Integer> columns) {
+            columns.add(column);
+        }
+
+        @Override
+        public String toString() {
+            return (not ? "NOT " : "") + "column[" + column + "]";
+        }
+    }
+}
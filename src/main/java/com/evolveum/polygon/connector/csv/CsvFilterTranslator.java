@@ -1,35 +1,169 @@
 package com.evolveum.polygon.connector.csv;
 
+import com.evolveum.polygon.connector.csv.util.Column;
 import org.identityconnectors.framework.common.objects.Attribute;
+import org.identityconnectors.framework.common.objects.Name;
 import org.identityconnectors.framework.common.objects.Uid;
-import org.identityconnectors.framework.common.objects.filter.AbstractFilterTranslator;
-import org.identityconnectors.framework.common.objects.filter.EqualsFilter;
+import org.identityconnectors.framework.common.objects.filter.*;
 
 import java.util.List;
+import java.util.Map;
+import java.util.function.BiPredicate;
+import java.util.function.Predicate;
 
 /**
+ * Translates ConnId filter to {@link CsvFilter}. Filters which can't be evaluated on raw csv values
+ * (e.g. password, unknown attributes, non string values in comparisons) are not translated,
+ * such filter expressions are left for framework.
+ * <p>
  * Created by Viliam Repan (lazyman).
  */
-public class CsvFilterTranslator extends AbstractFilterTranslator<String> {
+public class CsvFilterTranslator extends AbstractFilterTranslator<CsvFilter> {
+
+    private final ObjectClassHandlerConfiguration configuration;
+
+    private final Map<String, Column> header;
+
+    public CsvFilterTranslator(ObjectClassHandlerConfiguration configuration, Map<String, Column> header) {
+        this.configuration = configuration;
+        this.header = header;
+    }
+
+    @Override
+    protected CsvFilter createAndExpression(CsvFilter left, CsvFilter right) {
+        return CsvFilter.and(left, right);
+    }
+
+    @Override
+    protected CsvFilter createOrExpression(CsvFilter left, CsvFilter right) {
+        return CsvFilter.or(left, right);
+    }
 
     @Override
-    protected String createEqualsExpression(EqualsFilter filter, boolean not) {
-        if (not) {
+    protected CsvFilter createEqualsExpression(EqualsFilter filter, boolean not) {
+        Attribute attr = filter.getAttribute();
+
+        List<Object> values = attr.getValue();
+        if (values == null || values.isEmpty()) {
             return null;
         }
 
+        Column uidColumn = header.get(configuration.getUniqueAttribute());
+        if (attr.is(Uid.NAME) && uidColumn != null && values.size() == 1 && values.get(0) instanceof String) {
+            String uid = (String) values.get(0);
+            boolean ignoreCase = configuration.isIgnoreIdentifierCase();
+
+            if (!not) {
+                return CsvFilter.uidEquals(uidColumn.getIndex(), uid, ignoreCase);
+            }
+
+            return createAttributeExpression(attr,
+                    real -> uid.equals(real.get(0)) || ignoreCase && uid.equalsIgnoreCase(real.get(0)), true);
+        }
+
+        return createAttributeExpression(attr, real -> real.equals(values), not);
+    }
+
+    @Override
+    protected CsvFilter createContainsAllValuesExpression(ContainsAllValuesFilter filter, boolean not) {
         Attribute attr = filter.getAttribute();
-        if (!attr.is(Uid.NAME)) {
+
+        List<Object> values = attr.getValue();
+        if (values == null) {
             return null;
         }
 
-        List<Object> values = attr.getValue();
-        if (values.isEmpty()) {
+        return createAttributeExpression(attr, real -> real.containsAll(values), not);
+    }
+
+    @Override
+    protected CsvFilter createStartsWithExpression(StartsWithFilter filter, boolean not) {
+        return createStringExpression(filter, String::startsWith, not);
+    }
+
+    @Override
+    protected CsvFilter createEndsWithExpression(EndsWithFilter filter, boolean not) {
+        return createStringExpression(filter, String::endsWith, not);
+    }
+
+    @Override
+    protected CsvFilter createContainsExpression(ContainsFilter filter, boolean not) {
+        return createStringExpression(filter, String::contains, not);
+    }
+
+    @Override
+    protected CsvFilter createGreaterThanExpression(GreaterThanFilter filter, boolean not) {
+        return createComparableExpression(filter, result -> result > 0, not);
+    }
+
+    @Override
+    protected CsvFilter createGreaterThanOrEqualExpression(GreaterThanOrEqualFilter filter, boolean not) {
+        return createComparableExpression(filter, result -> result >= 0, not);
+    }
+
+    @Override
+    protected CsvFilter createLessThanExpression(LessThanFilter filter, boolean not) {
+        return createComparableExpression(filter, result -> result < 0, not);
+    }
+
+    @Override
+    protected CsvFilter createLessThanOrEqualExpression(LessThanOrEqualFilter filter, boolean not) {
+        return createComparableExpression(filter, result -> result <= 0, not);
+    }
+
+    private CsvFilter createStringExpression(StringFilter filter, BiPredicate<String, String> predicate, boolean not) {
+        String value = filter.getValue();
+        if (value == null) {
             return null;
         }
 
-        Object value = values.get(0);
+        return createAttributeExpression(filter.getAttribute(),
+                real -> real.stream().anyMatch(v -> predicate.test(v, value)), not);
+    }
+
+    private CsvFilter createComparableExpression(ComparableAttributeFilter filter, Predicate<Integer> predicate,
+                                                 boolean not) {
+        Object value = filter.getValue();
+        if (!(value instanceof String)) {
+            return null;
+        }
+
+        return createAttributeExpression(filter.getAttribute(),
+                real -> real.stream().anyMatch(v -> predicate.test(v.compareTo((String) value))), not);
+    }
+
+    private CsvFilter createAttributeExpression(Attribute attr, Predicate<List<String>> predicate, boolean not) {
+        String name = attr.getName();
+
+        Column column;
+        boolean multivalue;
+        if (attr.is(Uid.NAME)) {
+            column = header.get(configuration.getUniqueAttribute());
+            multivalue = false;
+        } else if (attr.is(Name.NAME)) {
+            column = header.get(configuration.getNameAttribute());
+            multivalue = false;
+        } else if (isSpecialColumn(name)) {
+            // column is not available as attribute with the same name
+            return null;
+        } else {
+            column = header.get(name);
+            multivalue = true;
+        }
+
+        if (column == null) {
+            return null;
+        }
+
+        return CsvFilter.attribute(column.getIndex(), multivalue, configuration, predicate, not);
+    }
 
-        return value != null ? value.toString() : null;
+    /**
+     * Unique, name and password columns are available only as __UID__, __NAME__ and __PASSWORD__ attributes.
+     */
+    private boolean isSpecialColumn(String name) {
+        return name.equals(configuration.getUniqueAttribute())
+                || name.equals(configuration.getNameAttribute())
+                || name.equals(configuration.getPasswordAttribute());
     }
 }
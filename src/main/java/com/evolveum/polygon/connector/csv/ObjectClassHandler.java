@@ -1,8 +1,24 @@
 package com.evolveum.polygon.connector.csv;
 
 import com.evolveum.polygon.connector.csv.util.Column;
+import com.evolveum.polygon.connector.csv.util.ColumnLayout;
 import com.evolveum.polygon.connector.csv.util.ConfigurationDetector;
+import com.evolveum.polygon.connector.csv.util.Durability;
+import com.evolveum.polygon.connector.csv.util.ExternalSorter;
+import com.evolveum.polygon.connector.csv.util.FileLockManager;
+import com.evolveum.polygon.connector.csv.util.FileLocks;
+import com.evolveum.polygon.connector.csv.util.FileSplicer;
+import com.evolveum.polygon.connector.csv.util.FileVersion;
+import com.evolveum.polygon.connector.csv.util.GroupCommit;
+import com.evolveum.polygon.connector.csv.util.Journal;
+import com.evolveum.polygon.connector.csv.util.OffsetTrackingReader;
+import com.evolveum.polygon.connector.csv.util.PagedResultsCookie;
+import com.evolveum.polygon.connector.csv.util.RecordBoundaryScanner;
+import com.evolveum.polygon.connector.csv.util.RecordReader;
 import com.evolveum.polygon.connector.csv.util.StringAccessor;
+import com.evolveum.polygon.connector.csv.util.SyncFileInfo;
+import com.evolveum.polygon.connector.csv.util.SyncSnapshot;
+import com.evolveum.polygon.connector.csv.util.UidIndex;
 import com.evolveum.polygon.connector.csv.util.Util;
 import org.apache.commons.csv.CSVFormat;
 import org.apache.commons.csv.CSVParser;
@@ -18,11 +34,18 @@ import org.identityconnectors.framework.spi.SyncTokenResultsHandler;
 import org.identityconnectors.framework.spi.operations.*;
 
 import java.io.*;
-import java.nio.channels.Channels;
-import java.nio.channels.FileLock;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
 import java.nio.file.Files;
 import java.nio.file.StandardCopyOption;
 import java.util.*;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
 
 import static com.evolveum.polygon.connector.csv.util.Util.createSyncFileName;
 import static com.evolveum.polygon.connector.csv.util.Util.handleGenericException;
@@ -32,7 +55,7 @@ import static com.evolveum.polygon.connector.csv.util.Util.handleGenericExceptio
  * <p>
  * Created by lazyman on 27/01/2017.
  */
-public class ObjectClassHandler implements CreateOp, DeleteOp, TestOp, SearchOp<String>,
+public class ObjectClassHandler implements CreateOp, DeleteOp, TestOp, SearchOp<CsvFilter>,
 		UpdateAttributeValuesOp, AuthenticateOp, ResolveUsernameOp, SyncOp, DiscoverConfigurationOp {
 
 	public void validate() {
@@ -41,28 +64,84 @@ public class ObjectClassHandler implements CreateOp, DeleteOp, TestOp, SearchOp<
 
 	private enum Operation {
 
-		DELETE, UPDATE, ADD_ATTR_VALUE, REMOVE_ATTR_VALUE;
+		CREATE, DELETE, UPDATE, ADD_ATTR_VALUE, REMOVE_ATTR_VALUE;
+	}
+
+	private static class WriteRequest extends GroupCommit.Request {
+
+		private final Operation operation;
+
+		private final Uid uid;
+
+		private final Set<Attribute> attributes;
+
+		/**
+		 * Only for {@link Operation#CREATE}
+		 */
+		private final List<Object> newRecord;
+
+		private final Set<String> keys;
+
+		private WriteRequest(Operation operation, Uid uid, Set<Attribute> attributes, List<Object> newRecord,
+							 Set<String> keys) {
+			this.operation = operation;
+			this.uid = uid;
+			this.attributes = attributes;
+			this.newRecord = newRecord;
+			this.keys = keys;
+		}
+
+		@Override
+		public Set<String> getKeys() {
+			return keys;
+		}
 	}
 
 	private static final Log LOG = Log.getLog(ObjectClassHandler.class);
 
+	/**
+	 * Files smaller than two ranges are not parsed in parallel
+	 */
+	private static final long MIN_RANGE_SIZE = 1024 * 1024;
+
+	private static final long MAX_RANGE_SIZE = 32 * 1024 * 1024;
+
+	/**
+	 * Sync file with changes from journal is copied without lock this many times before lock is used
+	 */
+	private static final int SYNC_FILE_WRITE_ATTEMPTS = 3;
+
 	private ObjectClassHandlerConfiguration configuration;
 
 	private Map<String, Column> header;
 
+	/**
+	 * Always created together with header
+	 */
+	private ColumnLayout layout;
+
 	public ObjectClassHandler(ObjectClassHandlerConfiguration configuration) {
 		this.configuration = configuration;
 	}
 
 	public Map<String, Column> getHeader() {
 		if (header == null) {
-			this.header = initHeader(configuration.getFilePath());
+			Map<String, Column> header = initHeader(configuration.getFilePath());
+
+			this.layout = ColumnLayout.create(header, configuration);
+			this.header = header;
 		}
 		return header;
 	}
 
+	private ColumnLayout getLayout() {
+		getHeader();
+
+		return layout;
+	}
+
 	private Map<String, Column> initHeader(File csvFile) {
-		synchronized (CsvConnector.SYNCH_FILE_LOCK) {
+		synchronized (FileLocks.get(csvFile)) {
 			CSVFormat csv = Util.createCsvFormat(configuration);
 			try (Reader reader = Util.createReader(csvFile, configuration)) {
 				CSVParser parser = csv.parse(reader);
@@ -190,8 +269,8 @@ public class ObjectClassHandler implements CreateOp, DeleteOp, TestOp, SearchOp<
 	private List<AttributeInfo> createAttributeInfo(Map<String, Column> columns) {
 		List<String> multivalueAttributes = new ArrayList<>();
 		if (StringUtil.isNotEmpty(configuration.getMultivalueAttributes())) {
-			String[] array = configuration.getMultivalueAttributes().split(configuration.getMultivalueDelimiter());
-			multivalueAttributes = Arrays.asList(array);
+			multivalueAttributes = configuration.getMultivalueCodec()
+					.split(configuration.getMultivalueAttributes(), false);
 		}
 
 		List<AttributeInfo> infos = new ArrayList<>();
@@ -238,6 +317,7 @@ public class ObjectClassHandler implements CreateOp, DeleteOp, TestOp, SearchOp<
 				AttributeInfoBuilder builder = new AttributeInfoBuilder(OperationalAttributes.PASSWORD_NAME);
 				builder.setType(GuardedString.class);
 				builder.setNativeName(name);
+				builder.setReturnedByDefault(false);
 
 				infos.add(builder.build());
 
@@ -277,316 +357,1862 @@ public class ObjectClassHandler implements CreateOp, DeleteOp, TestOp, SearchOp<
 		String uidValue = findUidValue(attributes);
 		Uid uid = new Uid(uidValue);
 
-		FileLock lock = Util.obtainTmpFileLock(configuration);
-		Reader reader = null;
-		Writer writer = null;
 		try {
-			synchronized (CsvConnector.SYNCH_FILE_LOCK) {
-				reader = Util.createReader(configuration);
-				writer = new BufferedWriter(Channels.newWriter(lock.channel(), configuration.getEncoding()));
+			List<Object> newRecord = createNewRecord(attributes);
 
-				CSVFormat csv = Util.createCsvFormat(configuration);
-				CSVParser parser = csv.parse(reader);
+			WriteRequest request = new WriteRequest(Operation.CREATE, uid, null, newRecord,
+					Collections.singleton(createKey(uidValue)));
+			getGroupCommit().submit(request, this::writeBatch);
+		} catch (Exception ex) {
+			handleGenericException(ex, "Error during account '" + uid + "' create");
+		}
 
-				csv = Util.createCsvFormat(configuration);
-				CSVPrinter printer = csv.print(writer);
+		return uid;
+	}
 
-				Iterator<CSVRecord> iterator = parser.iterator();
-				// we don't want to skip header in any case, but if it's there just
-				// write it to tmp file as "standard" record. We can't handle first row
-				// as header in case there are more columns with the same name.
-				if (configuration.isHeaderExists() && iterator.hasNext()) {
-					CSVRecord record = iterator.next();
-					printer.printRecord(record);
-				}
+	private GroupCommit getGroupCommit() {
+		return GroupCommit.getInstance(configuration);
+	}
 
-				// handling real records
-				while (iterator.hasNext()) {
-					CSVRecord record = iterator.next();
-					ConnectorObject obj = createConnectorObject(record);
+	/**
+	 * Writes batch of requests collected by {@link GroupCommit} using one pass over csv file. If batch contains
+	 * only creates, new records are appended to the end of file.
+	 */
+	private void writeBatch(List<GroupCommit.Request> batch) throws IOException {
+		List<WriteRequest> requests = new ArrayList<>();
+		boolean createsOnly = true;
+		for (GroupCommit.Request request : batch) {
+			WriteRequest writeRequest = (WriteRequest) request;
+			requests.add(writeRequest);
+
+			createsOnly &= Operation.CREATE.equals(writeRequest.operation);
+		}
 
-					if (uid.equals(obj.getUid())) {
-						throw new AlreadyExistsException("Account already exists '" + uid.getUidValue() + "'.");
-					}
+		FileLockManager.Lock lock = FileLockManager.lock(Util.createLockFile(configuration),
+				configuration.getLockTimeout());
+		try {
+			if (lock.getStaleOwner() != null) {
+				Util.deleteOrphanedTmpFiles(configuration);
+			}
+
+			synchronized (FileLocks.get(configuration.getFilePath())) {
+				FileVersion oldVersion = FileVersion.of(configuration.getFilePath());
 
-					printer.printRecord(record);
+				if (configuration.isJournal() && journalRecords(requests, oldVersion)) {
+					return;
 				}
 
-				printer.printRecord(createNewRecord(attributes));
+				// csv file is written directly, changes from journal have to be there first
+				if (foldJournal()) {
+					oldVersion = FileVersion.of(configuration.getFilePath());
+				}
 
-				writer.close();
-				reader.close();
+				if (createsOnly && appendRecords(requests, oldVersion)) {
+					return;
+				}
 
-				moveTmpToOrig();
+				BatchRewrite rewrite = new BatchRewrite(requests);
+				if (replaceRecords(rewrite, oldVersion)) {
+					rewrite.complete();
+				}
 			}
-		} catch (Exception ex) {
-			handleGenericException(ex, "Error during account '" + uid + "' create");
 		} finally {
-			Util.cleanupResources(writer, reader, lock, configuration);
+			Util.cleanupResources(lock, configuration);
 		}
-		
-		return uid;
 	}
 
-	private void moveTmpToOrig() throws IOException {
-		// moving existing file
-		String path = configuration.getFilePath().getPath();
-		File orig = new File(path);
+	/**
+	 * Appends new records to the end of csv file, so that whole file doesn't have to be rewritten. Uniqueness
+	 * of unique attribute values is checked using uid index, index is rebuilt if it's not current.
+	 *
+	 * @return false if records can't be appended (file is empty, encoding doesn't allow checking new line at the
+	 * end of file, file is linked as sync file or unique attribute values in file are not unique), file has to be
+	 * rewritten
+	 */
+	private boolean appendRecords(List<WriteRequest> creates, FileVersion oldVersion) throws IOException {
+		Charset charset = Charset.forName(configuration.getEncoding());
+		if (oldVersion.getSize() == 0 || !Util.canAppendRecord(charset)) {
+			return false;
+		}
 
-		File tmp = Util.createTmpPath(configuration);
+		// sync file which shares content with csv file would be changed too
+		int links = Util.getLinkCount(configuration.getFilePath());
+		if (links > 1 || links < 0 && configuration.isLinkSyncFiles()) {
+			return false;
+		}
 
-		Files.move(tmp.toPath(), orig.toPath(), StandardCopyOption.REPLACE_EXISTING);
-	}
+		UidIndex index = getIndex();
+		synchronized (index) {
+			if (!index.isCurrent(oldVersion)) {
+				index.rebuild(configuration.getFilePath(), oldVersion, consumer -> loadIndexRecords(consumer));
+			}
 
-	private boolean isPassword(String column) {
-		return StringUtil.isNotEmpty(configuration.getPasswordAttribute())
-				&& configuration.getPasswordAttribute().equals(column);
-	}
+			if (!index.isUnique()) {
+				return false;
+			}
 
-	private boolean isUid(String column) {
-		return configuration.getUniqueAttribute().equals(column);
-	}
+			for (WriteRequest create : creates) {
+				if (index.contains(create.uid.getUidValue())) {
+					create.fail(createAlreadyExistsException(create.uid));
+				}
+			}
+		}
 
-	private List<Object> createNewRecord(Set<Attribute> attributes) {
-		final Object[] record = new Object[getHeader().size()];
+		StringBuilder sb = new StringBuilder();
+		CSVPrinter printer = Util.createCsvFormat(configuration).print(sb);
 
-		Attribute nameAttr = AttributeUtil.getNameFromAttributes(attributes);
-		Object name = nameAttr != null ? AttributeUtil.getSingleValue(nameAttr) : null;
+		// byte offsets of records relative to the first appended record
+		Map<String, Long> appended = new HashMap<>();
+		long length = 0;
+		for (WriteRequest create : creates) {
+			if (!create.isDone()) {
+				int start = sb.length();
+				printer.printRecord(create.newRecord);
 
-		Attribute uniqueAttr = AttributeUtil.find(configuration.getUniqueAttribute(), attributes);
-		Object uid = uniqueAttr != null ? AttributeUtil.getSingleValue(uniqueAttr) : null;
+				appended.put(create.uid.getUidValue(), length);
+				length += sb.substring(start).getBytes(charset).length;
+			}
+		}
 
-		for (String column : getHeader().keySet()) {
-			Object value;
-			if (isPassword(column)) {
-				Attribute attr = AttributeUtil.find(OperationalAttributes.PASSWORD_NAME, attributes);
-				if (attr == null) {
-					continue;
-				}
+		if (!appended.isEmpty()) {
+			long offset = Util.appendRecord(configuration.getFilePath(), sb.toString(),
+					configuration.getRecordSeparator(), charset);
 
-				value = Util.createRawValue(attr, configuration);
-			} else if (isName(column)) {
-				value = name;
-			} else if (isUid(column)) {
-				value = uid;
-			} else {
-				Attribute attr = AttributeUtil.find(column, attributes);
-				if (attr == null) {
-					continue;
-				}
+			Durability durability = configuration.getDurabilityLevel();
+			durability.force(configuration.getFilePath());
+			durability.schedule(configuration.getFilePath(), configuration.getDurabilityInterval());
 
-				value = Util.createRawValue(attr, configuration);
-			}
+			appended.replaceAll((uid, recordOffset) -> offset + recordOffset);
+			updateIndex(oldVersion, appended);
+		}
 
-			record[getHeader().get(column).getIndex()] = value;
+		for (WriteRequest create : creates) {
+			if (!create.isDone()) {
+				create.complete(create.uid);
+			}
 		}
 
-		return Arrays.asList(record);
+		return true;
 	}
 
-	private String findUidValue(Set<Attribute> attributes) {
-		Attribute uniqueAttr = AttributeUtil.find(configuration.getUniqueAttribute(), attributes);
-		Object uid = uniqueAttr != null ? AttributeUtil.getSingleValue(uniqueAttr) : null;
+	/**
+	 * Writes copy of csv file with changes to tmp file and moves it over original. If encoding allows it, only
+	 * changed records are encoded (see {@link #spliceRecords(RecordRewrite, long)}), otherwise all records are
+	 * parsed and printed again.
+	 *
+	 * @return false if nothing was changed, csv file wasn't replaced
+	 */
+	private boolean replaceRecords(RecordRewrite rewrite, FileVersion oldVersion) throws IOException {
+		File file = configuration.getFilePath();
+
+		if (Util.canAppendRecord(Charset.forName(configuration.getEncoding()))) {
+			FileSplicer splicer = spliceRecords(rewrite, oldVersion.getSize());
+			if (!rewrite.isChanged()) {
+				return false;
+			}
 
-		if (uid == null) {
-			throw new InvalidAttributeValueException("Unique attribute value not defined");
-		}
+			splicer.write(file, oldVersion.getSize(), Util.createTmpPath(configuration));
+		} else {
+			try (Reader reader = Util.createReader(configuration);
+				 Writer writer = Util.createTmpWriter(configuration)) {
 
-		return uid.toString();
-	}
+				rewriteRecords(rewrite, reader, writer);
+			}
 
-	@Override
-	public void delete(ObjectClass oc, Uid uid, OperationOptions oo) {
-		if (configuration.isReadOnly()) {
-			throw new ConnectorException("Can't add attribute values. Readonly set to true.");
+			if (!rewrite.isChanged()) {
+				return false;
+			}
 		}
 
-		update(Operation.DELETE, oc, uid, null, oo);
-	}
+		Durability durability = configuration.getDurabilityLevel();
+		durability.force(Util.createTmpPath(configuration));
 
-	@Override
-	public Uid resolveUsername(ObjectClass oc, String username, OperationOptions oo) {
-		return resolveUsername(username, null, oo, false);
-	}
+		moveTmpToOrig();
 
-	@Override
-	public FilterTranslator<String> createFilterTranslator(ObjectClass oc, OperationOptions oo) {
-		return new CsvFilterTranslator();
+		durability.forceDirectory(file);
+		durability.schedule(file, configuration.getDurabilityInterval());
+
+		return true;
 	}
 
-	private boolean skipRecord(CSVRecord record) {
-		if (configuration.isHeaderExists() && record.getRecordNumber() == 1) {
-			return true;
+	/**
+	 * Copies csv file to tmp file while applying changes, all records are parsed and printed again.
+	 */
+	private void rewriteRecords(RecordRewrite rewrite, Reader reader, Writer writer) throws IOException {
+		int uidIndex = getLayout().getUidIndex();
+
+		CSVParser parser = Util.createCsvFormat(configuration).parse(reader);
+		CSVPrinter printer = Util.createCsvFormat(configuration).print(writer);
+
+		Iterator<CSVRecord> iterator = parser.iterator();
+		// we don't want to skip header in any case, but if it's there just
+		// write it to tmp file as "standard" record. We can't handle first row
+		// as header in case there are more columns with the same name.
+		if (configuration.isHeaderExists() && iterator.hasNext()) {
+			CSVRecord record = iterator.next();
+			printer.printRecord(record);
 		}
 
-		if (isRecordEmpty(record)) {
-			return true;
+		while (iterator.hasNext()) {
+			CSVRecord record = iterator.next();
+
+			String recordUidValue = uidIndex < record.size() ? record.get(uidIndex) : null;
+			List<Object> result = rewrite.apply(recordUidValue, () -> Util.toArray(record));
+			if (result == null) {
+				printer.printRecord(record);
+			} else if (!result.isEmpty()) {
+				printer.printRecord(result);
+			}
 		}
 
-		return false;
+		for (List<Object> newRecord : rewrite.finish()) {
+			printer.printRecord(newRecord);
+		}
+
+		printer.flush();
 	}
 
-	@Override
-	public void executeQuery(ObjectClass oc, String uid, ResultsHandler handler, OperationOptions oo) {
-		CSVFormat csv = Util.createCsvFormatReader(configuration);
-		try (Reader reader = Util.createReader(configuration)) {
-
-			CSVParser parser = csv.parse(reader);
-			Iterator<CSVRecord> iterator = parser.iterator();
-			while (iterator.hasNext()) {
-				CSVRecord record = iterator.next();
-				if (skipRecord(record)) {
-					continue;
-				}
+	/**
+	 * Finds byte ranges of changed records. Csv file is tokenized to find records, unchanged records will be
+	 * copied to tmp file as they are, without decoding and encoding. Comment and empty lines before changed
+	 * record (and after last record) are removed together with it.
+	 */
+	private FileSplicer spliceRecords(RecordRewrite rewrite, long size) throws IOException {
+		File file = configuration.getFilePath();
+		Charset charset = Charset.forName(configuration.getEncoding());
 
-				ConnectorObject obj = createConnectorObject(record);
+		int uidIndex = getLayout().getUidIndex();
 
-				if (uid == null) {
-					if (!handler.handle(obj)) {
-						break;
-					} else {
-						continue;
-					}
+		FileSplicer splicer = new FileSplicer();
+
+		long changeStart = -1;
+		ByteBuffer replacement = null;
+
+		try (OffsetTrackingReader reader = new OffsetTrackingReader(file, charset, 0);
+			 RecordReader record = Util.createRecordReader(reader, configuration)) {
+
+			while (record.next()) {
+				long position = record.getCharacterPosition();
+				reader.release(position);
+
+				if (changeStart >= 0) {
+					// changed record ends where current record starts
+					splicer.replace(changeStart, reader.getByteOffset(position), replacement);
+					changeStart = -1;
 				}
 
-				if (!uidMatches(uid, obj.getUid().getUidValue(), configuration.isIgnoreIdentifierCase())) {
+				if (configuration.isHeaderExists() && record.getRecordNumber() == 1) {
 					continue;
 				}
 
-				if (!handler.handle(obj)) {
-					break;
+				String recordUidValue = uidIndex < record.size() ? record.get(uidIndex) : null;
+				List<Object> result = rewrite.apply(recordUidValue, record::toArray);
+				if (result == null) {
+					continue;
 				}
+
+				changeStart = reader.getByteOffset(position);
+				replacement = result.isEmpty() ? null : encodeRecords(Collections.singletonList(result), charset);
 			}
-		} catch (Exception ex) {
-			handleGenericException(ex, "Error during query execution");
 		}
-	}
-
-	private boolean uidMatches(String uid1, String uid2, boolean ignoreCase) {
-		return uid1.equals(uid2) || ignoreCase && uid1.equalsIgnoreCase(uid2);
-	}
 
-	private void validateAuthenticationInputs(String username, GuardedString password, boolean authenticate) {
-		if (StringUtil.isEmpty(username)) {
-			throw new InvalidCredentialException("Username must not be empty");
+		boolean lastChanged = changeStart >= 0;
+		if (lastChanged) {
+			splicer.replace(changeStart, size, replacement);
 		}
 
-		if (authenticate && StringUtil.isEmpty(configuration.getPasswordAttribute())) {
-			throw new ConfigurationException("Password attribute not defined in configuration");
+		List<List<Object>> newRecords = rewrite.finish();
+		if (!newRecords.isEmpty()) {
+			// replaced last record ends with separator, removed one started after separator
+			if (!lastChanged && !Util.isTerminated(file, size, charset)) {
+				splicer.replace(size, size, charset.encode(configuration.getRecordSeparator()));
+			}
+			splicer.replace(size, size, encodeRecords(newRecords, charset));
 		}
 
-		if (authenticate && password == null) {
-			throw new InvalidPasswordException("Password is not defined");
+		return splicer;
+	}
+
+	private ByteBuffer encodeRecords(List<List<Object>> records, Charset charset) throws IOException {
+		StringBuilder sb = new StringBuilder();
+		CSVPrinter printer = Util.createCsvFormat(configuration).print(sb);
+		for (List<Object> record : records) {
+			printer.printRecord(record);
 		}
+
+		return charset.encode(sb.toString());
 	}
 
-	private Uid resolveUsername(String username, GuardedString password, OperationOptions oo, boolean authenticate) {
-		validateAuthenticationInputs(username, password, authenticate);
+	/**
+	 * Changes applied to records of csv file during one pass over file.
+	 */
+	private interface RecordRewrite {
+
+		/**
+		 * @param values values of record, used only if record is changed
+		 * @return null if record is not changed, empty list if record is removed, new record otherwise
+		 */
+		List<Object> apply(String recordUidValue, Supplier<String[]> values);
+
+		/**
+		 * Called after all records were read.
+		 *
+		 * @return new records which have to be added to the end of file
+		 */
+		List<List<Object>> finish();
+
+		/**
+		 * @return false if file doesn't have to be replaced
+		 */
+		boolean isChanged();
+	}
 
-		CSVFormat csv = Util.createCsvFormatReader(configuration);
-		try (Reader reader = Util.createReader(configuration)) {
+	/**
+	 * Applies requests of one batch to records read from csv file, tracks results.
+	 * Request which can't be applied (e.g. account already exists or wasn't found) is failed, other requests
+	 * are still written. Requests are completed only after file was replaced.
+	 */
+	private class BatchRewrite implements RecordRewrite {
 
-			ConnectorObject object = null;
+		private final Map<String, WriteRequest> creates = new LinkedHashMap<>();
 
-			CSVParser parser = csv.parse(reader);
-			Iterator<CSVRecord> iterator = parser.iterator();
-			while (iterator.hasNext()) {
-				CSVRecord record = iterator.next();
-				if (skipRecord(record)) {
-					continue;
-				}
+		private final Map<String, WriteRequest> targets = new HashMap<>();
 
-				ConnectorObject obj = createConnectorObject(record);
+		private final Map<WriteRequest, Uid> results = new HashMap<>();
 
-				Name name = obj.getName();
-				if (name != null && username.equals(AttributeUtil.getStringValue(name))) {
-					object = obj;
-					break;
+		private BatchRewrite(List<WriteRequest> requests) {
+			for (WriteRequest request : requests) {
+				if (Operation.CREATE.equals(request.operation)) {
+					creates.put(createKey(request.uid.getUidValue()), request);
+				} else {
+					targets.put(createKey(request.uid.getUidValue()), request);
 				}
 			}
+		}
 
-			if (object == null) {
-				String message = authenticate ? "Invalid username and/or password" : "Invalid username";
-				throw new InvalidCredentialException(message);
+		@Override
+		public List<Object> apply(String recordUidValue, Supplier<String[]> values) {
+			if (StringUtil.isEmpty(recordUidValue)) {
+				// records without unique attribute value are dropped by update and delete
+				return targets.isEmpty() ? null : Collections.emptyList();
 			}
 
-			if (authenticate) {
-				authenticate(username, password, object);
+			String key = createKey(recordUidValue);
+
+			WriteRequest create = creates.get(key);
+			if (create != null && !create.isDone()) {
+				create.fail(createAlreadyExistsException(create.uid));
 			}
 
-			Uid uid = object.getUid();
-			if (uid == null) {
-				throw new UnknownUidException("Unique attribute doesn't have value for account '" + username + "'");
+			WriteRequest request = targets.get(key);
+			if (request == null || request.isDone()) {
+				return null;
 			}
 
-			return uid;
-		} catch (Exception ex) {
-			handleGenericException(ex, "Error during authentication");
+			if (Operation.DELETE.equals(request.operation)) {
+				results.put(request, request.uid);
+				return Collections.emptyList();
+			}
+
+			int uidIndex = getLayout().getUidIndex();
+
+			List<Object> updated;
+			Uid uid;
+			try {
+				updated = updateObject(request.operation, values.get(), request.attributes);
+				uid = new Uid(updated.get(uidIndex).toString());
+			} catch (RuntimeException ex) {
+				request.fail(ex);
+				results.remove(request);
+
+				return null;
+			}
+
+			results.put(request, uid);
+
+			return updated;
 		}
 
-		return null;
-	}
+		/**
+		 * Fails requests for records which weren't found.
+		 */
+		@Override
+		public List<List<Object>> finish() {
+			List<List<Object>> newRecords = new ArrayList<>();
+			for (WriteRequest create : creates.values()) {
+				if (!create.isDone()) {
+					newRecords.add(create.newRecord);
+
+					results.put(create, create.uid);
+				}
+			}
 
-	private void authenticate(String username, GuardedString password, ConnectorObject foundObject) {
-		GuardedString objPassword = AttributeUtil.getPasswordValue(foundObject.getAttributes());
-		if (objPassword == null) {
-			throw new InvalidPasswordException("Password not defined for username '" + username + "'");
+			for (WriteRequest request : targets.values()) {
+				if (!request.isDone() && !results.containsKey(request)) {
+					request.fail(new UnknownUidException("Account '" + request.uid + "' not found"));
+				}
+			}
+
+			return newRecords;
 		}
 
-		// we don't want to authenticate against empty password
-		StringAccessor acc = new StringAccessor();
-		objPassword.access(acc);
-		if (StringUtil.isEmpty(acc.getValue())) {
-			throw new InvalidPasswordException("Password not defined for username '" + username + "'");
+		@Override
+		public boolean isChanged() {
+			// all requests failed otherwise
+			return !results.isEmpty();
 		}
 
-		if (!objPassword.equals(password)) {
-			throw new InvalidPasswordException("Invalid username and/or password");
+		/**
+		 * Has to be called after file was replaced.
+		 */
+		private void complete() {
+			// offsets of records in rewritten file are not known
+			invalidateIndex();
+
+			results.forEach(WriteRequest::complete);
 		}
 	}
 
-	private void handleJustNewToken(SyncToken token, SyncResultsHandler handler) {
-		if (!(handler instanceof SyncTokenResultsHandler)) {
-			return;
+	/**
+	 * Writes batch to journal instead of csv file (journal mode), csv file is changed only by compaction.
+	 * Current records are looked up in journal first and then in uid index.
+	 *
+	 * @return false if batch can't be written to journal (encoding doesn't allow uid index, unique attribute values
+	 * in csv file are not unique or record is renamed to value which already exists), csv file has to be written
+	 * directly
+	 */
+	private boolean journalRecords(List<WriteRequest> requests, FileVersion oldVersion) throws IOException {
+		if (!Util.canAppendRecord(Charset.forName(configuration.getEncoding()))) {
+			return false;
 		}
 
-		SyncTokenResultsHandler tokenHandler = (SyncTokenResultsHandler) handler;
-		tokenHandler.handleResult(token);
-	}
+		UidIndex index = getIndex();
+		synchronized (index) {
+			if (!index.isCurrent(oldVersion)) {
+				index.rebuild(configuration.getFilePath(), oldVersion, consumer -> loadIndexRecords(consumer));
+			}
 
-	@Override
-	public void sync(ObjectClass oc, SyncToken token, SyncResultsHandler handler, OperationOptions oo) {
-		File syncLockFile = Util.createSyncLockFile(configuration);
-		FileLock lock = Util.obtainTmpFileLock(syncLockFile);
+			if (!index.isUnique()) {
+				return false;
+			}
+		}
 
-		try {
-			long tokenLongValue = getTokenValue(token);
-			LOG.info("Token {0}", tokenLongValue);
+		int uidIndex = getLayout().getUidIndex();
 
-			if (tokenLongValue == -1) {
-				//token doesn't exist, we only create new sync file - we're synchronizing from now on
-				String newToken = createNewSyncFile();
-				handleJustNewToken(new SyncToken(newToken), handler);
-				LOG.info("Token value was not defined {0}, only creating new sync file, synchronizing from now on.", token);
-				return;
-			}
+		Journal journal = getJournal();
+		synchronized (journal) {
+			journal.refresh(configuration);
 
-			doSync(tokenLongValue, handler);
-		} finally {
-			Util.closeQuietly(lock);
-			syncLockFile.delete();
-		}
-	}
+			Map<String, Journal.Entry> entries = new LinkedHashMap<>();
+			Map<WriteRequest, Uid> results = new HashMap<>();
 
-	private File findOldCsv(long token, String newToken, SyncResultsHandler handler) {
-		File oldCsv = Util.createSyncFileName(token, configuration);
-		if (!oldCsv.exists()) {
-			// we'll try to find first sync file which is newer than token (there's a possibility
-			// that we loose some changes this way - same as for example ldap)
-			oldCsv = Util.findOldestSyncFile(token, configuration);
-			if (oldCsv == null || oldCsv.equals(createSyncFileName(Long.parseLong(newToken), configuration))) {
-				// we didn't found any newer file, we should stop and handle this situation as if this
-				// is first time we're doing sync operation (like getLatestSyncToken())
+			for (WriteRequest request : requests) {
+				String uidValue = request.uid.getUidValue();
+				String[] record = findCurrentRecord(uidValue, entries, journal);
+
+				if (Operation.CREATE.equals(request.operation)) {
+					if (record != null) {
+						request.fail(createAlreadyExistsException(request.uid));
+						continue;
+					}
+
+					entries.put(createKey(uidValue), new Journal.Entry(uidValue, toIndexRecord(request.newRecord)));
+					results.put(request, request.uid);
+					continue;
+				}
+
+				if (record == null) {
+					request.fail(new UnknownUidException("Account '" + request.uid + "' not found"));
+					continue;
+				}
+
+				if (Operation.DELETE.equals(request.operation)) {
+					entries.put(createKey(uidValue), new Journal.Entry(uidValue, null));
+					results.put(request, request.uid);
+					continue;
+				}
+
+				List<Object> updated;
+				Uid uid;
+				try {
+					updated = updateObject(request.operation, record, request.attributes);
+					uid = new Uid(updated.get(uidIndex).toString());
+				} catch (RuntimeException ex) {
+					request.fail(ex);
+					continue;
+				}
+
+				if (!uidMatches(uidValue, uid.getUidValue(), configuration.isIgnoreIdentifierCase())) {
+					if (findCurrentRecord(uid.getUidValue(), entries, journal) != null) {
+						// nothing was written yet, direct write will fail or invalidate uid index
+						return false;
+					}
+
+					entries.put(createKey(uidValue), new Journal.Entry(uidValue, null));
+				}
+				entries.put(createKey(uid.getUidValue()), new Journal.Entry(uid.getUidValue(), toIndexRecord(updated)));
+				results.put(request, uid);
+			}
+
+			if (!entries.isEmpty()) {
+				File journalFile = Util.createJournalFile(configuration);
+				boolean created = !journalFile.exists();
+
+				Durability durability = configuration.getDurabilityLevel();
+				journal.append(new ArrayList<>(entries.values()), configuration, durability.isForced());
+				if (created) {
+					durability.forceDirectory(journalFile);
+				}
+				durability.schedule(journalFile, configuration.getDurabilityInterval());
+
+				long interval = configuration.getJournalCompactionInterval() * 1000L;
+				long delay = journal.getSize() >= configuration.getJournalCompactionSize() * 1024L ? 0 : interval;
+
+				// compaction scheduled by previous write is cancelled when last connector instance is disposed,
+				// csv file lock is held already, journal can be folded by this write
+				if (!journal.isCompactionScheduled() && journal.getAge() >= interval
+						|| !journal.scheduleCompaction(this::compactJournalQuietly, delay)) {
+					foldJournalQuietly();
+				}
+			}
+
+			results.forEach(WriteRequest::complete);
+		}
+
+		return true;
+	}
+
+	/**
+	 * @return current record, null if it doesn't exist or it was deleted
+	 */
+	private String[] findCurrentRecord(String uid, Map<String, Journal.Entry> entries, Journal journal)
+			throws IOException {
+
+		Journal.Entry entry = entries.get(createKey(uid));
+		if (entry == null) {
+			entry = journal.get(uid);
+		}
+
+		if (entry != null) {
+			return entry.getRecord();
+		}
+
+		long offset;
+		UidIndex index = getIndex();
+		synchronized (index) {
+			offset = index.get(uid);
+		}
+
+		if (offset < 0) {
+			return null;
+		}
+
+		String[] record = readIndexedRecord(uid, offset);
+		if (record == null) {
+			throw new ConnectorException("File " + configuration.getFilePath() + " was changed during write, "
+					+ "write has to be repeated");
+		}
+
+		return record;
+	}
+
+	/**
+	 * Writes changes from journal to csv file and truncates journal. Csv file lock has to be held.
+	 *
+	 * @return false if csv file wasn't changed
+	 */
+	private boolean foldJournal() throws IOException {
+		if (Util.createJournalFile(configuration).length() == 0) {
+			return false;
+		}
+
+		boolean changed = false;
+
+		Journal journal = getJournal();
+		synchronized (journal) {
+			journal.refresh(configuration);
+
+			if (!journal.isEmpty()) {
+				LOG.ok("Folding journal into {0}, entries: {1}", configuration.getFilePath(),
+						journal.getEntries().size());
+
+				FileVersion oldVersion = FileVersion.of(configuration.getFilePath());
+
+				JournalRewrite rewrite = new JournalRewrite(journal.getEntries());
+				changed = replaceRecords(rewrite, oldVersion);
+				if (changed) {
+					invalidateIndex();
+				}
+			}
+
+			journal.clear(configuration);
+		}
+
+		return changed;
+	}
+
+	/**
+	 * Folds journal into csv file, called by compaction task. Reads don't fold journal, they apply it over csv
+	 * file (see {@link JournalOverlay}).
+	 */
+	private void compactJournal() throws IOException {
+		if (Util.createJournalFile(configuration).length() == 0) {
+			return;
+		}
+
+		FileLockManager.Lock lock = FileLockManager.lock(Util.createLockFile(configuration),
+				configuration.getLockTimeout());
+		try {
+			if (lock.getStaleOwner() != null) {
+				Util.deleteOrphanedTmpFiles(configuration);
+			}
+
+			synchronized (FileLocks.get(configuration.getFilePath())) {
+				foldJournal();
+			}
+		} finally {
+			Util.cleanupResources(lock, configuration);
+		}
+	}
+
+	/**
+	 * Csv file lock has to be held.
+	 */
+	private void foldJournalQuietly() {
+		try {
+			foldJournal();
+		} catch (Exception ex) {
+			LOG.warn(ex, "Couldn't fold journal into {0}, it will be folded by next write",
+					configuration.getFilePath());
+		}
+	}
+
+	private void compactJournalQuietly() {
+		try {
+			compactJournal();
+		} catch (Exception ex) {
+			LOG.warn(ex, "Couldn't compact journal of {0}, it will be compacted by next write",
+					configuration.getFilePath());
+		}
+	}
+
+	private Journal getJournal() {
+		return Journal.getInstance(configuration);
+	}
+
+	/**
+	 * @return changes from journal which weren't folded into csv file yet, null if there are none
+	 */
+	private JournalOverlay getJournalOverlay() throws IOException {
+		if (Util.createJournalFile(configuration).length() == 0) {
+			return null;
+		}
+
+		Journal journal = getJournal();
+		synchronized (journal) {
+			journal.refresh(configuration);
+
+			return journal.isEmpty() ? null : new JournalOverlay(journal.getEntries(), journal.getSize());
+		}
+	}
+
+	/**
+	 * Changes from journal applied over csv file by reads, so that reads don't have to fold journal (that needs
+	 * csv file lock and write access). Records changed in journal are skipped while csv file is read, current
+	 * records from journal are returned at the end. Journal entries are idempotent, overlay can be applied also
+	 * over csv file into which journal was folded after overlay was created.
+	 */
+	private class JournalOverlay {
+
+		private final Map<String, Journal.Entry> entries = new LinkedHashMap<>();
+
+		private final long size;
+
+		private JournalOverlay(Collection<Journal.Entry> entries, long size) {
+			for (Journal.Entry entry : entries) {
+				this.entries.put(createKey(entry.getUid()), entry);
+			}
+			this.size = size;
+		}
+
+		/**
+		 * @return true if record from csv file was changed or deleted in journal, it must not be returned
+		 */
+		private boolean isChanged(String[] record) {
+			int uidIndex = getLayout().getUidIndex();
+			String uid = uidIndex < record.length ? record[uidIndex] : null;
+
+			return uid != null && entries.containsKey(createKey(uid));
+		}
+
+		/**
+		 * @return records created or updated in journal
+		 */
+		private List<String[]> getRecords() {
+			List<String[]> records = new ArrayList<>();
+			for (Journal.Entry entry : entries.values()) {
+				if (!entry.isDeleted()) {
+					records.add(entry.getRecord());
+				}
+			}
+
+			return records;
+		}
+
+		private RecordRewrite createRewrite() {
+			return new JournalRewrite(entries.values());
+		}
+
+		/**
+		 * @return version of journal, it changes with every batch appended to journal
+		 */
+		private String getVersion() {
+			return Long.toHexString(size);
+		}
+	}
+
+	/**
+	 * Replaces records changed in journal, records which are not in csv file are added to the end.
+	 * Entries are idempotent, journal can be folded into csv file which already contains its changes.
+	 */
+	private class JournalRewrite implements RecordRewrite {
+
+		private final Map<String, Journal.Entry> entries = new LinkedHashMap<>();
+
+		private boolean changed;
+
+		private JournalRewrite(Collection<Journal.Entry> entries) {
+			for (Journal.Entry entry : entries) {
+				this.entries.put(createKey(entry.getUid()), entry);
+			}
+		}
+
+		@Override
+		public List<Object> apply(String recordUidValue, Supplier<String[]> values) {
+			if (StringUtil.isEmpty(recordUidValue)) {
+				return null;
+			}
+
+			Journal.Entry entry = entries.remove(createKey(recordUidValue));
+			if (entry == null) {
+				return null;
+			}
+
+			changed = true;
+
+			if (entry.isDeleted()) {
+				return Collections.emptyList();
+			}
+
+			return Arrays.asList((Object[]) entry.getRecord());
+		}
+
+		@Override
+		public List<List<Object>> finish() {
+			List<List<Object>> newRecords = new ArrayList<>();
+			for (Journal.Entry entry : entries.values()) {
+				if (!entry.isDeleted()) {
+					newRecords.add(Arrays.asList((Object[]) entry.getRecord()));
+				}
+			}
+
+			changed |= !newRecords.isEmpty();
+
+			return newRecords;
+		}
+
+		@Override
+		public boolean isChanged() {
+			return changed;
+		}
+	}
+
+	private AlreadyExistsException createAlreadyExistsException(Uid uid) {
+		return new AlreadyExistsException("Account already exists '" + uid.getUidValue() + "'.");
+	}
+
+	/**
+	 * Key used to group requests, requests with the same key are not written in one batch.
+	 */
+	private String createKey(String uid) {
+		return configuration.isIgnoreIdentifierCase() ? uid.toLowerCase(Locale.ROOT) : uid;
+	}
+
+	/**
+	 * @return keys of current unique attribute value and of all new unique attribute values
+	 */
+	private Set<String> createKeys(Uid uid, Set<Attribute> attributes) {
+		Set<String> keys = new HashSet<>();
+		keys.add(createKey(uid.getUidValue()));
+
+		if (attributes == null) {
+			return keys;
+		}
+
+		for (Attribute attribute : attributes) {
+			String name = attribute.getName();
+			if (!Uid.NAME.equals(name) && !isUid(name)
+					&& !(Name.NAME.equals(name) && isUniqueAndNameAttributeEqual())) {
+				continue;
+			}
+
+			if (attribute.getValue() == null) {
+				continue;
+			}
+
+			for (Object value : attribute.getValue()) {
+				if (value != null) {
+					keys.add(createKey(value.toString()));
+				}
+			}
+		}
+
+		return keys;
+	}
+
+	private UidIndex getIndex() {
+		return UidIndex.getInstance(configuration);
+	}
+
+	/**
+	 * @param appended byte offsets of records appended to file with old version
+	 */
+	private void updateIndex(FileVersion oldVersion, Map<String, Long> appended) throws IOException {
+		FileVersion newVersion = FileVersion.of(configuration.getFilePath());
+
+		UidIndex index = getIndex();
+		synchronized (index) {
+			index.update(oldVersion, newVersion, appended);
+		}
+	}
+
+	private void invalidateIndex() {
+		UidIndex index = getIndex();
+		synchronized (index) {
+			index.invalidate();
+		}
+	}
+
+	/**
+	 * Reads record at byte offset from uid index.
+	 *
+	 * @return null if record at offset doesn't have expected unique attribute value (file was changed in place
+	 * by other application, so that its version didn't change), index was invalidated
+	 */
+	private String[] readIndexedRecord(String uid, long offset) throws IOException {
+		Charset charset = Charset.forName(configuration.getEncoding());
+
+		try (OffsetTrackingReader reader = new OffsetTrackingReader(configuration.getFilePath(), charset, offset);
+			 RecordReader record = Util.createRecordReader(reader, configuration)) {
+
+			int uidIndex = getLayout().getUidIndex();
+			if (record.next() && uidIndex < record.size() && uidMatches(uid, record.get(uidIndex),
+					configuration.isIgnoreIdentifierCase())) {
+
+				return record.toArray();
+			}
+		}
+
+		LOG.warn("Record {0} not found at offset {1} of {2}, uid index invalidated", uid, offset,
+				configuration.getFilePath());
+		invalidateIndex();
+
+		return null;
+	}
+
+	/**
+	 * Creates record in the same form as it will be read back from csv file.
+	 */
+	private String[] toIndexRecord(List<Object> record) {
+		String[] result = new String[record.size()];
+		for (int i = 0; i < result.length; i++) {
+			Object value = record.get(i);
+
+			String str = value != null ? value.toString() : "";
+			result[i] = configuration.isTrim() ? str.trim() : str;
+		}
+
+		return result;
+	}
+
+	private void moveTmpToOrig() throws IOException {
+		// moving existing file
+		String path = configuration.getFilePath().getPath();
+		File orig = new File(path);
+
+		File tmp = Util.createTmpPath(configuration);
+
+		Files.move(tmp.toPath(), orig.toPath(), StandardCopyOption.REPLACE_EXISTING);
+	}
+
+	private boolean isPassword(String column) {
+		return StringUtil.isNotEmpty(configuration.getPasswordAttribute())
+				&& configuration.getPasswordAttribute().equals(column);
+	}
+
+	private boolean isUid(String column) {
+		return configuration.getUniqueAttribute().equals(column);
+	}
+
+	private List<Object> createNewRecord(Set<Attribute> attributes) {
+		final Object[] record = new Object[getHeader().size()];
+
+		Attribute nameAttr = AttributeUtil.getNameFromAttributes(attributes);
+		Object name = nameAttr != null ? AttributeUtil.getSingleValue(nameAttr) : null;
+
+		Attribute uniqueAttr = AttributeUtil.find(configuration.getUniqueAttribute(), attributes);
+		Object uid = uniqueAttr != null ? AttributeUtil.getSingleValue(uniqueAttr) : null;
+
+		for (String column : getHeader().keySet()) {
+			Object value;
+			if (isPassword(column)) {
+				Attribute attr = AttributeUtil.find(OperationalAttributes.PASSWORD_NAME, attributes);
+				if (attr == null) {
+					continue;
+				}
+
+				value = Util.createRawValue(attr.getValue(), false, configuration);
+			} else if (isName(column)) {
+				value = name;
+			} else if (isUid(column)) {
+				value = uid;
+			} else {
+				Attribute attr = AttributeUtil.find(column, attributes);
+				if (attr == null) {
+					continue;
+				}
+
+				value = Util.createRawValue(attr, configuration);
+			}
+
+			record[getHeader().get(column).getIndex()] = value;
+		}
+
+		return Arrays.asList(record);
+	}
+
+	private String findUidValue(Set<Attribute> attributes) {
+		Attribute uniqueAttr = AttributeUtil.find(configuration.getUniqueAttribute(), attributes);
+		Object uid = uniqueAttr != null ? AttributeUtil.getSingleValue(uniqueAttr) : null;
+
+		if (uid == null) {
+			throw new InvalidAttributeValueException("Unique attribute value not defined");
+		}
+
+		return uid.toString();
+	}
+
+	@Override
+	public void delete(ObjectClass oc, Uid uid, OperationOptions oo) {
+		if (configuration.isReadOnly()) {
+			throw new ConnectorException("Can't add attribute values. Readonly set to true.");
+		}
+
+		update(Operation.DELETE, oc, uid, null, oo);
+	}
+
+	@Override
+	public Uid resolveUsername(ObjectClass oc, String username, OperationOptions oo) {
+		return resolveUsername(username, null, oo, false);
+	}
+
+	@Override
+	public FilterTranslator<CsvFilter> createFilterTranslator(ObjectClass oc, OperationOptions oo) {
+		return new CsvFilterTranslator(configuration, getHeader());
+	}
+
+	private boolean skipRecord(CSVRecord record) {
+		if (configuration.isHeaderExists() && record.getRecordNumber() == 1) {
+			return true;
+		}
+
+		if (isRecordEmpty(record)) {
+			return true;
+		}
+
+		return false;
+	}
+
+	private boolean skipRecord(RecordReader record) {
+		if (configuration.isHeaderExists() && record.getRecordNumber() == 1) {
+			return true;
+		}
+
+		return isRecordEmpty(record);
+	}
+
+	@Override
+	public void executeQuery(ObjectClass oc, CsvFilter filter, ResultsHandler handler, OperationOptions oo) {
+		int[] projection = createProjection(oo, filter);
+
+		String uid = filter != null ? filter.getUid() : null;
+		JournalOverlay overlay = null;
+		try {
+			if (uid != null && (executeJournalQuery(uid, filter, projection, handler)
+					|| executeIndexedQuery(uid, filter, projection, handler))) {
+				return;
+			}
+
+			// csv file is read directly, changes from journal which weren't folded yet are applied over it,
+			// journal has to be read before csv file is opened
+			overlay = getJournalOverlay();
+		} catch (Exception ex) {
+			handleGenericException(ex, "Error during query execution");
+		}
+
+		boolean sorted = oo != null && oo.getSortKeys() != null && oo.getSortKeys().length > 0;
+		boolean paged = oo != null && oo.getPageSize() != null && oo.getPageSize() > 0;
+
+		// byte offset of page can't point to records from journal, position in records is used instead
+		if (sorted || paged && overlay != null) {
+			try {
+				executeSortedQuery(filter, projection, handler, oo, overlay);
+			} catch (Exception ex) {
+				handleGenericException(ex, "Error during query execution");
+			}
+			return;
+		}
+
+		if (paged) {
+			try {
+				executePagedQuery(filter, projection, handler, oo);
+			} catch (Exception ex) {
+				handleGenericException(ex, "Error during query execution");
+			}
+			return;
+		}
+
+		if (configuration.getParallelism() > 1) {
+			try {
+				if (executeParallelQuery(filter, projection, handler, overlay)) {
+					return;
+				}
+			} catch (Exception ex) {
+				handleGenericException(ex, "Error during query execution");
+			}
+		}
+
+		try (Reader reader = Util.createReader(configuration);
+			 RecordReader record = Util.createRecordReader(reader, configuration)) {
+
+			boolean stopped = false;
+			while (record.next()) {
+				if (skipRecord(record)) {
+					continue;
+				}
+
+				checkColumnCount(record);
+
+				String[] values = record.toArray();
+				if (overlay != null && overlay.isChanged(values)) {
+					continue;
+				}
+
+				if (filter != null && !filter.matches(values)) {
+					continue;
+				}
+
+				if (!handler.handle(createConnectorObject(values, projection))) {
+					stopped = true;
+					break;
+				}
+			}
+
+			if (!stopped) {
+				handleJournalRecords(overlay, filter, projection, handler);
+			}
+		} catch (Exception ex) {
+			handleGenericException(ex, "Error during query execution");
+		}
+	}
+
+	/**
+	 * Passes records created or updated in journal (which weren't folded into csv file yet) to handler.
+	 *
+	 * @return false if handler stopped search
+	 */
+	private boolean handleJournalRecords(JournalOverlay overlay, CsvFilter filter, int[] projection,
+										 ResultsHandler handler) {
+		if (overlay == null) {
+			return true;
+		}
+
+		for (String[] record : overlay.getRecords()) {
+			if (filter != null && !filter.matches(record)) {
+				continue;
+			}
+
+			if (!handler.handle(createConnectorObject(record, projection))) {
+				return false;
+			}
+		}
+
+		return true;
+	}
+
+	/**
+	 * File is split to byte ranges which start on record boundaries (see {@link RecordBoundaryScanner}), ranges
+	 * are parsed and filtered in parallel. Objects are passed to handler in file order, or as soon as range
+	 * is parsed if record order doesn't have to be preserved. Handler is always called from this thread.
+	 *
+	 * @return false if file is too small or its format doesn't allow splitting
+	 */
+	private boolean executeParallelQuery(CsvFilter filter, int[] projection, ResultsHandler handler,
+										 JournalOverlay overlay) throws IOException {
+
+		File file = configuration.getFilePath();
+		long size = file.length();
+		int parallelism = configuration.getParallelism();
+
+		int ranges = countRanges(size);
+		if (ranges < 2) {
+			return false;
+		}
+
+		RecordBoundaryScanner scanner = RecordBoundaryScanner.create(configuration);
+		if (scanner == null) {
+			LOG.ok("Csv file format doesn't allow parallel parsing of {0}", file);
+			return false;
+		}
+
+		// header has to be initialized before it's used from multiple threads
+		getHeader();
+
+		ForkJoinPool pool = new ForkJoinPool(parallelism);
+		try {
+			long[] boundaries = scanner.findBoundaries(file, ranges, pool);
+			if (boundaries.length < 2) {
+				return false;
+			}
+
+			LOG.ok("Parsing {0} in {1} ranges using {2} threads", file, boundaries.length, parallelism);
+
+			if (executeParallelQuery(pool, boundaries, filter, projection, handler, overlay)) {
+				handleJournalRecords(overlay, filter, projection, handler);
+			}
+		} catch (InterruptedException ex) {
+			Thread.currentThread().interrupt();
+			throw new ConnectorException("Interrupted during parallel query execution", ex);
+		} finally {
+			pool.shutdownNow();
+		}
+
+		return true;
+	}
+
+	private int countRanges(long size) {
+		int parallelism = configuration.getParallelism();
+
+		return (int) Math.min(Math.max(parallelism * 4L, size / MAX_RANGE_SIZE), size / MIN_RANGE_SIZE);
+	}
+
+	/**
+	 * @return false if handler stopped search
+	 */
+	private boolean executeParallelQuery(ForkJoinPool pool, long[] boundaries, CsvFilter filter, int[] projection,
+										 ResultsHandler handler, JournalOverlay overlay)
+			throws IOException, InterruptedException {
+
+		boolean ordered = configuration.isPreserveRecordOrder();
+		// limits number of parsed ranges kept in memory
+		int window = configuration.getParallelism() * 2;
+
+		List<Future<RangeResult>> futures = new ArrayList<>();
+		BlockingQueue<Integer> completed = new LinkedBlockingQueue<>();
+		RangeResult[] results = new RangeResult[boundaries.length];
+
+		int delivered = 0;
+		long recordsBefore = 0;
+		while (delivered < boundaries.length) {
+			while (futures.size() < boundaries.length && futures.size() < delivered + window) {
+				int index = futures.size();
+				long start = boundaries[index];
+				long end = index + 1 < boundaries.length ? boundaries[index + 1] : -1;
+
+				futures.add(pool.submit(() -> {
+					try {
+						List<ConnectorObject> objects = new ArrayList<>();
+						RangeResult result = parseRange(start, end, 1, index == 0, filter, projection, overlay,
+								objects::add);
+						result.objects = objects;
+
+						return result;
+					} finally {
+						completed.add(index);
+					}
+				}));
+			}
+
+			int index = completed.take();
+			results[index] = getRangeResult(futures.get(index));
+
+			if (!ordered) {
+				RangeResult result = results[index];
+				if (result.invalidRecordNumber > 0) {
+					long before = 0;
+					for (int i = 0; i < index; i++) {
+						before += getRangeResult(futures.get(i)).records;
+					}
+					throw createColumnCountException(result.invalidRecordSize, before + result.invalidRecordNumber);
+				}
+
+				if (result.end != (index + 1 < boundaries.length ? boundaries[index + 1] : -1)) {
+					throw new ConnectorException("Couldn't split csv file " + configuration.getFilePath()
+							+ " on record boundaries, parallelism has to be set to 1");
+				}
+
+				if (!deliver(result, handler)) {
+					return false;
+				}
+				delivered++;
+
+				continue;
+			}
+
+			while (delivered < boundaries.length && results[delivered] != null) {
+				RangeResult result = results[delivered];
+				if (result.invalidRecordNumber > 0) {
+					throw createColumnCountException(result.invalidRecordSize,
+							recordsBefore + result.invalidRecordNumber);
+				}
+
+				if (!deliver(result, handler)) {
+					return false;
+				}
+
+				recordsBefore += result.records;
+
+				long expectedEnd = delivered + 1 < boundaries.length ? boundaries[delivered + 1] : -1;
+				if (result.end != expectedEnd) {
+					// range boundary wasn't on record boundary, rest of the file is parsed by this thread
+					LOG.warn("Range of {0} doesn't end on expected record boundary {1}, real boundary {2}",
+							configuration.getFilePath(), expectedEnd, result.end);
+
+					futures.forEach(f -> f.cancel(true));
+
+					RangeResult rest = parseRange(result.end, -1, recordsBefore + 1, false, filter, projection,
+							overlay, handler::handle);
+					if (rest.invalidRecordNumber > 0) {
+						throw createColumnCountException(rest.invalidRecordSize,
+								recordsBefore + rest.invalidRecordNumber);
+					}
+
+					return !rest.stopped;
+				}
+
+				delivered++;
+			}
+		}
+
+		return true;
+	}
+
+	private boolean deliver(RangeResult result, ResultsHandler handler) {
+		for (ConnectorObject object : result.objects) {
+			if (!handler.handle(object)) {
+				return false;
+			}
+		}
+		// objects are not needed anymore
+		result.objects = null;
+
+		return true;
+	}
+
+	private <T> T getRangeResult(Future<T> future) throws IOException, InterruptedException {
+		try {
+			return future.get();
+		} catch (ExecutionException ex) {
+			Throwable cause = ex.getCause();
+			if (cause instanceof IOException) {
+				throw (IOException) cause;
+			}
+			if (cause instanceof RuntimeException) {
+				throw (RuntimeException) cause;
+			}
+			throw new ConnectorException("Couldn't parse csv file range, reason: " + cause.getMessage(), cause);
+		}
+	}
+
+	/**
+	 * Parses records starting in byte range, also finds start of the first record after range.
+	 *
+	 * @param end         offset where next range starts, -1 if range ends with file
+	 * @param firstRecord number of the first record in range
+	 * @param consumer    returns false if parsing should stop
+	 */
+	private RangeResult parseRange(long start, long end, long firstRecord, boolean fileStart, CsvFilter filter,
+								   int[] projection, JournalOverlay overlay, Predicate<ConnectorObject> consumer)
+			throws IOException {
+
+		RangeResult result = new RangeResult();
+
+		try (OffsetTrackingReader reader = new OffsetTrackingReader(configuration.getFilePath(),
+				Charset.forName(configuration.getEncoding()), start);
+			 RecordReader record = Util.createRecordReader(reader, configuration, firstRecord)) {
+
+			while (record.next()) {
+				reader.release(record.getCharacterPosition());
+
+				if (end >= 0 && !reader.isBefore(record.getCharacterPosition(), end)) {
+					result.end = reader.getByteOffset(record.getCharacterPosition());
+					break;
+				}
+
+				result.records++;
+
+				if (fileStart && skipRecord(record) || !fileStart && isRecordEmpty(record)) {
+					continue;
+				}
+
+				if (getHeader().size() != record.size()) {
+					result.invalidRecordNumber = record.getRecordNumber() - firstRecord + 1;
+					result.invalidRecordSize = record.size();
+					break;
+				}
+
+				String[] values = record.toArray();
+				if (overlay != null && overlay.isChanged(values)) {
+					continue;
+				}
+
+				if (filter != null && !filter.matches(values)) {
+					continue;
+				}
+
+				if (!consumer.test(createConnectorObject(values, projection))) {
+					result.stopped = true;
+					break;
+				}
+			}
+		}
+
+		return result;
+	}
+
+	private static class RangeResult {
+
+		private List<ConnectorObject> objects;
+
+		private long records;
+
+		/**
+		 * Offset of the first record after range, -1 if range ended with file.
+		 */
+		private long end = -1;
+
+		/**
+		 * Number of record in range (starting with 1) which has wrong number of columns.
+		 */
+		private long invalidRecordNumber;
+
+		private int invalidRecordSize;
+
+		/**
+		 * Whether consumer stopped parsing.
+		 */
+		private boolean stopped;
+	}
+
+	/**
+	 * Returned cookie contains byte offset of the first record after page, so that next page doesn't have to parse
+	 * records before it. If file was changed in between, records are counted from the beginning of file again.
+	 */
+	private void executePagedQuery(CsvFilter filter, int[] projection, ResultsHandler handler, OperationOptions oo)
+			throws IOException {
+
+		int pageSize = oo.getPageSize();
+		PagedResultsCookie cookie = PagedResultsCookie.parse(oo.getPagedResultsCookie());
+
+		int skip = 0;
+		if (cookie == null && oo.getPagedResultsOffset() != null && oo.getPagedResultsOffset() > 1) {
+			skip = oo.getPagedResultsOffset() - 1;
+		}
+
+		File file = configuration.getFilePath();
+		// version has to be read before file is opened, otherwise we could mark old data with new version
+		FileVersion version = FileVersion.of(file);
+
+		long offset = 0;
+		long recordNumber = 1;
+		long firstRecordNumber = 1;
+		if (cookie != null) {
+			if (cookie.getOffset() < 0) {
+				// previous page was read with changes from journal, which were folded since then
+				throw new ConnectorException("File " + file + " changed since previous page, search has to be "
+						+ "started again");
+			}
+
+			if (cookie.isValidFor(version)) {
+				offset = cookie.getOffset();
+				recordNumber = cookie.getRecordNumber();
+			} else {
+				LOG.ok("File {0} changed since previous page, records will be counted again", file);
+			}
+			firstRecordNumber = cookie.getRecordNumber();
+		}
+
+		String nextCookie = null;
+		boolean stopped = false;
+		int count = 0;
+
+		try (OffsetTrackingReader reader = new OffsetTrackingReader(file,
+				Charset.forName(configuration.getEncoding()), offset);
+			 RecordReader record = Util.createRecordReader(reader, configuration, recordNumber)) {
+
+			while (record.next()) {
+				reader.release(record.getCharacterPosition());
+
+				if (record.getRecordNumber() < firstRecordNumber) {
+					continue;
+				}
+
+				if (count == pageSize) {
+					long recordOffset = reader.getByteOffset(record.getCharacterPosition());
+					nextCookie = new PagedResultsCookie(recordOffset, record.getRecordNumber(), version).toString();
+					break;
+				}
+
+				if (skipRecord(record)) {
+					continue;
+				}
+
+				checkColumnCount(record);
+
+				String[] values = record.toArray();
+				if (filter != null && !filter.matches(values)) {
+					continue;
+				}
+
+				if (skip > 0) {
+					skip--;
+					continue;
+				}
+
+				count++;
+				if (!handler.handle(createConnectorObject(values, projection))) {
+					stopped = true;
+					break;
+				}
+			}
+		}
+
+		if (handler instanceof SearchResultsHandler) {
+			((SearchResultsHandler) handler).handleResult(new SearchResult(nextCookie, -1,
+					nextCookie == null && !stopped));
+		}
+	}
+
+	/**
+	 * Matching records are sorted in memory, or using sorted runs in tmp folder if they don't fit into
+	 * configured memory limit. Paged results cookie contains position of next page in sorted records and version
+	 * of file, records of changed file would be sorted differently, so such cookie is rejected.
+	 * <p>
+	 * Also used for paged search over changes from journal without sort keys, records are then returned in file
+	 * order followed by records from journal.
+	 */
+	private void executeSortedQuery(CsvFilter filter, int[] projection, ResultsHandler handler, OperationOptions oo,
+									JournalOverlay overlay) throws IOException {
+
+		// sort is stable, comparator which doesn't compare anything keeps order of records
+		Comparator<String[]> comparator = oo.getSortKeys() != null && oo.getSortKeys().length > 0
+				? createComparator(oo.getSortKeys()) : (r1, r2) -> 0;
+
+		int pageSize = oo.getPageSize() != null && oo.getPageSize() > 0 ? oo.getPageSize() : 0;
+
+		File file = configuration.getFilePath();
+		// version has to be read before file is opened, otherwise we could mark old data with new version
+		String version = FileVersion.of(file).toToken();
+		if (overlay != null) {
+			version += "-" + overlay.getVersion();
+		}
+
+		int position = 0;
+		PagedResultsCookie cookie = PagedResultsCookie.parse(oo.getPagedResultsCookie());
+		if (cookie != null) {
+			if (cookie.getRecordNumber() > Integer.MAX_VALUE) {
+				throw new ConnectorException("Invalid paged results cookie '" + oo.getPagedResultsCookie() + "'");
+			}
+			// cookie with offset was created for page read without changes from journal
+			if (cookie.getOffset() >= 0 || !cookie.isValidFor(version)) {
+				throw new ConnectorException("File " + file + " changed since previous page, sorted search has to "
+						+ "be started again");
+			}
+			position = (int) cookie.getRecordNumber();
+		} else if (oo.getPagedResultsOffset() != null && oo.getPagedResultsOffset() > 1) {
+			position = oo.getPagedResultsOffset() - 1;
+		}
+
+		// one more record is needed to find out whether there's next page
+		int limit = pageSize > 0 ? position + pageSize + 1 : 0;
+		long memoryLimit = configuration.getSortMemoryLimit() * 1024L * 1024L;
+
+		String nextCookie = null;
+		boolean stopped = false;
+
+		try (ExternalSorter sorter = new ExternalSorter(comparator, memoryLimit, configuration.getTmpFolder(), limit)) {
+			try (Reader reader = Util.createReader(configuration);
+				 RecordReader record = Util.createRecordReader(reader, configuration)) {
+
+				while (record.next()) {
+					if (skipRecord(record)) {
+						continue;
+					}
+
+					checkColumnCount(record);
+
+					String[] values = record.toArray();
+					if (overlay != null && overlay.isChanged(values)) {
+						continue;
+					}
+
+					if (filter != null && !filter.matches(values)) {
+						continue;
+					}
+
+					sorter.add(values);
+				}
+			}
+
+			if (overlay != null) {
+				for (String[] values : overlay.getRecords()) {
+					if (filter == null || filter.matches(values)) {
+						sorter.add(values);
+					}
+				}
+			}
+
+			Iterator<String[]> sorted = sorter.sort();
+			for (int i = 0; i < position && sorted.hasNext(); i++) {
+				sorted.next();
+			}
+
+			int count = 0;
+			while (sorted.hasNext()) {
+				if (pageSize > 0 && count == pageSize) {
+					nextCookie = new PagedResultsCookie(-1, position + count, version).toString();
+					break;
+				}
+
+				count++;
+				if (!handler.handle(createConnectorObject(sorted.next(), projection))) {
+					stopped = true;
+					break;
+				}
+			}
+		}
+
+		if (pageSize > 0 && handler instanceof SearchResultsHandler) {
+			((SearchResultsHandler) handler).handleResult(new SearchResult(nextCookie, -1,
+					nextCookie == null && !stopped));
+		}
+	}
+
+	/**
+	 * Values are compared as strings, records without value are always sorted last.
+	 */
+	private Comparator<String[]> createComparator(SortKey[] sortKeys) {
+		Comparator<String[]> comparator = null;
+		for (SortKey sortKey : sortKeys) {
+			Column column = getSortColumn(sortKey.getField());
+			if (column == null) {
+				throw new InvalidAttributeValueException("Can't sort by attribute '" + sortKey.getField() + "'");
+			}
+
+			int index = column.getIndex();
+			boolean ascending = sortKey.isAscendingOrder();
+
+			Comparator<String[]> keyComparator = (r1, r2) -> {
+				boolean empty1 = StringUtil.isEmpty(r1[index]);
+				boolean empty2 = StringUtil.isEmpty(r2[index]);
+				if (empty1 || empty2) {
+					return Boolean.compare(empty1, empty2);
+				}
+
+				return ascending ? r1[index].compareTo(r2[index]) : r2[index].compareTo(r1[index]);
+			};
+
+			comparator = comparator == null ? keyComparator : comparator.thenComparing(keyComparator);
+		}
+
+		return comparator;
+	}
+
+	private Column getSortColumn(String attributeName) {
+		if (Uid.NAME.equals(attributeName)) {
+			return getHeader().get(configuration.getUniqueAttribute());
+		}
+
+		if (Name.NAME.equals(attributeName)) {
+			return getHeader().get(configuration.getNameAttribute());
+		}
+
+		if (attributeName.equals(configuration.getUniqueAttribute())
+				|| attributeName.equals(configuration.getNameAttribute())
+				|| attributeName.equals(configuration.getPasswordAttribute())) {
+			// not available as attribute with the same name
+			return null;
+		}
+
+		return getHeader().get(attributeName);
+	}
+
+	/**
+	 * Looks up record in journal. Journal can contain changes also when journal mode is disabled (they weren't
+	 * folded into csv file yet).
+	 *
+	 * @return false if record wasn't changed since last compaction, csv file has to be searched
+	 */
+	private boolean executeJournalQuery(String uid, CsvFilter filter, int[] projection, ResultsHandler handler)
+			throws IOException {
+
+		if (Util.createJournalFile(configuration).length() == 0) {
+			return false;
+		}
+
+		Journal.Entry entry;
+
+		Journal journal = getJournal();
+		synchronized (journal) {
+			journal.refresh(configuration);
+			entry = journal.get(uid);
+		}
+
+		if (entry == null) {
+			return false;
+		}
+
+		if (!entry.isDeleted() && filter.matches(entry.getRecord())) {
+			handler.handle(createConnectorObject(entry.getRecord(), projection));
+		}
+
+		return true;
+	}
+
+	/**
+	 * @return false if uid index can't be used (encoding doesn't allow byte offsets of records or unique attribute
+	 * values are not unique in csv file)
+	 */
+	private boolean executeIndexedQuery(String uid, CsvFilter filter, int[] projection, ResultsHandler handler)
+			throws IOException {
+
+		if (!Util.canAppendRecord(Charset.forName(configuration.getEncoding()))) {
+			return false;
+		}
+
+		long offset;
+
+		UidIndex index = getIndex();
+		synchronized (index) {
+			// version has to be read before file is opened, otherwise we could mark old data with new version
+			FileVersion version = FileVersion.of(configuration.getFilePath());
+			if (!index.isCurrent(version)) {
+				index.rebuild(configuration.getFilePath(), version, consumer -> loadIndexRecords(consumer));
+			}
+
+			if (!index.isUnique()) {
+				LOG.ok("Unique attribute values are not unique in {0}, uid index can't be used",
+						configuration.getFilePath());
+				return false;
+			}
+
+			offset = index.get(uid);
+		}
+
+		if (offset < 0) {
+			return true;
+		}
+
+		String[] record = readIndexedRecord(uid, offset);
+		if (record == null) {
+			return false;
+		}
+
+		if (filter.matches(record)) {
+			handler.handle(createConnectorObject(record, projection));
+		}
+
+		return true;
+	}
+
+	private void loadIndexRecords(UidIndex.RecordConsumer consumer) throws IOException {
+		int uidIndex = getHeader().get(configuration.getUniqueAttribute()).getIndex();
+		Charset charset = Charset.forName(configuration.getEncoding());
+
+		try (OffsetTrackingReader reader = new OffsetTrackingReader(configuration.getFilePath(), charset, 0);
+			 RecordReader record = Util.createRecordReader(reader, configuration)) {
+
+			while (record.next()) {
+				long position = record.getCharacterPosition();
+				reader.release(position);
+
+				if (skipRecord(record)) {
+					continue;
+				}
+
+				checkColumnCount(record);
+
+				String uid = record.get(uidIndex);
+				if (StringUtil.isEmpty(uid)) {
+					continue;
+				}
+
+				consumer.accept(uid, reader.getByteOffset(position));
+			}
+		}
+	}
+
+	private boolean uidMatches(String uid1, String uid2, boolean ignoreCase) {
+		return uid1.equals(uid2) || ignoreCase && uid1.equalsIgnoreCase(uid2);
+	}
+
+	private void validateAuthenticationInputs(String username, GuardedString password, boolean authenticate) {
+		if (StringUtil.isEmpty(username)) {
+			throw new InvalidCredentialException("Username must not be empty");
+		}
+
+		if (authenticate && StringUtil.isEmpty(configuration.getPasswordAttribute())) {
+			throw new ConfigurationException("Password attribute not defined in configuration");
+		}
+
+		if (authenticate && password == null) {
+			throw new InvalidPasswordException("Password is not defined");
+		}
+	}
+
+	private Uid resolveUsername(String username, GuardedString password, OperationOptions oo, boolean authenticate) {
+		validateAuthenticationInputs(username, password, authenticate);
+
+		// password is needed only for authentication
+		int[] projection = authenticate ? null : createProjection(null, null);
+
+		JournalOverlay overlay = null;
+		try {
+			// journal has to be read before csv file is opened
+			overlay = getJournalOverlay();
+		} catch (Exception ex) {
+			handleGenericException(ex, "Error during authentication");
+		}
+
+		try (Reader reader = Util.createReader(configuration);
+			 RecordReader record = Util.createRecordReader(reader, configuration)) {
+
+			ConnectorObject object = null;
+
+			while (record.next()) {
+				if (skipRecord(record)) {
+					continue;
+				}
+
+				checkColumnCount(record);
+
+				String[] values = record.toArray();
+				if (overlay != null && overlay.isChanged(values)) {
+					continue;
+				}
+
+				ConnectorObject obj = createConnectorObject(values, projection);
+
+				Name name = obj.getName();
+				if (name != null && username.equals(AttributeUtil.getStringValue(name))) {
+					object = obj;
+					break;
+				}
+			}
+
+			if (object == null && overlay != null) {
+				for (String[] values : overlay.getRecords()) {
+					ConnectorObject obj = createConnectorObject(values, projection);
+
+					Name name = obj.getName();
+					if (name != null && username.equals(AttributeUtil.getStringValue(name))) {
+						object = obj;
+						break;
+					}
+				}
+			}
+
+			if (object == null) {
+				String message = authenticate ? "Invalid username and/or password" : "Invalid username";
+				throw new InvalidCredentialException(message);
+			}
+
+			if (authenticate) {
+				authenticate(username, password, object);
+			}
+
+			Uid uid = object.getUid();
+			if (uid == null) {
+				throw new UnknownUidException("Unique attribute doesn't have value for account '" + username + "'");
+			}
+
+			return uid;
+		} catch (Exception ex) {
+			handleGenericException(ex, "Error during authentication");
+		}
+
+		return null;
+	}
+
+	private void authenticate(String username, GuardedString password, ConnectorObject foundObject) {
+		GuardedString objPassword = AttributeUtil.getPasswordValue(foundObject.getAttributes());
+		if (objPassword == null) {
+			throw new InvalidPasswordException("Password not defined for username '" + username + "'");
+		}
+
+		// we don't want to authenticate against empty password
+		StringAccessor acc = new StringAccessor();
+		objPassword.access(acc);
+		if (StringUtil.isEmpty(acc.getValue())) {
+			throw new InvalidPasswordException("Password not defined for username '" + username + "'");
+		}
+
+		if (!objPassword.equals(password)) {
+			throw new InvalidPasswordException("Invalid username and/or password");
+		}
+	}
+
+	private void handleJustNewToken(SyncToken token, SyncResultsHandler handler) {
+		if (!(handler instanceof SyncTokenResultsHandler)) {
+			return;
+		}
+
+		SyncTokenResultsHandler tokenHandler = (SyncTokenResultsHandler) handler;
+		tokenHandler.handleResult(token);
+	}
+
+	@Override
+	public void sync(ObjectClass oc, SyncToken token, SyncResultsHandler handler, OperationOptions oo) {
+		File syncLockFile = Util.createSyncLockFile(configuration);
+		FileLockManager.Lock lock = FileLockManager.lock(syncLockFile, configuration.getLockTimeout());
+
+		try {
+			long tokenLongValue = getTokenValue(token);
+			LOG.info("Token {0}", tokenLongValue);
+
+			if (tokenLongValue == -1) {
+				//token doesn't exist, we only create new sync file - we're synchronizing from now on
+				String newToken = createNewSyncFile();
+				handleJustNewToken(new SyncToken(newToken), handler);
+				LOG.info("Token value was not defined {0}, only creating new sync file, synchronizing from now on.", token);
+				return;
+			}
+
+			doSync(tokenLongValue, handler);
+		} finally {
+			Util.closeQuietly(lock);
+		}
+	}
+
+	private File findOldCsv(long token, String newToken, SyncResultsHandler handler) {
+		File oldCsv = Util.createSyncFileName(token, configuration);
+		if (!oldCsv.exists()) {
+			// we'll try to find first sync file which is newer than token (there's a possibility
+			// that we loose some changes this way - same as for example ldap)
+			oldCsv = Util.findOldestSyncFile(token, configuration);
+			if (oldCsv == null || oldCsv.equals(createSyncFileName(Long.parseLong(newToken), configuration))) {
+				// we didn't found any newer file, we should stop and handle this situation as if this
+				// is first time we're doing sync operation (like getLatestSyncToken())
 				handleJustNewToken(new SyncToken(newToken), handler);
 				LOG.info("File for token wasn't found, sync will stop, new token {0} will be returned.", token);
 				return null;
@@ -597,111 +2223,580 @@ public class ObjectClassHandler implements CreateOp, DeleteOp, TestOp, SearchOp<
 	}
 
 	private void doSync(long token, SyncResultsHandler handler) {
+		if (isUnchangedSince(token)) {
+			LOG.ok("Csv file wasn't changed since token {0}, no sync file created", token);
+			handleJustNewToken(new SyncToken(Long.toString(token)), handler);
+			return;
+		}
+
 		String newToken = createNewSyncFile();
 		SyncToken newSyncToken = new SyncToken(newToken);
 
 		File newCsv = Util.createSyncFileName(Long.parseLong(newToken), configuration);
 
-		Integer uidIndex = getHeader().get(configuration.getUniqueAttribute()).getIndex();
-
 		File oldCsv = findOldCsv(token, newToken, handler);
 		if (oldCsv == null) {
 			LOG.error("Couldn't find old csv file to create diff, finishing synchronization.");
 			return;
 		}
 
-		LOG.ok("Comparing files. Old {0} (exists: {1}, size: {2}) with new {3} (exists: {4}, size: {5})",
-				oldCsv.getName(), oldCsv.exists(), oldCsv.length(), newCsv.getName(), newCsv.exists(), newCsv.length());
+		LOG.ok("Comparing files. Old {0} (exists: {1}, size: {2}) with new {3} (exists: {4}, size: {5})",
+				oldCsv.getName(), oldCsv.exists(), oldCsv.length(), newCsv.getName(), newCsv.exists(), newCsv.length());
+
+		try {
+			SyncFileInfo info = SyncFileInfo.read(oldCsv);
+			if (info != null && info.isLinked() && !info.matches(oldCsv)) {
+				// same situation as if old sync file didn't exist
+				LOG.warn("Sync file {0} was changed in place after it was linked, changes since token can't be "
+						+ "found, new token {1} will be returned", oldCsv.getName(), newToken);
+				handleJustNewToken(newSyncToken, handler);
+				return;
+			}
+
+			int changesCount = configuration.isStreamingSync()
+					? doStreamingSync(oldCsv, newCsv, newSyncToken, handler)
+					: doSnapshotSync(oldCsv, newCsv, newSyncToken, handler);
+
+			if (changesCount == 0) {
+				handleJustNewToken(new SyncToken(newToken), handler);
+			}
+		} catch (Exception ex) {
+			handleGenericException(ex, "Error during synchronization");
+		} finally {
+			cleanupOldSyncFiles();
+		}
+	}
+
+	/**
+	 * Compares current records with snapshot of old sync file (see {@link SyncSnapshot}), only hashes of old
+	 * records are kept in memory. Deleted records are read from old sync file at the end. Snapshot of new sync
+	 * file is created while it's read, so that next sync doesn't have to parse it again.
+	 *
+	 * @return number of deltas
+	 */
+	private int doSnapshotSync(File oldCsv, File newCsv, SyncToken newSyncToken, SyncResultsHandler handler)
+			throws IOException {
+
+		SyncSnapshot oldSnapshot = loadSyncSnapshot(oldCsv);
+		SyncDiff diff = new SyncDiff(oldSnapshot, new SyncSnapshot.Builder(newCsv), newSyncToken, handler);
+
+		boolean shouldContinue = configuration.getParallelism() > 1
+				? diffParallel(newCsv, diff)
+				: readSyncFile(newCsv, 0, diff);
+
+		if (shouldContinue) {
+			writeSyncSnapshot(diff.newSnapshot, newCsv);
+
+			diff.changesCount += doSyncDeleted(oldCsv, oldSnapshot, diff.oldUsed, newSyncToken, handler);
+		}
+
+		return diff.changesCount;
+	}
+
+	/**
+	 * New sync file is split to byte ranges (see {@link RecordBoundaryScanner}) which are compared with old
+	 * snapshot in parallel, old snapshot is shared by all threads (it's not modified). Deltas of range are passed
+	 * to handler from this thread when all previous ranges were passed, so that they're in the same order as
+	 * when file is compared sequentially.
+	 *
+	 * @return false if handler stopped sync
+	 */
+	private boolean diffParallel(File csv, SyncDiff diff) throws IOException {
+		int ranges = countRanges(csv.length());
+
+		RecordBoundaryScanner scanner = RecordBoundaryScanner.create(configuration);
+		if (ranges < 2 || scanner == null || !Util.canAppendRecord(Charset.forName(configuration.getEncoding()))) {
+			return readSyncFile(csv, 0, diff);
+		}
+
+		// header has to be initialized before it's used from multiple threads
+		getHeader();
+
+		ForkJoinPool pool = new ForkJoinPool(configuration.getParallelism());
+		try {
+			long[] boundaries = scanner.findBoundaries(csv, ranges, pool);
+			if (boundaries.length < 2) {
+				return readSyncFile(csv, 0, diff);
+			}
+
+			LOG.ok("Comparing {0} in {1} ranges using {2} threads", csv.getName(), boundaries.length,
+					configuration.getParallelism());
+
+			return diffParallel(pool, csv, boundaries, diff);
+		} catch (InterruptedException ex) {
+			Thread.currentThread().interrupt();
+			throw new ConnectorException("Interrupted during parallel synchronization", ex);
+		} finally {
+			pool.shutdownNow();
+		}
+	}
+
+	private boolean diffParallel(ForkJoinPool pool, File csv, long[] boundaries, SyncDiff diff)
+			throws IOException, InterruptedException {
+
+		// limits number of compared ranges kept in memory
+		int window = configuration.getParallelism() * 2;
+
+		List<Future<SyncRange>> futures = new ArrayList<>();
+
+		long recordsBefore = 0;
+		for (int i = 0; i < boundaries.length; i++) {
+			while (futures.size() < boundaries.length && futures.size() < i + window) {
+				int index = futures.size();
+				long start = boundaries[index];
+				long end = index + 1 < boundaries.length ? boundaries[index + 1] : -1;
+
+				futures.add(pool.submit(() -> diff.diffRange(csv, start, end, index == 0)));
+			}
+
+			SyncRange range = getRangeResult(futures.get(i));
+			// delivered range is not needed anymore
+			futures.set(i, null);
+			if (range.invalidRecordNumber > 0) {
+				long recordNumber = recordsBefore + range.invalidRecordNumber;
+				if (range.invalidRecordSize < 0) {
+					throw new ConnectorException("Unique attribute not defined for record number " + recordNumber
+							+ " in " + csv.getName());
+				}
+				throw createColumnCountException(range.invalidRecordSize, recordNumber);
+			}
+
+			if (!diff.deliver(range)) {
+				return false;
+			}
+
+			recordsBefore += range.records;
+
+			long expectedEnd = i + 1 < boundaries.length ? boundaries[i + 1] : -1;
+			if (range.end != expectedEnd) {
+				// range boundary wasn't on record boundary, rest of the file is compared by this thread
+				LOG.warn("Range of {0} doesn't end on expected record boundary {1}, real boundary {2}",
+						csv.getName(), expectedEnd, range.end);
+
+				futures.stream().filter(Objects::nonNull).forEach(f -> f.cancel(true));
+
+				return readSyncFile(csv, range.end, diff);
+			}
+		}
+
+		return true;
+	}
+
+	/**
+	 * Compares records of new sync file with snapshot of old sync file, collects snapshot of new sync file.
+	 */
+	private class SyncDiff implements SyncRecordConsumer {
+
+		private final SyncSnapshot oldSnapshot;
+
+		private final BitSet oldUsed;
+
+		private final SyncSnapshot.Builder newSnapshot;
+
+		private final SyncToken token;
+
+		private final SyncResultsHandler handler;
+
+		private int changesCount;
+
+		private SyncDiff(SyncSnapshot oldSnapshot, SyncSnapshot.Builder newSnapshot, SyncToken token,
+						 SyncResultsHandler handler) {
+			this.oldSnapshot = oldSnapshot;
+			this.oldUsed = new BitSet(oldSnapshot.size());
+			this.newSnapshot = newSnapshot;
+			this.token = token;
+			this.handler = handler;
+		}
+
+		@Override
+		public boolean accept(String uid, RecordReader record, long offset) {
+			long hash = record.hash();
+
+			newSnapshot.add(uid, hash, offset);
+
+			SyncDeltaType type = diff(uid, hash, oldUsed);
+			if (type == null) {
+				return true;
+			}
+
+			checkColumnCount(record);
+
+			SyncDelta delta = buildSyncDelta(type, token, record.toArray());
+			LOG.ok("Created delta {0}", delta);
+
+			changesCount++;
+			return handler.handle(delta);
+		}
+
+		/**
+		 * @return type of delta, null if record wasn't changed
+		 */
+		private SyncDeltaType diff(String uid, long hash, BitSet used) {
+			int index = oldSnapshot.indexOf(uid);
+			if (index < 0) {
+				// record is new account
+				return SyncDeltaType.CREATE;
+			}
+
+			used.set(index);
+
+			// record are equal, no update
+			return oldSnapshot.getHash(index) == hash ? null : SyncDeltaType.UPDATE;
+		}
+
+		/**
+		 * Compares records starting in byte range, called from worker thread. Results are kept in range until
+		 * they're delivered.
+		 *
+		 * @param end offset where next range starts, -1 if range ends with file
+		 */
+		private SyncRange diffRange(File csv, long start, long end, boolean fileStart) throws IOException {
+			SyncRange range = new SyncRange(csv);
+
+			int uidIndex = getHeader().get(configuration.getUniqueAttribute()).getIndex();
+
+			try (OffsetTrackingReader reader = new OffsetTrackingReader(csv,
+					Charset.forName(configuration.getEncoding()), start);
+				 RecordReader record = Util.createRecordReader(reader, configuration, 1)) {
+
+				while (record.next()) {
+					reader.release(record.getCharacterPosition());
+
+					if (end >= 0 && !reader.isBefore(record.getCharacterPosition(), end)) {
+						range.end = reader.getByteOffset(record.getCharacterPosition());
+						break;
+					}
+
+					range.records++;
+
+					if (fileStart && skipRecord(record) || !fileStart && isRecordEmpty(record)) {
+						continue;
+					}
+
+					String uid = uidIndex < record.size() ? record.get(uidIndex) : null;
+					if (StringUtil.isEmpty(uid)) {
+						range.invalidRecordNumber = record.getRecordNumber();
+						range.invalidRecordSize = -1;
+						break;
+					}
+
+					long hash = record.hash();
+
+					range.snapshot.add(uid, hash, reader.getByteOffset(record.getCharacterPosition()));
+
+					SyncDeltaType type = diff(uid, hash, range.used);
+					if (type == null) {
+						continue;
+					}
+
+					if (getHeader().size() != record.size()) {
+						range.invalidRecordNumber = record.getRecordNumber();
+						range.invalidRecordSize = record.size();
+						break;
+					}
+
+					range.deltas.add(buildSyncDelta(type, token, record.toArray()));
+				}
+			}
+
+			return range;
+		}
+
+		/**
+		 * Passes deltas of range to handler, called from thread which started sync.
+		 *
+		 * @return false if handler stopped sync
+		 */
+		private boolean deliver(SyncRange range) {
+			newSnapshot.addAll(range.snapshot);
+			oldUsed.or(range.used);
+
+			for (SyncDelta delta : range.deltas) {
+				LOG.ok("Created delta {0}", delta);
+
+				changesCount++;
+				if (!handler.handle(delta)) {
+					return false;
+				}
+			}
+
+			return true;
+		}
+	}
+
+	private static class SyncRange {
+
+		private final SyncSnapshot.Builder snapshot;
+
+		private final BitSet used = new BitSet();
+
+		private final List<SyncDelta> deltas = new ArrayList<>();
+
+		private long records;
+
+		/**
+		 * Offset of the first record after range, -1 if range ended with file.
+		 */
+		private long end = -1;
+
+		/**
+		 * Number of record in range (starting with 1) which has wrong number of columns or doesn't have unique
+		 * attribute value.
+		 */
+		private long invalidRecordNumber;
+
+		/**
+		 * Number of columns of invalid record, -1 if unique attribute value is missing.
+		 */
+		private int invalidRecordSize;
+
+		private SyncRange(File csv) {
+			this.snapshot = new SyncSnapshot.Builder(csv);
+		}
+	}
+
+	/**
+	 * Sorts records of old and new sync file by unique attribute value (see {@link ExternalSorter}) and merges
+	 * them, memory used doesn't depend on size of files. Deltas are created in order of unique attribute values.
+	 *
+	 * @return number of deltas
+	 */
+	private int doStreamingSync(File oldCsv, File newCsv, SyncToken newSyncToken, SyncResultsHandler handler)
+			throws IOException {
+
+		Map<String, Column> header = initHeader(oldCsv);
+		if (!this.getHeader().equals(header)) {
+			throw new ConnectorException("Headers of sync file '" + oldCsv + "' and current csv don't match");
+		}
+
+		// sorted record starts with record number, see sortSyncFile
+		int uidIndex = getHeader().get(configuration.getUniqueAttribute()).getIndex() + 1;
+		Comparator<String[]> comparator = Comparator.comparing(record -> record[uidIndex]);
 
-		try (Reader reader = Util.createReader(newCsv, configuration)) {
-			Map<String, CSVRecord> oldData = loadOldSyncFile(oldCsv);
+		// both files are sorted at once, they share memory limit
+		long memoryLimit = configuration.getSortMemoryLimit() * 1024L * 1024L / 2;
+		File tmpFolder = configuration.getTmpFolder();
 
-			Set<String> oldUsedOids = new HashSet<>();
+		try (ExternalSorter oldSorter = new ExternalSorter(comparator, memoryLimit, tmpFolder, 0);
+			 ExternalSorter newSorter = new ExternalSorter(comparator, memoryLimit, tmpFolder, 0)) {
 
-			CSVFormat csv = Util.createCsvFormatReader(configuration);
+			sortSyncFile(oldCsv, oldSorter);
+			sortSyncFile(newCsv, newSorter);
 
-			CSVParser parser = csv.parse(reader);
-			Iterator<CSVRecord> iterator = parser.iterator();
+			Iterator<String[]> oldRecords = oldSorter.sort();
+			Iterator<String[]> newRecords = newSorter.sort();
 
-			int changesCount = 0;
+			String[] oldRecord = nextSortedRecord(oldRecords, null, uidIndex, oldCsv);
+			String[] newRecord = nextSortedRecord(newRecords, null, uidIndex, newCsv);
 
-			boolean shouldContinue = true;
-			while (iterator.hasNext()) {
-				CSVRecord record = iterator.next();
-				if (skipRecord(record)) {
-					continue;
+			int changesCount = 0;
+			while (oldRecord != null || newRecord != null) {
+				int result;
+				if (oldRecord == null) {
+					result = 1;
+				} else if (newRecord == null) {
+					result = -1;
+				} else {
+					result = comparator.compare(oldRecord, newRecord);
 				}
 
-				String uid = record.get(uidIndex);
-				if (StringUtil.isEmpty(uid)) {
-					throw new ConnectorException("Unique attribute not defined for record number "
-							+ record.getRecordNumber() + " in " + newCsv.getName());
+				SyncDelta delta = null;
+				if (result < 0) {
+					// record is only in old file
+					delta = buildSortedSyncDelta(SyncDeltaType.DELETE, newSyncToken, oldRecord);
+					oldRecord = nextSortedRecord(oldRecords, oldRecord, uidIndex, oldCsv);
+				} else if (result > 0) {
+					// record is new account
+					delta = buildSortedSyncDelta(SyncDeltaType.CREATE, newSyncToken, newRecord);
+					newRecord = nextSortedRecord(newRecords, newRecord, uidIndex, newCsv);
+				} else {
+					if (!Arrays.equals(oldRecord, 1, oldRecord.length, newRecord, 1, newRecord.length)) {
+						delta = buildSortedSyncDelta(SyncDeltaType.UPDATE, newSyncToken, newRecord);
+					}
+					oldRecord = nextSortedRecord(oldRecords, oldRecord, uidIndex, oldCsv);
+					newRecord = nextSortedRecord(newRecords, newRecord, uidIndex, newCsv);
 				}
 
-				SyncDelta delta = doSyncCreateOrUpdate(record, uid, oldData, oldUsedOids, newSyncToken, handler);
 				if (delta == null) {
 					continue;
 				}
 
+				LOG.ok("Created delta {0}", delta);
 				changesCount++;
-				shouldContinue = handler.handle(delta);
-				if (!shouldContinue) {
+
+				if (!handler.handle(delta)) {
 					break;
 				}
 			}
 
-			if (shouldContinue) {
-				changesCount += doSyncDeleted(oldData, oldUsedOids, newSyncToken, handler);
-			}
+			return changesCount;
+		}
+	}
 
-			if (changesCount == 0) {
-				handleJustNewToken(new SyncToken(newToken), handler);
-			}
-		} catch (Exception ex) {
-			handleGenericException(ex, "Error during synchronization");
-		} finally {
-			cleanupOldSyncFiles();
+	/**
+	 * Adds records of sync file to sorter, record number is added before values of record so that column count
+	 * can be checked (and reported) only for changed records.
+	 */
+	private void sortSyncFile(File csv, ExternalSorter sorter) throws IOException {
+		LOG.ok("Sorting sync file {0}", csv.getName());
+
+		readSyncFile(csv, 0, (uid, record, offset) -> {
+			String[] values = record.toArray();
+
+			String[] sorted = new String[values.length + 1];
+			sorted[0] = Long.toString(record.getRecordNumber());
+			System.arraycopy(values, 0, sorted, 1, values.length);
+
+			sorter.add(sorted);
+			return true;
+		});
+	}
+
+	/**
+	 * @return next sorted record, null if there are no more records
+	 * @throws ConnectorException if unique attribute value is the same as in previous record
+	 */
+	private String[] nextSortedRecord(Iterator<String[]> records, String[] previous, int uidIndex, File csv) {
+		if (!records.hasNext()) {
+			return null;
 		}
+
+		String[] record = records.next();
+		if (previous != null && previous[uidIndex].equals(record[uidIndex])) {
+			throw new ConnectorException("Unique attribute value '" + record[uidIndex] + "' is not unique in "
+					+ csv.getName());
+		}
+
+		return record;
 	}
 
-	private Map<String, CSVRecord> loadOldSyncFile(File oldCsv) {
-		Map<String, Column> header = initHeader(oldCsv);
+	private SyncDelta buildSortedSyncDelta(SyncDeltaType type, SyncToken token, String[] sorted) {
+		String[] values = Arrays.copyOfRange(sorted, 1, sorted.length);
+		if (getHeader().size() != values.length) {
+			throw createColumnCountException(values.length, Long.parseLong(sorted[0]));
+		}
+
+		return buildSyncDelta(type, token, values);
+	}
+
+	/**
+	 * @return true if csv file has the same version and digest as when sync file of token was created, there
+	 * can't be any changes since token and the same token can be returned
+	 */
+	private boolean isUnchangedSince(long token) {
+		File syncFile = Util.createSyncFileName(token, configuration);
+		if (!syncFile.exists() || Util.createJournalFile(configuration).length() > 0) {
+			return false;
+		}
+
+		try {
+			SyncFileInfo info = SyncFileInfo.read(syncFile);
+
+			return info != null && info.isSourceOf(configuration.getFilePath());
+		} catch (IOException ex) {
+			LOG.ok("Couldn't read info of sync file {0}, reason: {1}", syncFile.getName(), ex.getMessage());
+			return false;
+		}
+	}
+
+	/**
+	 * Reads snapshot of sync file, if it doesn't exist (e.g. sync file was created by
+	 * {@link #getLatestSyncToken(ObjectClass)}) it's created from sync file.
+	 */
+	private SyncSnapshot loadSyncSnapshot(File csv) throws IOException {
+		Map<String, Column> header = initHeader(csv);
 		if (!this.getHeader().equals(header)) {
-			throw new ConnectorException("Headers of sync file '" + oldCsv + "' and current csv don't match");
+			throw new ConnectorException("Headers of sync file '" + csv + "' and current csv don't match");
 		}
 
-		Integer uidIndex = header.get(configuration.getUniqueAttribute()).getIndex();
+		File file = Util.createSyncSnapshotFile(csv);
+		if (file.exists()) {
+			try {
+				SyncSnapshot snapshot = SyncSnapshot.read(file);
+				if (snapshot.matches(csv)) {
+					return snapshot;
+				}
 
-		Map<String, CSVRecord> oldData = new HashMap<>();
+				LOG.ok("Sync snapshot {0} was created for different file, it will be created again", file.getName());
+			} catch (IOException ex) {
+				LOG.warn("Couldn't read sync snapshot {0}, it will be created again, reason: {1}", file.getName(),
+						ex.getMessage());
+			}
+		}
 
-		CSVFormat csv = Util.createCsvFormatReader(configuration);
-		try (Reader reader = Util.createReader(oldCsv, configuration)) {
-			CSVParser parser = csv.parse(reader);
-			Iterator<CSVRecord> iterator = parser.iterator();
-			while (iterator.hasNext()) {
-				CSVRecord record = iterator.next();
-				if (skipRecord(record)) {
+		LOG.ok("Creating sync snapshot for {0}", csv.getName());
+
+		SyncSnapshot.Builder builder = new SyncSnapshot.Builder(csv);
+		readSyncFile(csv, 0, (uid, record, offset) -> {
+			builder.add(uid, record.hash(), offset);
+			return true;
+		});
+
+		SyncSnapshot snapshot = builder.build();
+		snapshot.write(file);
+
+		return snapshot;
+	}
+
+	private void writeSyncSnapshot(SyncSnapshot.Builder builder, File csv) {
+		File file = Util.createSyncSnapshotFile(csv);
+		try {
+			builder.build().write(file);
+		} catch (Exception ex) {
+			// snapshot will be created (or error reported) by next sync
+			LOG.warn("Couldn't create sync snapshot {0}, reason: {1}", file.getName(), ex.getMessage());
+			file.delete();
+		}
+	}
+
+	private interface SyncRecordConsumer {
+
+		/**
+		 * @param offset byte offset of record in file, -1 if encoding doesn't allow tracking offsets
+		 * @return false if reading should stop
+		 */
+		boolean accept(String uid, RecordReader record, long offset) throws IOException;
+	}
+
+	/**
+	 * Reads records of sync file which have unique attribute value.
+	 *
+	 * @param start byte offset of the first record which is read, 0 if whole file (including header) is read
+	 * @return false if consumer stopped reading
+	 */
+	private boolean readSyncFile(File csv, long start, SyncRecordConsumer consumer) throws IOException {
+		Charset charset = Charset.forName(configuration.getEncoding());
+		OffsetTrackingReader tracking = Util.canAppendRecord(charset)
+				? new OffsetTrackingReader(csv, charset, start) : null;
+
+		int uidIndex = getHeader().get(configuration.getUniqueAttribute()).getIndex();
+
+		try (Reader reader = tracking != null ? tracking : Util.createReader(csv, configuration);
+			 RecordReader record = Util.createRecordReader(reader, configuration, start == 0 ? 1 : 2)) {
+
+			while (record.next()) {
+				if (tracking != null) {
+					tracking.release(record.getCharacterPosition());
+				}
+
+				if (start == 0 ? skipRecord(record) : isRecordEmpty(record)) {
 					continue;
 				}
 
-				String uid = record.get(uidIndex);
+				String uid = uidIndex < record.size() ? record.get(uidIndex) : null;
 				if (StringUtil.isEmpty(uid)) {
 					throw new ConnectorException("Unique attribute not defined for record number "
-							+ record.getRecordNumber() + " in " + oldCsv.getName());
+							+ record.getRecordNumber() + " in " + csv.getName());
 				}
 
-				if (oldData.containsKey(uid)) {
-					throw new ConnectorException("Unique attribute value '" + uid + "' is not unique in "
-							+ oldCsv.getName());
+				long offset = tracking != null ? tracking.getByteOffset(record.getCharacterPosition()) : -1;
+				if (!consumer.accept(uid, record, offset)) {
+					return false;
 				}
-
-				oldData.put(uid, record);
 			}
-		} catch (Exception ex) {
-			handleGenericException(ex, "Error during query execution");
 		}
 
-		return oldData;
+		return true;
 	}
 
 	private void cleanupOldSyncFiles() {
@@ -723,62 +2818,49 @@ public class ObjectClassHandler implements CreateOp, DeleteOp, TestOp, SearchOp<
 
 			LOG.info("Deleting file {0}.", tokenSyncFile.getName());
 			tokenSyncFile.delete();
+			Util.createSyncSnapshotFile(tokenSyncFile).delete();
+			Util.createSyncInfoFile(tokenSyncFile).delete();
 		}
 	}
 
-	private SyncDelta doSyncCreateOrUpdate(CSVRecord newRecord, String newRecordUid, Map<String, CSVRecord> oldData,
-										   Set<String> oldUsedOids, SyncToken newSyncToken, SyncResultsHandler handler) {
-		SyncDelta delta;
-
-		CSVRecord oldRecord = oldData.get(newRecordUid);
-		if (oldRecord == null) {
-			// newRecord is new account
-			delta = buildSyncDelta(SyncDeltaType.CREATE, newSyncToken, newRecord);
-		} else {
-			oldUsedOids.add(newRecordUid);
-
-			// this will be an update if records aren't equal
-			List old = Util.copyOf(oldRecord.iterator());
-			List _new = Util.copyOf(newRecord.iterator());
-			if (old.equals(_new)) {
-				// record are equal, no update
-				return null;
-			}
-
-			delta = buildSyncDelta(SyncDeltaType.UPDATE, newSyncToken, newRecord);
+	/**
+	 * Reads records which are not in new sync file from old sync file. If offsets of records are known, file is
+	 * read from the first deleted record.
+	 */
+	private int doSyncDeleted(File oldCsv, SyncSnapshot oldSnapshot, BitSet oldUsed, SyncToken newSyncToken,
+							  SyncResultsHandler handler) throws IOException {
+
+		Set<String> deleted = new HashSet<>();
+		long start = Long.MAX_VALUE;
+		for (int i = oldUsed.nextClearBit(0); i < oldSnapshot.size(); i = oldUsed.nextClearBit(i + 1)) {
+			deleted.add(oldSnapshot.getUid(i));
+			start = Math.min(start, oldSnapshot.getOffset(i));
 		}
 
-		LOG.ok("Created delta {0}", delta);
-
-		return delta;
-	}
-
-	private int doSyncDeleted(Map<String, CSVRecord> oldData, Set<String> oldUsedOids, SyncToken newSyncToken,
-							  SyncResultsHandler handler) {
+		if (deleted.isEmpty()) {
+			return 0;
+		}
 
-		int changesCount = 0;
+		int[] changesCount = {0};
 
-		for (String oldUid : oldData.keySet()) {
-			if (oldUsedOids.contains(oldUid)) {
-				continue;
+		readSyncFile(oldCsv, Math.max(start, 0), (uid, record, offset) -> {
+			if (!deleted.remove(uid)) {
+				return true;
 			}
 
-			// deleted record
-			CSVRecord deleted = oldData.get(oldUid);
-			SyncDelta delta = buildSyncDelta(SyncDeltaType.DELETE, newSyncToken, deleted);
+			checkColumnCount(record);
 
+			SyncDelta delta = buildSyncDelta(SyncDeltaType.DELETE, newSyncToken, record.toArray());
 			LOG.ok("Created delta {0}", delta);
-			changesCount++;
+			changesCount[0]++;
 
-			if (!handler.handle(delta)) {
-				break;
-			}
-		}
+			return handler.handle(delta) && !deleted.isEmpty();
+		});
 
-		return changesCount;
+		return changesCount[0];
 	}
 
-	private SyncDelta buildSyncDelta(SyncDeltaType type, SyncToken token, CSVRecord record) {
+	private SyncDelta buildSyncDelta(SyncDeltaType type, SyncToken token, String[] record) {
 		SyncDeltaBuilder builder = new SyncDeltaBuilder();
 		builder.setDeltaType(type);
 		builder.setObjectClass(ObjectClass.ACCOUNT);
@@ -807,13 +2889,32 @@ public class ObjectClassHandler implements CreateOp, DeleteOp, TestOp, SearchOp<
 
 		String token = null;
 		try {
+			// sync file is copy of csv file with changes from journal applied, journal has to be read first
+			JournalOverlay overlay = getJournalOverlay();
+
 			File real = configuration.getFilePath();
 
 			File last = Util.createSyncFileName(timestamp, configuration);
 
 			LOG.info("Creating new sync file {0} file {1}", timestamp, last.getName());
-			Files.copy(real.toPath(), last.toPath(), StandardCopyOption.REPLACE_EXISTING);
-			LOG.ok("New sync file created, name {0}, size {1}", last.getName(), last.length());
+			boolean linked = overlay == null && configuration.isLinkSyncFiles() && linkSyncFile(real, last);
+			if (overlay != null) {
+				writeSyncFile(real, last, overlay);
+				// content differs from csv file, it can't be used to skip sync
+				SyncFileInfo.of(last, false, null, SyncFileInfo.digest(real)).write(last);
+			} else if (!linked) {
+				FileVersion source = FileVersion.of(real);
+				long digest = SyncFileInfo.digest(real);
+
+				Files.copy(real.toPath(), last.toPath(), StandardCopyOption.REPLACE_EXISTING);
+
+				if (!source.equals(FileVersion.of(real))) {
+					// copy may contain part of the change, it can't be used to skip sync
+					source = null;
+				}
+				SyncFileInfo.of(last, false, source, digest).write(last);
+			}
+			LOG.ok("New sync file created, name {0}, size {1}, linked {2}", last.getName(), last.length(), linked);
 
 			token = Long.toString(timestamp);
 		} catch (IOException ex) {
@@ -823,6 +2924,118 @@ public class ObjectClassHandler implements CreateOp, DeleteOp, TestOp, SearchOp<
 		return token;
 	}
 
+	/**
+	 * Writes copy of csv file with changes from journal which weren't folded yet. Csv file is read without lock,
+	 * if it's changed in place (appended) during copy, copy is written again, last attempt holds the lock.
+	 */
+	private void writeSyncFile(File real, File last, JournalOverlay overlay) throws IOException {
+		for (int attempt = 1; attempt < SYNC_FILE_WRITE_ATTEMPTS; attempt++) {
+			FileVersion version = FileVersion.of(real);
+
+			writeSyncFileContent(real, last, overlay);
+
+			if (version.equals(FileVersion.of(real))) {
+				return;
+			}
+		}
+
+		FileLockManager.Lock lock = FileLockManager.lock(Util.createLockFile(configuration),
+				configuration.getLockTimeout());
+		try {
+			synchronized (FileLocks.get(real)) {
+				writeSyncFileContent(real, last, overlay);
+			}
+		} finally {
+			Util.closeQuietly(lock);
+		}
+	}
+
+	private void writeSyncFileContent(File real, File last, JournalOverlay overlay) throws IOException {
+		RecordRewrite rewrite = overlay.createRewrite();
+
+		if (Util.canAppendRecord(Charset.forName(configuration.getEncoding()))) {
+			long size = real.length();
+
+			FileSplicer splicer = spliceRecords(rewrite, size);
+			splicer.write(real, size, last);
+		} else {
+			try (Reader reader = Util.createReader(configuration);
+				 Writer writer = Files.newBufferedWriter(last.toPath(),
+						 Charset.forName(configuration.getEncoding()))) {
+
+				rewriteRecords(rewrite, reader, writer);
+			}
+		}
+	}
+
+	/**
+	 * Creates sync file as hard link of csv file. Csv file is always replaced by write operations (its content is
+	 * never changed), only appends are done in place and those are not used while csv file is linked.
+	 *
+	 * @return false if link can't be created (e.g. tmp folder is on other file system) or csv file is changed
+	 * in place by other application, sync file has to be copied
+	 */
+	private boolean linkSyncFile(File real, File last) throws IOException {
+		FileLockManager.Lock lock = FileLockManager.lock(Util.createLockFile(configuration),
+				configuration.getLockTimeout());
+		try {
+			synchronized (FileLocks.get(real)) {
+				if (isChangedInPlace(real)) {
+					return false;
+				}
+
+				Files.deleteIfExists(last.toPath());
+				try {
+					Files.createLink(last.toPath(), real.toPath());
+				} catch (IOException | UnsupportedOperationException ex) {
+					LOG.ok("Couldn't link sync file {0}, it will be copied, reason: {1}", last.getName(),
+							ex.getMessage());
+					return false;
+				}
+
+				// link changes inode change time, version is read after it
+				SyncFileInfo.of(last, true, FileVersion.of(real), SyncFileInfo.digest(real)).write(last);
+
+				return true;
+			}
+		} finally {
+			Util.closeQuietly(lock);
+		}
+	}
+
+	/**
+	 * Csv file changed in place would change linked sync file too. It's detected using the last sync file linked
+	 * to the same file: it must not be changed since it was linked.
+	 */
+	private boolean isChangedInPlace(File real) throws IOException {
+		String fileKey = SyncFileInfo.getFileKey(real);
+		if (fileKey == null) {
+			return false;
+		}
+
+		String[] tokenFiles = Util.listTokenFiles(configuration);
+		Arrays.sort(tokenFiles);
+
+		for (int i = tokenFiles.length - 1; i >= 0; i--) {
+			File syncFile = new File(configuration.getTmpFolder(), tokenFiles[i]);
+
+			SyncFileInfo info = SyncFileInfo.read(syncFile);
+			if (info == null || !info.isLinked() || !fileKey.equals(info.getFileKey())) {
+				continue;
+			}
+
+			if (info.matches(syncFile)) {
+				return false;
+			}
+
+			LOG.warn("Csv file {0} was changed in place after sync file {1} was linked, sync files will be copied",
+					real.getName(), syncFile.getName());
+			return true;
+		}
+
+		return false;
+	}
+
 	@Override
 	public SyncToken getLatestSyncToken(ObjectClass oc) {
 		String token;
@@ -897,57 +3110,155 @@ public class ObjectClassHandler implements CreateOp, DeleteOp, TestOp, SearchOp<
 		return true;
 	}
 
-	private Map<Integer, String> reverseHeaderMap() {
-		Map<Integer, String> reversed = new HashMap<>();
-		this.getHeader().forEach((key, value) -> {
+	private boolean isRecordEmpty(RecordReader record) {
+		if (!configuration.isIgnoreEmptyLines()) {
+			return false;
+		}
+
+		for (int i = 0; i < record.size(); i++) {
+			if (!record.isBlank(i)) {
+				return false;
+			}
+		}
 
-			reversed.put(value.getIndex(), key);
-		});
+		return true;
+	}
 
-		return reversed;
+	private void checkColumnCount(CSVRecord record) {
+		if (getHeader().size() != record.size()) {
+			throw createColumnCountException(record.size(), record.getRecordNumber());
+		}
+	}
+
+	private void checkColumnCount(RecordReader record) {
+		if (getHeader().size() != record.size()) {
+			throw createColumnCountException(record.size(), record.getRecordNumber());
+		}
+	}
+
+	private ConnectorException createColumnCountException(int size, long recordNumber) {
+		return new ConnectorException("Number of columns in header (" + getHeader().size()
+				+ ") doesn't match number of columns for record (" + size
+				+ "). File row number: " + recordNumber);
 	}
 
 	private ConnectorObject createConnectorObject(CSVRecord record) {
+		checkColumnCount(record);
+
+		return createConnectorObject(Util.toArray(record));
+	}
+
+	private ConnectorObject createConnectorObject(String[] record) {
+		return createConnectorObject(record, null);
+	}
+
+	/**
+	 * @param projection indexes of columns which should be converted to attributes, null if all columns are needed
+	 */
+	private ConnectorObject createConnectorObject(String[] record, int[] projection) {
 		ConnectorObjectBuilder builder = new ConnectorObjectBuilder();
 
-		Map<Integer, String> header = reverseHeaderMap();
+		ColumnLayout layout = getLayout();
 
-		if (header.size() != record.size()) {
-			throw new ConnectorException("Number of columns in header (" + header.size()
-					+ ") doesn't match number of columns for record (" + record.size()
-					+ "). File row number: " + record.getRecordNumber());
+		if (projection == null) {
+			for (int i = 0; i < record.length; i++) {
+				addAttribute(builder, layout, i, record[i]);
+			}
+		} else {
+			for (int i : projection) {
+				addAttribute(builder, layout, i, record[i]);
+			}
 		}
 
-		for (int i = 0; i < record.size(); i++) {
-			String name = header.get(i);
-			String value = record.get(i);
+		return builder.build();
+	}
 
-			if (StringUtil.isEmpty(value)) {
-				continue;
-			}
+	private void addAttribute(ConnectorObjectBuilder builder, ColumnLayout layout, int index, String value) {
+		if (StringUtil.isEmpty(value)) {
+			return;
+		}
 
-			if (name.equals(configuration.getUniqueAttribute())) {
+		switch (layout.getRole(index)) {
+			case UID:
 				builder.setUid(value);
 
-				if (!isUniqueAndNameAttributeEqual()) {
-					continue;
+				if (layout.isUidName()) {
+					builder.setName(new Name(value));
 				}
-			}
-
-			if (name.equals(configuration.getNameAttribute())) {
+				break;
+			case NAME:
 				builder.setName(new Name(value));
-				continue;
+				break;
+			case PASSWORD:
+				builder.addAttribute(OperationalAttributes.PASSWORD_NAME, new GuardedString(value.toCharArray()));
+				break;
+			case MULTIVALUE:
+				builder.addAttribute(layout.getName(index), createAttributeValues(value));
+				break;
+			default:
+				builder.addAttribute(layout.getName(index), value);
+		}
+	}
+
+	/**
+	 * Computes columns which have to be converted to attributes based on {@link OperationOptions#getAttributesToGet()}.
+	 * Unique and name columns are always needed, columns used in filter are added too, so that connector object
+	 * can be filtered again by framework. Password is not returned by default, {@link GuardedString} encrypts
+	 * value and that is too expensive to be done for every record if password wasn't requested.
+	 *
+	 * @return sorted indexes of columns, null if all columns are needed
+	 */
+	private int[] createProjection(OperationOptions oo, CsvFilter filter) {
+		ColumnLayout layout = getLayout();
+
+		String[] attrsToGet = oo != null ? oo.getAttributesToGet() : null;
+		boolean returnDefault = attrsToGet == null || Boolean.TRUE.equals(oo.getReturnDefaultAttributes());
+		if (returnDefault && layout.getPasswordIndex() < 0) {
+			return null;
+		}
+
+		Set<Integer> columns = new TreeSet<>();
+		if (returnDefault) {
+			for (int i = 0; i < layout.size(); i++) {
+				if (i != layout.getPasswordIndex()) {
+					columns.add(i);
+				}
 			}
+		} else {
+			addColumn(columns, configuration.getUniqueAttribute());
+			addColumn(columns, configuration.getNameAttribute());
+		}
 
-			if (name.equals(configuration.getPasswordAttribute())) {
-				builder.addAttribute(OperationalAttributes.PASSWORD_NAME, new GuardedString(value.toCharArray()));
-				continue;
+		if (attrsToGet != null) {
+			for (String attrName : attrsToGet) {
+				if (Uid.NAME.equals(attrName) || Name.NAME.equals(attrName)) {
+					continue;
+				}
+
+				if (OperationalAttributes.PASSWORD_NAME.equals(attrName)) {
+					addColumn(columns, configuration.getPasswordAttribute());
+				} else {
+					addColumn(columns, attrName);
+				}
 			}
+		}
 
-			builder.addAttribute(name, createAttributeValues(value));
+		if (filter != null) {
+			filter.collectColumns(columns);
 		}
 
-		return builder.build();
+		if (columns.size() == layout.size()) {
+			return null;
+		}
+
+		return columns.stream().mapToInt(Integer::intValue).toArray();
+	}
+
+	private void addColumn(Set<Integer> columns, String name) {
+		Column column = name != null ? getHeader().get(name) : null;
+		if (column != null) {
+			columns.add(column.getIndex());
+		}
 	}
 
 	private boolean isUniqueAndNameAttributeEqual() {
@@ -958,22 +3269,7 @@ public class ObjectClassHandler implements CreateOp, DeleteOp, TestOp, SearchOp<
 	}
 
 	private List<String> createAttributeValues(String attributeValue) {
-		List<String> values = new ArrayList<>();
-
-		if (StringUtil.isEmpty(configuration.getMultivalueDelimiter())) {
-			values.add(attributeValue);
-		} else {
-			String[] array = attributeValue.split(configuration.getMultivalueDelimiter());
-			for (String item : array) {
-				if (StringUtil.isEmpty(item)) {
-					continue;
-				}
-
-				values.add(item);
-			}
-		}
-
-		return values;
+		return configuration.getMultivalueCodec().split(attributeValue);
 	}
 
 	private Uid update(Operation operation, ObjectClass objectClass, Uid uid, Set<Attribute> attributes,
@@ -986,72 +3282,15 @@ public class ObjectClassHandler implements CreateOp, DeleteOp, TestOp, SearchOp<
 			return uid;
 		}
 
-		Map<Integer, String> header = reverseHeaderMap();
-
 		attributes = normalize(attributes);
 
-		FileLock lock = Util.obtainTmpFileLock(configuration);
-		Reader reader = null;
-		Writer writer = null;
 		try {
-			synchronized (CsvConnector.SYNCH_FILE_LOCK) {
-				reader = Util.createReader(configuration);
-				writer = new BufferedWriter(Channels.newWriter(lock.channel(), configuration.getEncoding()));
-
-				boolean found = false;
-
-				CSVFormat csv = Util.createCsvFormat(configuration);
-				CSVParser parser = csv.parse(reader);
-
-				csv = Util.createCsvFormat(configuration);
-				CSVPrinter printer = csv.print(writer);
-
-				Iterator<CSVRecord> iterator = parser.iterator();
-				while (iterator.hasNext()) {
-					CSVRecord record = iterator.next();
-
-					Map<String, String> data = new HashMap<>();
-					for (int i = 0; i < record.size(); i++) {
-						data.put(header.get(i), record.get(i));
-					}
-
-					String recordUidValue = data.get(configuration.getUniqueAttribute());
-					if (StringUtil.isEmpty(recordUidValue)) {
-						continue;
-					}
-				
-					if (!uidMatches(uid.getUidValue(), recordUidValue, configuration.isIgnoreIdentifierCase())) {
-						printer.printRecord(record);
-						continue;
-					}
-
-					found = true;
-
-					if (!Operation.DELETE.equals(operation)) {
-						List<Object> updated = updateObject(operation, data, attributes);
-
-						int uidIndex = this.getHeader().get(configuration.getUniqueAttribute()).getIndex();
-						Object newUidValue = updated.get(uidIndex);
-						uid = new Uid(newUidValue.toString());
-					
-						printer.printRecord(updated);
-					}
-				}
-
-				writer.close();
-				reader.close();
-
-				if (!found) {
-					throw new UnknownUidException("Account '" + uid + "' not found");
-				}
-
-				moveTmpToOrig();
-			}
+			WriteRequest request = new WriteRequest(operation, uid, attributes, null, createKeys(uid, attributes));
+			uid = (Uid) getGroupCommit().submit(request, this::writeBatch);
 		} catch (Exception ex) {
 			handleGenericException(ex, "Error during account '" + uid + "' " + operation.name());
-		} finally {
-			Util.cleanupResources(writer, reader, lock, configuration);
 		}
+
 		return uid;
 	}
 
@@ -1111,12 +3350,12 @@ public class ObjectClassHandler implements CreateOp, DeleteOp, TestOp, SearchOp<
 		return configuration.getNameAttribute().equals(column);
 	}
 
-	private List<Object> updateObject(Operation operation, Map<String, String> data, Set<Attribute> attributes) {
+	private List<Object> updateObject(Operation operation, String[] record, Set<Attribute> attributes) {
 		Object[] result = new Object[getHeader().size()];
 
 		// prefill actual data
-		for (String column : getHeader().keySet()) {
-			result[getHeader().get(column).getIndex()] = data.get(column);
+		for (int i = 0; i < result.length && i < record.length; i++) {
+			result[i] = record[i];
 		}
 
 		// update data based on attributes parameter
@@ -1136,7 +3375,7 @@ public class ObjectClassHandler implements CreateOp, DeleteOp, TestOp, SearchOp<
 						index = getHeader().get(name).getIndex();
 					}
 
-					String value = Util.createRawValue(attribute, configuration);
+					String value = Util.createRawValue(attribute.getValue(), isEscaped(index), configuration);
 					result[index] = value;
 				}
 				break;
@@ -1158,7 +3397,9 @@ public class ObjectClassHandler implements CreateOp, DeleteOp, TestOp, SearchOp<
 						index = getHeader().get(name).getIndex();
 					}
 
-					List<Object> current = Util.createAttributeValues((String) result[index], type, configuration);
+					boolean escaped = isEscaped(index);
+					List<Object> current = Util.createAttributeValues((String) result[index], type, escaped,
+							configuration);
 					List<Object> updated = Operation.ADD_ATTR_VALUE.equals(operation) ?
 							Util.addValues(current, attribute.getValue()) :
 							Util.removeValues(current, attribute.getValue());
@@ -1167,11 +3408,18 @@ public class ObjectClassHandler implements CreateOp, DeleteOp, TestOp, SearchOp<
 						throw new IllegalArgumentException("Unique attribute '" + name + "' must contain single value");
 					}
 
-					String value = Util.createRawValue(updated, configuration);
+					String value = Util.createRawValue(updated, escaped, configuration);
 					result[index] = value;
 				}
 		}
 
 		return Arrays.asList(result);
 	}
+
+	/**
+	 * Only multivalue columns are unescaped when read, values of unique, name and password columns are used as is.
+	 */
+	private boolean isEscaped(int index) {
+		return getLayout().getRole(index) == ColumnLayout.Role.MULTIVALUE;
+	}
 }
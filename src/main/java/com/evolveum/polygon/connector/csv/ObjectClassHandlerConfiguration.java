@@ -1,5 +1,8 @@
 package com.evolveum.polygon.connector.csv;
 
+import com.evolveum.polygon.connector.csv.util.FileLocks;
+import com.evolveum.polygon.connector.csv.util.Durability;
+import com.evolveum.polygon.connector.csv.util.MultivalueCodec;
 import com.evolveum.polygon.connector.csv.util.Util;
 import org.apache.commons.csv.QuoteMode;
 import org.identityconnectors.common.StringUtil;
@@ -42,10 +45,38 @@ public class ObjectClassHandlerConfiguration {
 
     private String multivalueDelimiter;
 
+    private String multivalueEscape;
+
+    private MultivalueCodec multivalueCodec;
+
     private String multivalueAttributes;
 
     private int preserveOldSyncFiles = 10;
 
+    private int sortMemoryLimit = 32;
+
+    private int parallelism = 1;
+
+    private boolean preserveRecordOrder = true;
+
+    private boolean fastParser = true;
+
+    private int lockTimeout = 30000;
+
+    private boolean journal = false;
+
+    private int journalCompactionSize = 1024;
+
+    private int journalCompactionInterval = 60;
+
+    private String durability = Durability.NONE.getValue();
+
+    private int durabilityInterval = 1000;
+
+    private boolean linkSyncFiles = false;
+
+    private boolean streamingSync = false;
+
     private File tmpFolder;
 
     private boolean readOnly = false;
@@ -83,9 +114,26 @@ public class ObjectClassHandlerConfiguration {
         setMultivalueAttributes(Util.getSafeValue(values, "multivalueAttributes", null));
 
         setMultivalueDelimiter(Util.getSafeValue(values, "multivalueDelimiter", null));
+        setMultivalueEscape(Util.getSafeValue(values, "multivalueEscape", null));
 
         setPreserveOldSyncFiles(Util.getSafeValue(values, "preserveOldSyncFiles", 10, Integer.class));
 
+        setSortMemoryLimit(Util.getSafeValue(values, "sortMemoryLimit", 32, Integer.class));
+
+        setParallelism(Util.getSafeValue(values, "parallelism", 1, Integer.class));
+        setPreserveRecordOrder(Util.getSafeValue(values, "preserveRecordOrder", true, Boolean.class));
+        setFastParser(Util.getSafeValue(values, "fastParser", true, Boolean.class));
+
+        setLockTimeout(Util.getSafeValue(values, "lockTimeout", 30000, Integer.class));
+
+        setJournal(Util.getSafeValue(values, "journal", false, Boolean.class));
+        setJournalCompactionSize(Util.getSafeValue(values, "journalCompactionSize", 1024, Integer.class));
+        setJournalCompactionInterval(Util.getSafeValue(values, "journalCompactionInterval", 60, Integer.class));
+        setDurability(Util.getSafeValue(values, "durability", Durability.NONE.getValue()));
+        setDurabilityInterval(Util.getSafeValue(values, "durabilityInterval", 1000, Integer.class));
+        setLinkSyncFiles(Util.getSafeValue(values, "linkSyncFiles", false, Boolean.class));
+        setStreamingSync(Util.getSafeValue(values, "streamingSync", false, Boolean.class));
+
         setReadOnly(Util.getSafeValue(values, "readOnly", false, Boolean.class));
 
         setIgnoreIdentifierCase(Util.getSafeValue(values, "ignoreIdentifierCase", false, Boolean.class));
@@ -290,6 +338,27 @@ public class ObjectClassHandlerConfiguration {
 
     public void setMultivalueDelimiter(String multivalueDelimiter) {
         this.multivalueDelimiter = multivalueDelimiter;
+        this.multivalueCodec = null;
+    }
+
+    /**
+     * @return character used to escape multivalue delimiter inside of values, null if values are not escaped
+     */
+    public String getMultivalueEscape() {
+        return multivalueEscape;
+    }
+
+    public void setMultivalueEscape(String multivalueEscape) {
+        this.multivalueEscape = multivalueEscape;
+        this.multivalueCodec = null;
+    }
+
+    public MultivalueCodec getMultivalueCodec() {
+        if (multivalueCodec == null) {
+            multivalueCodec = MultivalueCodec.create(this);
+        }
+
+        return multivalueCodec;
     }
 
     public int getPreserveOldSyncFiles() {
@@ -300,6 +369,145 @@ public class ObjectClassHandlerConfiguration {
         this.preserveOldSyncFiles = preserveOldSyncFiles;
     }
 
+    /**
+     * @return memory used for sorting search results (and sync files in streaming sync) in megabytes, sorted
+     * records are written to tmp folder if they don't fit
+     */
+    public int getSortMemoryLimit() {
+        return sortMemoryLimit;
+    }
+
+    public void setSortMemoryLimit(int sortMemoryLimit) {
+        this.sortMemoryLimit = sortMemoryLimit;
+    }
+
+    /**
+     * @return number of threads used to parse large csv file during search and sync (compared with old snapshot)
+     */
+    public int getParallelism() {
+        return parallelism;
+    }
+
+    public void setParallelism(int parallelism) {
+        this.parallelism = parallelism;
+    }
+
+    /**
+     * @return how long to wait for lock of csv file (or sync lock) in milliseconds
+     */
+    public int getLockTimeout() {
+        return lockTimeout;
+    }
+
+    public void setLockTimeout(int lockTimeout) {
+        this.lockTimeout = lockTimeout;
+    }
+
+    /**
+     * @return whether changes are appended to journal, which is folded into csv file later
+     */
+    public boolean isJournal() {
+        return journal;
+    }
+
+    public void setJournal(boolean journal) {
+        this.journal = journal;
+    }
+
+    /**
+     * @return size of journal (in kilobytes) which starts compaction immediately
+     */
+    public int getJournalCompactionSize() {
+        return journalCompactionSize;
+    }
+
+    public void setJournalCompactionSize(int journalCompactionSize) {
+        this.journalCompactionSize = journalCompactionSize;
+    }
+
+    /**
+     * @return how long (in seconds) changes can stay in journal before compaction
+     */
+    public int getJournalCompactionInterval() {
+        return journalCompactionInterval;
+    }
+
+    public void setJournalCompactionInterval(int journalCompactionInterval) {
+        this.journalCompactionInterval = journalCompactionInterval;
+    }
+
+    /**
+     * @return how written data is forced to storage device, see {@link Durability}
+     */
+    public String getDurability() {
+        return durability;
+    }
+
+    public void setDurability(String durability) {
+        this.durability = durability;
+    }
+
+    public Durability getDurabilityLevel() {
+        return Durability.of(durability);
+    }
+
+    /**
+     * @return minimal time (in milliseconds) between two syncs of the same file, used by batched durability
+     */
+    public int getDurabilityInterval() {
+        return durabilityInterval;
+    }
+
+    public void setDurabilityInterval(int durabilityInterval) {
+        this.durabilityInterval = durabilityInterval;
+    }
+
+    /**
+     * @return whether sync files are created as hard links of csv file, copy is created if link can't be used
+     */
+    public boolean isLinkSyncFiles() {
+        return linkSyncFiles;
+    }
+
+    public void setLinkSyncFiles(boolean linkSyncFiles) {
+        this.linkSyncFiles = linkSyncFiles;
+    }
+
+    /**
+     * @return whether sync sorts old and new sync file using tmp folder and merges them, memory used by sync is
+     * then limited by {@link #getSortMemoryLimit()} instead of file size
+     */
+    public boolean isStreamingSync() {
+        return streamingSync;
+    }
+
+    public void setStreamingSync(boolean streamingSync) {
+        this.streamingSync = streamingSync;
+    }
+
+    /**
+     * @return whether records found by parallel search are returned in the same order as they're in csv file
+     */
+    public boolean isPreserveRecordOrder() {
+        return preserveRecordOrder;
+    }
+
+    public void setPreserveRecordOrder(boolean preserveRecordOrder) {
+        this.preserveRecordOrder = preserveRecordOrder;
+    }
+
+    /**
+     * @return whether csv file is read by tokenizer specialized for configured format, otherwise
+     * generic commons-csv parser is used
+     */
+    public boolean isFastParser() {
+        return fastParser;
+    }
+
+    public void setFastParser(boolean fastParser) {
+        this.fastParser = fastParser;
+    }
+
     public boolean isIgnoreIdentifierCase() {
         return ignoreIdentifierCase;
     }
@@ -345,12 +553,59 @@ public class ObjectClassHandlerConfiguration {
         }
 
         Util.notEmpty(recordSeparator, "Record separator is not defined");
+
+        if (StringUtil.isNotEmpty(multivalueEscape)) {
+            if (multivalueEscape.length() != 1) {
+                throw new ConfigurationException("Multivalue escape must be single character");
+            }
+            if (StringUtil.isEmpty(multivalueDelimiter)) {
+                throw new ConfigurationException("Multivalue escape can't be used without multivalue delimiter");
+            }
+            if (multivalueDelimiter.contains(multivalueEscape)) {
+                throw new ConfigurationException("Multivalue delimiter can't contain multivalue escape");
+            }
+        }
+
+        if (sortMemoryLimit <= 0) {
+            throw new ConfigurationException("Sort memory limit must be greater than zero");
+        }
+
+        if (parallelism <= 0) {
+            throw new ConfigurationException("Parallelism must be greater than zero");
+        }
+
+        if (lockTimeout < 0) {
+            throw new ConfigurationException("Lock timeout must not be negative");
+        }
+
+        if (journalCompactionSize <= 0) {
+            throw new ConfigurationException("Journal compaction size must be greater than zero");
+        }
+
+        if (journalCompactionInterval <= 0) {
+            throw new ConfigurationException("Journal compaction interval must be greater than zero");
+        }
+
+        if (Durability.of(durability) == null) {
+            StringBuilder sb = new StringBuilder();
+            for (Durability d : Durability.values()) {
+                sb.append(d.getValue()).append(",");
+            }
+            sb.deleteCharAt(sb.length() - 1);
+
+            throw new ConfigurationException("Durability '" + durability + "' is not supported, supported values: ["
+                    + sb.toString() + "]");
+        }
+
+        if (durabilityInterval <= 0) {
+            throw new ConfigurationException("Durability interval must be greater than zero");
+        }
     }
 
     public void validateCsvFile() {
     	Util.checkCanReadFile(filePath);
 
-    	synchronized (CsvConnector.SYNCH_FILE_LOCK) {
+    	synchronized (FileLocks.get(filePath)) {
     		if (!readOnly && !filePath.canWrite()) {
     			throw new ConfigurationException("Can't write to file '" + filePath.getAbsolutePath() + "'");
     		}
@@ -0,0 +1,84 @@
+package com.evolveum.polygon.connector.csv.util;
+
+import org.identityconnectors.common.logging.Log;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Background thread shared by connector instances loaded by one class loader. Thread is started by first
+ * scheduled task and stopped when last connector instance is disposed (see {@link #acquire()} and
+ * {@link #release()}), so that thread doesn't keep class loader of unloaded connector alive. Tasks which didn't
+ * start yet are cancelled when thread is stopped.
+ */
+public class BackgroundExecutor {
+
+    private static final Log LOG = Log.getLog(BackgroundExecutor.class);
+
+    private final String name;
+
+    private int users;
+
+    private ScheduledExecutorService executor;
+
+    public BackgroundExecutor(String name) {
+        this.name = name;
+    }
+
+    /**
+     * Called when connector instance is initialized.
+     */
+    public synchronized void acquire() {
+        users++;
+    }
+
+    /**
+     * Called when connector instance is disposed.
+     *
+     * @return true if it was last connector instance, thread was stopped and pending tasks were cancelled
+     */
+    public synchronized boolean release() {
+        if (users == 0) {
+            return false;
+        }
+
+        users--;
+        if (users > 0) {
+            return false;
+        }
+
+        if (executor != null) {
+            for (Runnable task : executor.shutdownNow()) {
+                ((Future<?>) task).cancel(false);
+            }
+            executor = null;
+
+            LOG.ok("Background thread {0} stopped", name);
+        }
+
+        return true;
+    }
+
+    /**
+     * @param delay delay in milliseconds
+     * @return scheduled task, null if there's no connector instance which could own it (task wasn't scheduled)
+     */
+    public synchronized ScheduledFuture<?> schedule(Runnable task, long delay) {
+        if (users == 0) {
+            return null;
+        }
+
+        if (executor == null) {
+            executor = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread thread = new Thread(r, name);
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+
+        return executor.schedule(task, delay, TimeUnit.MILLISECONDS);
+    }
+}
@@ -0,0 +1,137 @@
+package com.evolveum.polygon.connector.csv.util;
+
+import com.evolveum.polygon.connector.csv.ObjectClassHandlerConfiguration;
+
+import java.util.Map;
+
+/**
+ * Header compiled into arrays indexed by column, so that record values can be converted to attributes without
+ * looking up column names. Layout is immutable, it has to be created again whenever header changes.
+ */
+public class ColumnLayout {
+
+    public enum Role {
+
+        /**
+         * Unique attribute, also name attribute if {@link #isUidName()}
+         */
+        UID,
+
+        NAME,
+
+        PASSWORD,
+
+        /**
+         * Value is split using multivalue delimiter
+         */
+        MULTIVALUE,
+
+        /**
+         * Value is used as is, multivalue delimiter is not defined
+         */
+        PLAIN
+    }
+
+    private final Role[] roles;
+
+    private final String[] names;
+
+    private final boolean uidName;
+
+    private final int uidIndex;
+
+    private final int nameIndex;
+
+    private final int passwordIndex;
+
+    private ColumnLayout(Role[] roles, String[] names, boolean uidName, int uidIndex, int nameIndex,
+                         int passwordIndex) {
+        this.roles = roles;
+        this.names = names;
+        this.uidName = uidName;
+        this.uidIndex = uidIndex;
+        this.nameIndex = nameIndex;
+        this.passwordIndex = passwordIndex;
+    }
+
+    public static ColumnLayout create(Map<String, Column> header, ObjectClassHandlerConfiguration configuration) {
+        String uniqueAttribute = configuration.getUniqueAttribute();
+        String nameAttribute = configuration.getNameAttribute();
+        String passwordAttribute = configuration.getPasswordAttribute();
+
+        boolean uidName = uniqueAttribute == null ? nameAttribute == null : uniqueAttribute.equals(nameAttribute);
+        Role defaultRole = configuration.getMultivalueCodec().isMultivalue() ? Role.MULTIVALUE : Role.PLAIN;
+
+        Role[] roles = new Role[header.size()];
+        String[] names = new String[header.size()];
+        int uidIndex = -1;
+        int nameIndex = -1;
+        int passwordIndex = -1;
+
+        for (Map.Entry<String, Column> entry : header.entrySet()) {
+            String name = entry.getKey();
+            int index = entry.getValue().getIndex();
+
+            names[index] = name.intern();
+
+            if (name.equals(uniqueAttribute)) {
+                roles[index] = Role.UID;
+                uidIndex = index;
+
+                if (uidName) {
+                    nameIndex = index;
+                }
+            } else if (name.equals(nameAttribute)) {
+                roles[index] = Role.NAME;
+                nameIndex = index;
+            } else if (name.equals(passwordAttribute)) {
+                roles[index] = Role.PASSWORD;
+                passwordIndex = index;
+            } else {
+                roles[index] = defaultRole;
+            }
+        }
+
+        return new ColumnLayout(roles, names, uidName, uidIndex, nameIndex, passwordIndex);
+    }
+
+    public int size() {
+        return roles.length;
+    }
+
+    public Role getRole(int index) {
+        return roles[index];
+    }
+
+    /**
+     * @return attribute name of column (interned)
+     */
+    public String getName(int index) {
+        return names[index];
+    }
+
+    /**
+     * @return true if unique column is also used as name attribute
+     */
+    public boolean isUidName() {
+        return uidName;
+    }
+
+    public int getUidIndex() {
+        return uidIndex;
+    }
+
+    /**
+     * @return index of name column, -1 if it's not in header
+     */
+    public int getNameIndex() {
+        return nameIndex;
+    }
+
+    /**
+     * @return index of password column, -1 if it's not defined
+     */
+    public int getPasswordIndex() {
+        return passwordIndex;
+    }
+}
@@ -1,7 +1,6 @@
 package com.evolveum.polygon.connector.csv.util;
 
 
-import com.evolveum.polygon.connector.csv.CsvConnector;
 import com.evolveum.polygon.connector.csv.ObjectClassHandlerConfiguration;
 import org.identityconnectors.common.StringUtil;
 import org.identityconnectors.common.logging.Log;
@@ -294,12 +293,12 @@ public class ConfigurationDetector {
     }
 
     private List<Character> readCharacters() throws IOException {
-        BufferedReader reader = Util.createReader(configuration);
+        BufferedReader reader = new BufferedReader(Util.createReader(configuration));
         int countOfRow = 0;
 
         List<Character> characters = new ArrayList<>();
 
-        synchronized (CsvConnector.SYNCH_FILE_LOCK) {
+        synchronized (FileLocks.get(configuration.getFilePath())) {
             int r;
             boolean previousIsNewLine = false;
             while ((r = reader.read()) != -1
@@ -327,11 +326,11 @@ public class ConfigurationDetector {
         Map<String, SuggestedValues> suggestions = new HashMap<>();
 
         try {
-            BufferedReader reader = Util.createReader(configuration);
+            BufferedReader reader = new BufferedReader(Util.createReader(configuration));
 
             String firstLine;
 
-            synchronized (CsvConnector.SYNCH_FILE_LOCK) {
+            synchronized (FileLocks.get(configuration.getFilePath())) {
                 firstLine = reader.readLine();
                 reader.close();
             }
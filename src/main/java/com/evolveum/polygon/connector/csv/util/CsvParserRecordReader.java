@@ -0,0 +1,62 @@
+package com.evolveum.polygon.connector.csv.util;
+
+import org.apache.commons.csv.CSVFormat;
+import org.apache.commons.csv.CSVParser;
+import org.apache.commons.csv.CSVRecord;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.util.Iterator;
+
+/**
+ * Record reader backed by generic commons-csv parser.
+ */
+public class CsvParserRecordReader implements RecordReader {
+
+    private final CSVParser parser;
+
+    private final Iterator<CSVRecord> iterator;
+
+    private CSVRecord record;
+
+    public CsvParserRecordReader(Reader reader, CSVFormat format, long firstRecord) throws IOException {
+        this.parser = new CSVParser(reader, format, 0, firstRecord);
+        this.iterator = parser.iterator();
+    }
+
+    @Override
+    public boolean next() {
+        if (!iterator.hasNext()) {
+            record = null;
+            return false;
+        }
+
+        record = iterator.next();
+        return true;
+    }
+
+    @Override
+    public long getRecordNumber() {
+        return record.getRecordNumber();
+    }
+
+    @Override
+    public long getCharacterPosition() {
+        return record.getCharacterPosition();
+    }
+
+    @Override
+    public int size() {
+        return record.size();
+    }
+
+    @Override
+    public String get(int index) {
+        return record.get(index);
+    }
+
+    @Override
+    public void close() throws IOException {
+        parser.close();
+    }
+}
@@ -0,0 +1,629 @@
+package com.evolveum.polygon.connector.csv.util;
+
+import com.evolveum.polygon.connector.csv.ObjectClassHandlerConfiguration;
+import org.apache.commons.csv.QuoteMode;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.util.Arrays;
+
+/**
+ * Csv tokenizer specialized for format defined in configuration. Characters are read into reusable buffer,
+ * values of current record are kept as slices of this buffer and strings are created only when value is requested.
+ * Values containing escape sequences or doubled quotes are unescaped into second reusable buffer.
+ * <p>
+ * Tokenizer follows commons-csv lexer rules, it returns the same records as parser created
+ * by {@link Util#createCsvFormatReader(ObjectClassHandlerConfiguration)}. Character positions are counted
+ * correctly also after comment lines, which commons-csv doesn't do.
+ */
+public class CsvTokenizer implements RecordReader {
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private static final int EOF = -1;
+    private static final int UNDEFINED = -2;
+    private static final int UNKNOWN_ESCAPE = -3;
+    // disabled special character, doesn't match any character or EOF
+    private static final int NONE = -4;
+
+    // token types
+    private static final int TOKEN = 0;
+    private static final int END_OF_RECORD = 1;
+    private static final int END_OF_FILE = 2;
+    private static final int COMMENT = 3;
+
+    // where value is stored
+    private static final byte IN_BUFFER = 0;
+    private static final byte IN_SCRATCH = 1;
+    private static final byte NULL_VALUE = 2;
+
+    private final Reader reader;
+
+    private final int delimiter;
+    private final int quote;
+    private final int escape;
+    private final int commentMarker;
+    private final boolean ignoreEmptyLines;
+    private final boolean ignoreSurroundingSpaces;
+    private final boolean trim;
+    private final boolean trailingDelimiter;
+    /**
+     * Unquoted empty values are returned as null, same as in commons-csv
+     */
+    private final boolean strictQuoteMode;
+
+    private char[] buffer = new char[BUFFER_SIZE];
+    private int position;
+    private int limit;
+    /**
+     * Character position of the first character in buffer
+     */
+    private long bufferOffset;
+    private int lastChar = UNDEFINED;
+
+    /**
+     * Unescaped values of current record
+     */
+    private char[] scratch = new char[256];
+    private int scratchLength;
+
+    // current record, content of buffer before record start can be discarded
+    private int recordStart;
+    private long recordNumber;
+    private long characterPosition;
+    private int size;
+    private int[] starts = new int[16];
+    private int[] ends = new int[16];
+    private byte[] kinds = new byte[16];
+
+    // current token
+    private int tokenStart;
+    private int tokenEnd;
+    private boolean tokenInScratch;
+    private boolean tokenQuoted;
+    private boolean tokenReady;
+
+    /**
+     * @param firstRecord number of the first record read by tokenizer
+     */
+    public CsvTokenizer(Reader reader, ObjectClassHandlerConfiguration configuration, long firstRecord) {
+        this.reader = reader;
+
+        this.delimiter = toInt(Util.toCharacter(configuration.getFieldDelimiter()));
+        this.quote = toInt(Util.toCharacter(configuration.getQuote()));
+        this.escape = toInt(Util.toCharacter(configuration.getEscape()));
+        this.commentMarker = toInt(Util.toCharacter(configuration.getCommentMarker()));
+        this.ignoreEmptyLines = configuration.isIgnoreEmptyLines();
+        this.ignoreSurroundingSpaces = configuration.isIgnoreSurroundingSpaces();
+        this.trim = configuration.isTrim();
+        this.trailingDelimiter = configuration.isTrailingDelimiter();
+
+        QuoteMode quoteMode = QuoteMode.valueOf(configuration.getQuoteMode());
+        this.strictQuoteMode = quoteMode == QuoteMode.ALL_NON_NULL || quoteMode == QuoteMode.NON_NUMERIC;
+
+        this.recordNumber = firstRecord - 1;
+    }
+
+    private static int toInt(Character character) {
+        return character != null ? character : NONE;
+    }
+
+    @Override
+    public boolean next() throws IOException {
+        size = 0;
+        scratchLength = 0;
+        recordStart = position;
+        characterPosition = bufferOffset + position;
+
+        int type;
+        do {
+            type = nextToken();
+            switch (type) {
+                case TOKEN:
+                    addValue(false);
+                    break;
+                case END_OF_RECORD:
+                    addValue(true);
+                    break;
+                case END_OF_FILE:
+                    if (tokenReady) {
+                        addValue(true);
+                    }
+                    break;
+                default:
+                    // comment is ignored, record continues with next token
+                    type = TOKEN;
+            }
+        } while (type == TOKEN);
+
+        if (size == 0) {
+            return false;
+        }
+
+        recordNumber++;
+        return true;
+    }
+
+    @Override
+    public long getRecordNumber() {
+        return recordNumber;
+    }
+
+    @Override
+    public long getCharacterPosition() {
+        return characterPosition;
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public String get(int index) {
+        checkIndex(index);
+
+        switch (kinds[index]) {
+            case IN_BUFFER:
+                return new String(buffer, starts[index], ends[index] - starts[index]);
+            case IN_SCRATCH:
+                return new String(scratch, starts[index], ends[index] - starts[index]);
+            default:
+                return null;
+        }
+    }
+
+    @Override
+    public boolean isBlank(int index) {
+        checkIndex(index);
+
+        if (kinds[index] == NULL_VALUE) {
+            return true;
+        }
+
+        char[] chars = kinds[index] == IN_BUFFER ? buffer : scratch;
+        for (int i = starts[index]; i < ends[index]; i++) {
+            if (!Character.isWhitespace(chars[i])) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * Hashes values directly in buffers, no strings are created.
+     */
+    @Override
+    public long hash() {
+        long hash = SyncSnapshot.FNV_OFFSET;
+        for (int index = 0; index < size; index++) {
+            if (kinds[index] != NULL_VALUE) {
+                char[] chars = kinds[index] == IN_BUFFER ? buffer : scratch;
+                for (int i = starts[index]; i < ends[index]; i++) {
+                    hash = SyncSnapshot.hash(hash, chars[i]);
+                }
+            }
+
+            hash = SyncSnapshot.hashSeparator(hash, kinds[index] == NULL_VALUE);
+        }
+
+        return hash;
+    }
+
+    private void checkIndex(int index) {
+        if (index < 0 || index >= size) {
+            throw new ArrayIndexOutOfBoundsException("Index " + index + " out of bounds for record with "
+                    + size + " values");
+        }
+    }
+
+    private int nextToken() throws IOException {
+        tokenInScratch = false;
+        tokenQuoted = false;
+        tokenReady = false;
+
+        int last = lastChar;
+        int c = read();
+        boolean eol = readEndOfLine(c);
+
+        if (ignoreEmptyLines) {
+            while (eol && isStartOfLine(last)) {
+                last = c;
+                c = read();
+                eol = readEndOfLine(c);
+
+                if (c == EOF) {
+                    return END_OF_FILE;
+                }
+            }
+        }
+
+        if (last == EOF || last != delimiter && c == EOF) {
+            return END_OF_FILE;
+        }
+
+        if (isStartOfLine(last) && c == commentMarker) {
+            return skipComment();
+        }
+
+        if (ignoreSurroundingSpaces) {
+            while (isWhitespace(c) && !eol) {
+                c = read();
+                eol = readEndOfLine(c);
+            }
+        }
+
+        if (c == delimiter) {
+            emptyToken();
+            return TOKEN;
+        }
+
+        if (eol) {
+            emptyToken();
+            return END_OF_RECORD;
+        }
+
+        if (c == quote) {
+            return parseQuotedToken();
+        }
+
+        if (c == EOF) {
+            emptyToken();
+            tokenReady = true;
+            return END_OF_FILE;
+        }
+
+        return parseSimpleToken(c);
+    }
+
+    private int skipComment() throws IOException {
+        int c = read();
+        if (c == EOF) {
+            return END_OF_FILE;
+        }
+
+        while (c != EOF && c != '\n' && c != '\r') {
+            c = read();
+        }
+
+        if (c == '\r' && lookAhead() == '\n') {
+            read();
+        }
+
+        lastChar = '\n';
+
+        return COMMENT;
+    }
+
+    /**
+     * @param ch the first character of token which was already read
+     */
+    private int parseSimpleToken(int ch) throws IOException {
+        tokenStart = position - 1;
+
+        int type;
+        while (true) {
+            if (ch == '\n' || ch == '\r') {
+                endToken(position - 1);
+                readEndOfLine(ch);
+                type = END_OF_RECORD;
+                break;
+            }
+
+            if (ch == EOF) {
+                endToken(position);
+                tokenReady = true;
+                type = END_OF_FILE;
+                break;
+            }
+
+            if (ch == delimiter) {
+                endToken(position - 1);
+                type = TOKEN;
+                break;
+            }
+
+            if (ch == escape) {
+                toScratch(position - 1);
+                appendEscaped(ch);
+            } else if (tokenInScratch) {
+                appendScratch((char) ch);
+            } else {
+                // plain characters don't have to be processed one by one
+                int i = position;
+                while (i < limit) {
+                    char c = buffer[i];
+                    if (c == delimiter || c == '\n' || c == '\r' || c == escape) {
+                        break;
+                    }
+                    i++;
+                }
+
+                if (i > position) {
+                    position = i;
+                    lastChar = buffer[i - 1];
+                }
+            }
+
+            ch = read();
+        }
+
+        if (ignoreSurroundingSpaces) {
+            char[] chars = tokenInScratch ? scratch : buffer;
+            while (tokenEnd > tokenStart && Character.isWhitespace(chars[tokenEnd - 1])) {
+                tokenEnd--;
+            }
+        }
+
+        return type;
+    }
+
+    private int parseQuotedToken() throws IOException {
+        tokenQuoted = true;
+        tokenStart = position;
+
+        while (true) {
+            if (!tokenInScratch) {
+                int i = position;
+                while (i < limit) {
+                    char c = buffer[i];
+                    if (c == quote || c == escape) {
+                        break;
+                    }
+                    i++;
+                }
+
+                if (i > position) {
+                    position = i;
+                    lastChar = buffer[i - 1];
+                }
+            }
+
+            int c = read();
+            if (c == escape) {
+                toScratch(position - 1);
+                appendEscaped(c);
+            } else if (c == quote) {
+                // token end is adjusted if buffer is compacted during look ahead
+                tokenEnd = position - 1;
+
+                if (lookAhead() != quote) {
+                    endToken(tokenEnd);
+                    return parseAfterQuotedToken();
+                }
+
+                // doubled quote
+                toScratch(tokenEnd);
+                read();
+                appendScratch((char) quote);
+            } else if (c == EOF) {
+                throw new IOException("EOF reached before encapsulated token finished, record "
+                        + (recordNumber + 1));
+            } else if (tokenInScratch) {
+                appendScratch((char) c);
+            }
+        }
+    }
+
+    private int parseAfterQuotedToken() throws IOException {
+        while (true) {
+            int c = read();
+            if (c == delimiter) {
+                return TOKEN;
+            }
+
+            if (c == EOF) {
+                tokenReady = true;
+                return END_OF_FILE;
+            }
+
+            if (readEndOfLine(c)) {
+                return END_OF_RECORD;
+            }
+
+            if (!isWhitespace(c)) {
+                throw new IOException("Invalid char between encapsulated token and delimiter, record "
+                        + (recordNumber + 1));
+            }
+        }
+    }
+
+    private void appendEscaped(int escapeChar) throws IOException {
+        int c = read();
+
+        int unescaped = unescape(c);
+        if (unescaped == UNKNOWN_ESCAPE) {
+            appendScratch((char) escapeChar);
+            appendScratch((char) c);
+        } else {
+            appendScratch((char) unescaped);
+        }
+    }
+
+    private int unescape(int c) throws IOException {
+        switch (c) {
+            case 'r':
+                return '\r';
+            case 'n':
+                return '\n';
+            case 't':
+                return '\t';
+            case 'b':
+                return '\b';
+            case 'f':
+                return '\f';
+            case '\r':
+            case '\n':
+            case '\f':
+            case '\t':
+            case '\b':
+                return c;
+            case EOF:
+                throw new IOException("EOF whilst processing escape sequence");
+            default:
+                if (c == delimiter || c == escape || c == quote || c == commentMarker) {
+                    return c;
+                }
+                return UNKNOWN_ESCAPE;
+        }
+    }
+
+    private void emptyToken() {
+        tokenInScratch = true;
+        tokenStart = 0;
+        tokenEnd = 0;
+    }
+
+    /**
+     * @param end buffer index after the last character of token, ignored if token was moved to scratch buffer
+     */
+    private void endToken(int end) {
+        tokenEnd = tokenInScratch ? scratchLength : end;
+    }
+
+    /**
+     * Moves token to scratch buffer, so that unescaped characters can be appended.
+     */
+    private void toScratch(int end) {
+        if (tokenInScratch) {
+            return;
+        }
+
+        int length = end - tokenStart;
+        ensureScratchCapacity(length);
+        System.arraycopy(buffer, tokenStart, scratch, scratchLength, length);
+
+        tokenStart = scratchLength;
+        scratchLength += length;
+        tokenInScratch = true;
+    }
+
+    private void appendScratch(char c) {
+        ensureScratchCapacity(1);
+        scratch[scratchLength++] = c;
+    }
+
+    private void ensureScratchCapacity(int length) {
+        if (scratchLength + length > scratch.length) {
+            scratch = Arrays.copyOf(scratch, Math.max(scratch.length * 2, scratchLength + length));
+        }
+    }
+
+    private void addValue(boolean lastValue) {
+        int start = tokenStart;
+        int end = tokenEnd;
+
+        if (trim) {
+            char[] chars = tokenInScratch ? scratch : buffer;
+            while (start < end && chars[start] <= ' ') {
+                start++;
+            }
+            while (end > start && chars[end - 1] <= ' ') {
+                end--;
+            }
+        }
+
+        if (lastValue && start == end && trailingDelimiter) {
+            return;
+        }
+
+        if (size == starts.length) {
+            starts = Arrays.copyOf(starts, size * 2);
+            ends = Arrays.copyOf(ends, size * 2);
+            kinds = Arrays.copyOf(kinds, size * 2);
+        }
+
+        starts[size] = start;
+        ends[size] = end;
+        if (start == end && strictQuoteMode && !tokenQuoted) {
+            kinds[size] = NULL_VALUE;
+        } else {
+            kinds[size] = tokenInScratch ? IN_SCRATCH : IN_BUFFER;
+        }
+        size++;
+    }
+
+    private boolean readEndOfLine(int c) throws IOException {
+        if (c == '\r' && lookAhead() == '\n') {
+            read();
+        }
+
+        return c == '\n' || c == '\r';
+    }
+
+    private boolean isStartOfLine(int c) {
+        return c == '\n' || c == '\r' || c == UNDEFINED;
+    }
+
+    private boolean isWhitespace(int c) {
+        return c != delimiter && c != EOF && Character.isWhitespace((char) c);
+    }
+
+    private int read() throws IOException {
+        if (position == limit && !fill()) {
+            lastChar = EOF;
+            return EOF;
+        }
+
+        lastChar = buffer[position++];
+        return lastChar;
+    }
+
+    private int lookAhead() throws IOException {
+        if (position == limit && !fill()) {
+            return EOF;
+        }
+
+        return buffer[position];
+    }
+
+    /**
+     * Discards buffer content before current record and reads more characters. Buffer is enlarged
+     * if current record doesn't fit into it.
+     */
+    private boolean fill() throws IOException {
+        int discarded = recordStart;
+        if (discarded > 0) {
+            System.arraycopy(buffer, discarded, buffer, 0, limit - discarded);
+
+            limit -= discarded;
+            position -= discarded;
+            bufferOffset += discarded;
+            recordStart = 0;
+
+            if (!tokenInScratch) {
+                tokenStart -= discarded;
+                tokenEnd -= discarded;
+            }
+
+            for (int i = 0; i < size; i++) {
+                if (kinds[i] == IN_BUFFER) {
+                    starts[i] -= discarded;
+                    ends[i] -= discarded;
+                }
+            }
+        }
+
+        if (limit == buffer.length) {
+            buffer = Arrays.copyOf(buffer, buffer.length * 2);
+        }
+
+        int read;
+        do {
+            read = reader.read(buffer, limit, buffer.length - limit);
+        } while (read == 0);
+
+        if (read < 0) {
+            return false;
+        }
+
+        limit += read;
+        return true;
+    }
+
+    @Override
+    public void close() throws IOException {
+        reader.close();
+    }
+}
@@ -0,0 +1,182 @@
+package com.evolveum.polygon.connector.csv.util;
+
+import org.identityconnectors.common.logging.Log;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * How written data is forced to storage device before write operation returns.
+ * <p>
+ * {@link #BATCHED} doesn't wait for storage device, file and its directory are forced by background thread
+ * at most once per interval, changes written during last interval can be lost after crash of operating system.
+ * Background thread runs while some connector instance is alive, pending syncs are done when last one is disposed.
+ */
+public enum Durability {
+
+    /**
+     * Data is left in operating system cache, file can be empty or old after crash of operating system.
+     */
+    NONE("none"),
+
+    /**
+     * Tmp file (or changed file) is forced before it's moved over original.
+     */
+    FSYNC_FILE("fsync-file"),
+
+    /**
+     * Same as {@link #FSYNC_FILE}, directory is forced too after tmp file was moved, so that move isn't lost.
+     */
+    FSYNC_FILE_AND_DIR("fsync-file-and-dir"),
+
+    /**
+     * File and its directory are forced by background thread, operation doesn't wait for it.
+     */
+    BATCHED("batched");
+
+    private static final Log LOG = Log.getLog(Durability.class);
+
+    private static final BackgroundExecutor SYNCER = new BackgroundExecutor("csv-durability-sync");
+
+    /**
+     * Files which are waiting for batched sync, keyed by canonical path
+     */
+    private static final Map<String, File> PENDING = new ConcurrentHashMap<>();
+
+    /**
+     * When was file forced by batched sync last time (milliseconds)
+     */
+    private static final Map<String, Long> LAST_SYNC = new ConcurrentHashMap<>();
+
+    private final String value;
+
+    Durability(String value) {
+        this.value = value;
+    }
+
+    /**
+     * Called when connector instance is initialized, batched syncs run in background while some instance is alive.
+     */
+    public static void acquireSyncer() {
+        SYNCER.acquire();
+    }
+
+    /**
+     * Called when connector instance is disposed, pending batched syncs are done before last instance is disposed.
+     */
+    public static void releaseSyncer() {
+        if (SYNCER.release()) {
+            PENDING.keySet().forEach(Durability::sync);
+        }
+    }
+
+    public String getValue() {
+        return value;
+    }
+
+    /**
+     * @return durability level, null if value is not known
+     */
+    public static Durability of(String value) {
+        for (Durability durability : values()) {
+            if (durability.value.equalsIgnoreCase(value)) {
+                return durability;
+            }
+        }
+
+        return null;
+    }
+
+    /**
+     * @return whether written data has to be forced before operation returns
+     */
+    public boolean isForced() {
+        return this == FSYNC_FILE || this == FSYNC_FILE_AND_DIR;
+    }
+
+    /**
+     * Forces content of file, if it's required by this level. Called for tmp file before it's moved over original
+     * and for file which was changed in place.
+     */
+    public void force(File file) throws IOException {
+        if (!isForced()) {
+            return;
+        }
+
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.WRITE)) {
+            channel.force(false);
+        }
+    }
+
+    /**
+     * Forces directory of file, if it's required by this level. Called after file was moved or created.
+     */
+    public void forceDirectory(File file) {
+        if (this != FSYNC_FILE_AND_DIR) {
+            return;
+        }
+
+        forceParent(file);
+    }
+
+    /**
+     * Schedules batched sync of file and its directory, if it's required by this level. Sync which is already
+     * scheduled is shared with all changes written before it starts.
+     *
+     * @param interval minimal time between two syncs of file in milliseconds
+     */
+    public void schedule(File file, long interval) {
+        if (this != BATCHED) {
+            return;
+        }
+
+        String path = Util.getCanonicalPath(file);
+        if (PENDING.putIfAbsent(path, file) != null) {
+            return;
+        }
+
+        long last = LAST_SYNC.getOrDefault(path, 0L);
+        long delay = Math.max(0, last + interval - System.currentTimeMillis());
+
+        if (SYNCER.schedule(() -> sync(path), delay) == null) {
+            // no connector instance which could own background thread
+            sync(path);
+        }
+    }
+
+    private static void sync(String path) {
+        // changes written from now on will schedule next sync
+        File file = PENDING.remove(path);
+        if (file == null) {
+            // already synced by other thread
+            return;
+        }
+        LAST_SYNC.put(path, System.currentTimeMillis());
+
+        try {
+            if (file.exists()) {
+                try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.WRITE)) {
+                    channel.force(false);
+                }
+            }
+            forceParent(file);
+        } catch (IOException ex) {
+            LOG.warn(ex, "Couldn't sync file {0}", path);
+        }
+    }
+
+    private static void forceParent(File file) {
+        File dir = file.getAbsoluteFile().getParentFile();
+
+        try (FileChannel channel = FileChannel.open(dir.toPath(), StandardOpenOption.READ)) {
+            channel.force(true);
+        } catch (IOException ex) {
+            // some platforms (e.g. windows) don't allow opening directories
+            LOG.ok("Couldn't force directory {0}, reason: {1}", dir, ex.getMessage());
+        }
+    }
+}
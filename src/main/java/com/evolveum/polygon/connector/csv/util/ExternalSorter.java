@@ -0,0 +1,231 @@
+package com.evolveum.polygon.connector.csv.util;
+
+import org.identityconnectors.common.logging.Log;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.*;
+
+/**
+ * Sorts records with bounded memory. Records are kept in memory until estimated size exceeds memory limit,
+ * then they're sorted and written to run file in tmp folder. Runs are merged when sorted records are read.
+ * Sort is stable, records which are equal according to comparator are returned in the order they were added.
+ * <p>
+ * If only first N sorted records are needed, limit can be used: records which can't get into first N
+ * are dropped instead of being written to disk.
+ */
+public class ExternalSorter implements Closeable {
+
+    private static final Log LOG = Log.getLog(ExternalSorter.class);
+
+    /**
+     * Length written to run instead of bytes of null value
+     */
+    private static final int NULL_LENGTH = -1;
+
+    private final Comparator<String[]> comparator;
+
+    private final long memoryLimit;
+
+    private final File tmpFolder;
+
+    private final int limit;
+
+    private final List<String[]> buffer = new ArrayList<>();
+
+    private long bufferSize;
+
+    private final List<File> runs = new ArrayList<>();
+
+    private final List<RunReader> readers = new ArrayList<>();
+
+    /**
+     * @param memoryLimit estimated size of records in memory (bytes)
+     * @param limit       maximum number of sorted records which will be read, 0 if all records are needed
+     */
+    public ExternalSorter(Comparator<String[]> comparator, long memoryLimit, File tmpFolder, int limit) {
+        this.comparator = comparator;
+        this.memoryLimit = memoryLimit;
+        this.tmpFolder = tmpFolder;
+        this.limit = limit;
+    }
+
+    public void add(String[] record) throws IOException {
+        buffer.add(record);
+        bufferSize += estimateSize(record);
+
+        if (bufferSize > memoryLimit) {
+            buffer.sort(comparator);
+
+            if (limit > 0 && buffer.size() > limit) {
+                buffer.subList(limit, buffer.size()).clear();
+                bufferSize = buffer.stream().mapToLong(ExternalSorter::estimateSize).sum();
+            }
+
+            if (bufferSize > memoryLimit) {
+                spill();
+            }
+        }
+    }
+
+    /**
+     * @return sorted records, iterator is valid until sorter is closed
+     */
+    public Iterator<String[]> sort() throws IOException {
+        buffer.sort(comparator);
+
+        if (runs.isEmpty()) {
+            return buffer.iterator();
+        }
+
+        if (!buffer.isEmpty()) {
+            spill();
+        }
+
+        LOG.ok("Merging {0} sorted runs", runs.size());
+
+        PriorityQueue<RunReader> queue = new PriorityQueue<>((r1, r2) -> {
+            int result = comparator.compare(r1.current, r2.current);
+            // earlier run contains records which were added earlier
+            return result != 0 ? result : Integer.compare(r1.index, r2.index);
+        });
+
+        for (File run : runs) {
+            RunReader reader = new RunReader(run, readers.size());
+            readers.add(reader);
+
+            if (reader.next()) {
+                queue.add(reader);
+            }
+        }
+
+        return new Iterator<String[]>() {
+
+            @Override
+            public boolean hasNext() {
+                return !queue.isEmpty();
+            }
+
+            @Override
+            public String[] next() {
+                RunReader reader = queue.poll();
+                if (reader == null) {
+                    throw new NoSuchElementException();
+                }
+
+                String[] record = reader.current;
+                try {
+                    if (reader.next()) {
+                        queue.add(reader);
+                    }
+                } catch (IOException ex) {
+                    throw new UncheckedIOException(ex);
+                }
+
+                return record;
+            }
+        };
+    }
+
+    private void spill() throws IOException {
+        File run = Files.createTempFile(tmpFolder.toPath(), "sort", ".run").toFile();
+        runs.add(run);
+
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(run)))) {
+            for (String[] record : buffer) {
+                out.writeInt(record.length);
+                for (String value : record) {
+                    if (value == null) {
+                        // null value (e.g. unquoted empty field with NON_NUMERIC quote mode)
+                        out.writeInt(NULL_LENGTH);
+                        continue;
+                    }
+
+                    byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+                    out.writeInt(bytes.length);
+                    out.write(bytes);
+                }
+            }
+        }
+
+        LOG.ok("Sorted run with {0} records written to {1}", buffer.size(), run);
+
+        buffer.clear();
+        bufferSize = 0;
+    }
+
+    /**
+     * Rough estimate of heap used by record (array and strings).
+     */
+    private static long estimateSize(String[] record) {
+        long size = 16 + 4L * record.length;
+        for (String value : record) {
+            size += 40 + (value != null ? value.length() : 0);
+        }
+
+        return size;
+    }
+
+    @Override
+    public void close() {
+        for (RunReader reader : readers) {
+            reader.close();
+        }
+
+        for (File run : runs) {
+            try {
+                Files.deleteIfExists(run.toPath());
+            } catch (IOException ex) {
+                LOG.warn(ex, "Couldn't delete sorted run {0}", run);
+            }
+        }
+    }
+
+    private static class RunReader implements Closeable {
+
+        private final DataInputStream in;
+
+        private final int index;
+
+        private String[] current;
+
+        private RunReader(File run, int index) throws IOException {
+            this.in = new DataInputStream(new BufferedInputStream(new FileInputStream(run)));
+            this.index = index;
+        }
+
+        private boolean next() throws IOException {
+            int length;
+            try {
+                length = in.readInt();
+            } catch (EOFException ex) {
+                current = null;
+                return false;
+            }
+
+            current = new String[length];
+            for (int i = 0; i < length; i++) {
+                int size = in.readInt();
+                if (size == NULL_LENGTH) {
+                    continue;
+                }
+
+                byte[] bytes = new byte[size];
+                in.readFully(bytes);
+                current[i] = new String(bytes, StandardCharsets.UTF_8);
+            }
+
+            return true;
+        }
+
+        @Override
+        public void close() {
+            try {
+                in.close();
+            } catch (IOException ex) {
+                LOG.warn(ex, "Couldn't close sorted run");
+            }
+        }
+    }
+}
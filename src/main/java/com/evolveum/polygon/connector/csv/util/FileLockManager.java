@@ -0,0 +1,321 @@
+package com.evolveum.polygon.connector.csv.util;
+
+import org.identityconnectors.common.logging.Log;
+import org.identityconnectors.framework.common.exceptions.ConnectorException;
+import org.identityconnectors.framework.common.exceptions.ConnectorIOException;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Exclusive lock shared by threads and processes, held on persistent lock file. Lock file is never deleted,
+ * existence of file doesn't mean that it's locked.
+ * <p>
+ * Threads of this JVM wait for fair in-memory lock first, so that they obtain lock in FIFO order and only one of
+ * them competes with other processes. File lock is polled with exponential backoff until timeout elapses.
+ * Wait times are recorded per lock file, see {@link #getStatistics(File)}.
+ * <p>
+ * Owner of lock (pid, host and time) is written to lock file and removed when lock is released. Lock held by
+ * crashed process is released by operating system, but owner stays in file, so that next owner knows that
+ * previous operation wasn't finished, see {@link Lock#getStaleOwner()}.
+ */
+public class FileLockManager {
+
+    private static final Log LOG = Log.getLog(FileLockManager.class);
+
+    private static final long MIN_BACKOFF = 1;
+
+    private static final long MAX_BACKOFF = 50;
+
+    /**
+     * Waits longer than this are logged on info level.
+     */
+    private static final long LONG_WAIT = 1000;
+
+    private static final int MAX_OWNER_SIZE = 1024;
+
+    private static final String OWNER_SEPARATOR = ";";
+
+    private static final Map<String, Entry> ENTRIES = new ConcurrentHashMap<>();
+
+    private static final String HOST = getHostName();
+
+    /**
+     * @param timeout how long to wait for lock in milliseconds
+     * @return lock, which has to be closed by the same thread
+     */
+    public static Lock lock(File file, long timeout) {
+        Entry entry = ENTRIES.computeIfAbsent(Util.getCanonicalPath(file), k -> new Entry());
+
+        long start = System.nanoTime();
+        long deadline = start + TimeUnit.MILLISECONDS.toNanos(timeout);
+
+        try {
+            if (!entry.lock.tryLock(timeout, TimeUnit.MILLISECONDS)) {
+                throw createTimeoutException(file, entry, start, null);
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new ConnectorException(ex);
+        }
+
+        FileChannel channel = null;
+        try {
+            channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.READ,
+                    StandardOpenOption.WRITE);
+
+            long backoff = MIN_BACKOFF;
+            FileLock lock;
+            while ((lock = tryLock(channel)) == null) {
+                long remaining = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+                if (remaining <= 0) {
+                    throw createTimeoutException(file, entry, start, readOwner(channel));
+                }
+
+                Thread.sleep(Math.min(backoff, remaining));
+                backoff = Math.min(backoff * 2, MAX_BACKOFF);
+            }
+
+            String staleOwner = readOwner(channel);
+            if (staleOwner != null) {
+                LOG.warn("Lock file {0} wasn't released by previous owner {1} ({2}), operation of previous owner "
+                        + "wasn't finished", file.getPath(), staleOwner, describeOwnerState(staleOwner));
+            }
+            writeOwner(channel);
+
+            long wait = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+            entry.record(wait);
+
+            if (wait >= LONG_WAIT) {
+                LOG.info("Lock for file {0} obtained after {1} ms, {2}", file.getPath(), wait, entry.toStatistics());
+            } else {
+                LOG.ok("Lock for file {0} obtained after {1} ms", file.getPath(), wait);
+            }
+
+            return new Lock(lock, entry.lock, staleOwner);
+        } catch (IOException | InterruptedException | RuntimeException ex) {
+            Util.closeQuietly(channel);
+            entry.lock.unlock();
+
+            if (ex instanceof InterruptedException) {
+                Thread.currentThread().interrupt();
+                throw new ConnectorException(ex);
+            }
+            if (ex instanceof IOException) {
+                throw new ConnectorIOException("Couldn't obtain lock for file '" + file.getPath()
+                        + "', reason: " + ex.getMessage(), ex);
+            }
+
+            throw (RuntimeException) ex;
+        }
+    }
+
+    /**
+     * @return wait time statistics for lock file, since JVM (connector class loader) was started
+     */
+    public static Statistics getStatistics(File file) {
+        Entry entry = ENTRIES.get(Util.getCanonicalPath(file));
+
+        return entry != null ? entry.toStatistics() : new Statistics(0, 0, 0, 0);
+    }
+
+    static int getQueueLength(File file) {
+        Entry entry = ENTRIES.get(Util.getCanonicalPath(file));
+
+        return entry != null ? entry.lock.getQueueLength() : 0;
+    }
+
+    private static FileLock tryLock(FileChannel channel) throws IOException {
+        try {
+            return channel.tryLock();
+        } catch (OverlappingFileLockException ex) {
+            // file is locked in this JVM, but by connector loaded by other class loader
+            return null;
+        }
+    }
+
+    /**
+     * @return owner written in lock file, null if lock file is empty or it can't be read
+     */
+    private static String readOwner(FileChannel channel) {
+        try {
+            ByteBuffer buffer = ByteBuffer.allocate((int) Math.min(channel.size(), MAX_OWNER_SIZE));
+            while (buffer.hasRemaining() && channel.read(buffer, buffer.position()) > 0) {
+            }
+            buffer.flip();
+
+            String owner = StandardCharsets.UTF_8.decode(buffer).toString().trim();
+            return owner.isEmpty() ? null : owner;
+        } catch (IOException ex) {
+            // e.g. locked region can't be read on some platforms
+            return null;
+        }
+    }
+
+    private static void writeOwner(FileChannel channel) throws IOException {
+        String owner = ProcessHandle.current().pid() + OWNER_SEPARATOR + HOST + OWNER_SEPARATOR + Instant.now();
+        ByteBuffer buffer = StandardCharsets.UTF_8.encode(owner);
+
+        channel.truncate(0);
+        while (buffer.hasRemaining()) {
+            channel.write(buffer, buffer.position());
+        }
+    }
+
+    private static String describeOwnerState(String owner) {
+        String[] parts = owner.split(OWNER_SEPARATOR, 3);
+        if (parts.length != 3 || !HOST.equals(parts[1])) {
+            return "owner is not local process";
+        }
+
+        try {
+            boolean alive = ProcessHandle.of(Long.parseLong(parts[0])).map(ProcessHandle::isAlive).orElse(false);
+            return alive ? "owner process is running" : "owner process doesn't exist anymore";
+        } catch (NumberFormatException ex) {
+            return "unknown owner";
+        }
+    }
+
+    private static String getHostName() {
+        try {
+            return InetAddress.getLocalHost().getHostName();
+        } catch (IOException ex) {
+            return "unknown";
+        }
+    }
+
+    private static ConnectorIOException createTimeoutException(File file, Entry entry, long start, String owner) {
+        entry.timeouts.incrementAndGet();
+
+        long wait = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        LOG.warn("Timeout, couldn't obtain lock for file {0} in {1} ms, owner {2}, {3}", file.getPath(), wait,
+                owner, entry.toStatistics());
+
+        return new ConnectorIOException("Timeout, couldn't obtain lock for file '" + file.getPath() + "' in "
+                + wait + " ms" + (owner != null ? ", lock owner: " + owner : ""));
+    }
+
+    public static class Lock implements Closeable {
+
+        private final FileLock fileLock;
+
+        private final ReentrantLock lock;
+
+        private final String staleOwner;
+
+        private Lock(FileLock fileLock, ReentrantLock lock, String staleOwner) {
+            this.fileLock = fileLock;
+            this.lock = lock;
+            this.staleOwner = staleOwner;
+        }
+
+        /**
+         * @return previous owner which didn't release lock (e.g. crashed during write), null if lock was released
+         */
+        public String getStaleOwner() {
+            return staleOwner;
+        }
+
+        @Override
+        public void close() throws IOException {
+            FileChannel channel = fileLock.channel();
+            try {
+                channel.truncate(0);
+            } finally {
+                try {
+                    // closing channel releases file lock too
+                    channel.close();
+                } finally {
+                    lock.unlock();
+                }
+            }
+        }
+    }
+
+    public static class Statistics {
+
+        private final long count;
+
+        private final long totalWait;
+
+        private final long maxWait;
+
+        private final long timeouts;
+
+        private Statistics(long count, long totalWait, long maxWait, long timeouts) {
+            this.count = count;
+            this.totalWait = totalWait;
+            this.maxWait = maxWait;
+            this.timeouts = timeouts;
+        }
+
+        /**
+         * @return how many times lock was obtained
+         */
+        public long getCount() {
+            return count;
+        }
+
+        /**
+         * @return sum of wait times of obtained locks in milliseconds
+         */
+        public long getTotalWait() {
+            return totalWait;
+        }
+
+        public long getMaxWait() {
+            return maxWait;
+        }
+
+        /**
+         * @return how many times lock wasn't obtained in time
+         */
+        public long getTimeouts() {
+            return timeouts;
+        }
+
+        @Override
+        public String toString() {
+            return "locks: " + count + ", total wait: " + totalWait + " ms, average wait: "
+                    + (count != 0 ? totalWait / count : 0) + " ms, max wait: " + maxWait + " ms, timeouts: "
+                    + timeouts;
+        }
+    }
+
+    private static class Entry {
+
+        private final ReentrantLock lock = new ReentrantLock(true);
+
+        private final AtomicLong count = new AtomicLong();
+
+        private final AtomicLong totalWait = new AtomicLong();
+
+        private final AtomicLong maxWait = new AtomicLong();
+
+        private final AtomicLong timeouts = new AtomicLong();
+
+        private void record(long wait) {
+            count.incrementAndGet();
+            totalWait.addAndGet(wait);
+            maxWait.accumulateAndGet(wait, Math::max);
+        }
+
+        private Statistics toStatistics() {
+            return new Statistics(count.get(), totalWait.get(), maxWait.get(), timeouts.get());
+        }
+    }
+}
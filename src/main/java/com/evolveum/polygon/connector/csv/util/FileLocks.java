@@ -0,0 +1,67 @@
+package com.evolveum.polygon.connector.csv.util;
+
+import java.io.File;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * JVM wide registry of monitors used to synchronize access to csv files, one monitor per canonical file path,
+ * so that operations on different files don't block each other.
+ * <p>
+ * Monitors are weakly referenced, registry entry is removed after nobody uses monitor anymore. Caller has to keep
+ * monitor in local variable (or synchronized block) while it's used, e.g. <code>synchronized
+ * (FileLocks.get(file)) {...}</code>.
+ */
+public class FileLocks {
+
+    private static final Map<String, LockReference> LOCKS = new HashMap<>();
+
+    private static final ReferenceQueue<Object> QUEUE = new ReferenceQueue<>();
+
+    public static Object get(File file) {
+        String path = Util.getCanonicalPath(file);
+
+        synchronized (LOCKS) {
+            purge();
+
+            LockReference ref = LOCKS.get(path);
+            Object lock = ref != null ? ref.get() : null;
+            if (lock == null) {
+                lock = new Object();
+                LOCKS.put(path, new LockReference(path, lock));
+            }
+
+            return lock;
+        }
+    }
+
+    static int size() {
+        synchronized (LOCKS) {
+            purge();
+
+            return LOCKS.size();
+        }
+    }
+
+    private static void purge() {
+        LockReference ref;
+        while ((ref = (LockReference) QUEUE.poll()) != null) {
+            // entry could be replaced already by new monitor for the same path
+            if (LOCKS.get(ref.path) == ref) {
+                LOCKS.remove(ref.path);
+            }
+        }
+    }
+
+    private static class LockReference extends WeakReference<Object> {
+
+        private final String path;
+
+        private LockReference(String path, Object lock) {
+            super(lock, QUEUE);
+            this.path = path;
+        }
+    }
+}
@@ -0,0 +1,86 @@
+package com.evolveum.polygon.connector.csv.util;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Creates copy of file in which some byte ranges are replaced or removed. Unchanged parts of file are copied
+ * using {@link FileChannel#transferTo(long, long, java.nio.channels.WritableByteChannel)}, they're not decoded
+ * nor encoded again.
+ */
+public class FileSplicer {
+
+    private final List<Splice> splices = new ArrayList<>();
+
+    /**
+     * Ranges have to be added in order of their position in file and must not overlap.
+     *
+     * @param start       offset of first byte which is replaced
+     * @param end         offset of first byte after replaced range
+     * @param replacement new content of range, null if range is removed
+     */
+    public void replace(long start, long end, ByteBuffer replacement) {
+        if (start > end || !splices.isEmpty() && splices.get(splices.size() - 1).end > start) {
+            throw new IllegalArgumentException("Range " + start + "-" + end + " overlaps previous range");
+        }
+
+        splices.add(new Splice(start, end, replacement));
+    }
+
+    /**
+     * @param size size of source file, content after this offset is not copied
+     */
+    public void write(File source, long size, File target) throws IOException {
+        try (FileChannel in = FileChannel.open(source.toPath(), StandardOpenOption.READ);
+             FileChannel out = FileChannel.open(target.toPath(), StandardOpenOption.CREATE,
+                     StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+
+            long position = 0;
+            for (Splice splice : splices) {
+                transfer(in, position, splice.start, out);
+
+                if (splice.replacement != null) {
+                    ByteBuffer buffer = splice.replacement.duplicate();
+                    while (buffer.hasRemaining()) {
+                        out.write(buffer);
+                    }
+                }
+
+                position = splice.end;
+            }
+
+            transfer(in, position, size, out);
+        }
+    }
+
+    private void transfer(FileChannel in, long start, long end, FileChannel out) throws IOException {
+        long position = start;
+        while (position < end) {
+            long count = in.transferTo(position, end - position, out);
+            if (count <= 0) {
+                throw new IOException("Unexpected end of file " + position + ", expected size " + end);
+            }
+            position += count;
+        }
+    }
+
+    private static class Splice {
+
+        private final long start;
+
+        private final long end;
+
+        private final ByteBuffer replacement;
+
+        private Splice(long start, long end, ByteBuffer replacement) {
+            this.start = start;
+            this.end = end;
+            this.replacement = replacement;
+        }
+    }
+}
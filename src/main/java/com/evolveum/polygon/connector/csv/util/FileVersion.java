@@ -0,0 +1,97 @@
+package com.evolveum.polygon.connector.csv.util;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * Identifies content of csv file at some point in time (size, last modification time, inode/file key and
+ * inode change time where available). Two versions are equal only if file wasn't replaced or modified in between.
+ * <p>
+ * Connector replaces csv file (tmp file is moved over original) or appends new records to its end, therefore
+ * inode or size changes for every write done by connector. Last modification time and size are used to detect
+ * in-place modifications done by other tools.
+ */
+public class FileVersion {
+
+    private final long size;
+
+    private final long lastModified;
+
+    private final Object fileKey;
+
+    private final long changed;
+
+    private FileVersion(long size, long lastModified, Object fileKey, long changed) {
+        this.size = size;
+        this.lastModified = lastModified;
+        this.fileKey = fileKey;
+        this.changed = changed;
+    }
+
+    public static FileVersion of(File file) throws IOException {
+        Path path = file.toPath();
+
+        try {
+            Map<String, Object> attrs = Files.readAttributes(path, "unix:size,lastModifiedTime,ino,ctime");
+
+            return new FileVersion((Long) attrs.get("size"),
+                    ((FileTime) attrs.get("lastModifiedTime")).toMillis(),
+                    attrs.get("ino"),
+                    ((FileTime) attrs.get("ctime")).toMillis());
+        } catch (UnsupportedOperationException | IllegalArgumentException ex) {
+            // not a unix file system, basic attributes have to be enough
+            BasicFileAttributes attrs = Files.readAttributes(path, BasicFileAttributes.class);
+
+            return new FileVersion(attrs.size(), attrs.lastModifiedTime().toMillis(), attrs.fileKey(), 0);
+        }
+    }
+
+    public long getSize() {
+        return size;
+    }
+
+    public long getLastModified() {
+        return lastModified;
+    }
+
+    public Object getFileKey() {
+        return fileKey;
+    }
+
+    /**
+     * @return compact string form of version which can be handed out to clients (e.g. in paged results cookie)
+     */
+    public String toToken() {
+        return Long.toHexString(size) + "-" + Long.toHexString(lastModified) + "-" + Long.toHexString(changed)
+                + "-" + Integer.toHexString(Objects.hashCode(fileKey));
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+
+        FileVersion that = (FileVersion) o;
+
+        return size == that.size
+                && lastModified == that.lastModified
+                && changed == that.changed
+                && Objects.equals(fileKey, that.fileKey);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(size, lastModified, fileKey, changed);
+    }
+
+    @Override
+    public String toString() {
+        return "FileVersion{s=" + size + ", m=" + lastModified + ", k=" + fileKey + ", c=" + changed + '}';
+    }
+}
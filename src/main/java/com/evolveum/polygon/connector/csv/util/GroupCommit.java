@@ -0,0 +1,182 @@
+package com.evolveum.polygon.connector.csv.util;
+
+import com.evolveum.polygon.connector.csv.ObjectClassHandlerConfiguration;
+import org.identityconnectors.framework.common.exceptions.ConnectorException;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Coalesces concurrent writes to one csv file, so that file is rewritten once for whole batch of requests instead
+ * of once for every request.
+ * <p>
+ * Caller submits request and waits. If nobody is writing, caller becomes leader, takes pending requests (its own
+ * request included) and writes them in one pass. Other callers wait until their request is completed by leader,
+ * or until they can become leader themselves. Every request is completed with its own result or exception.
+ * <p>
+ * Requests which share some key (unique attribute value) are never written in the same batch, so that batch can
+ * be applied in any order. Connector instance is created for every operation, so instances are kept in JVM wide
+ * registry, one per csv file and unique attribute.
+ */
+public class GroupCommit {
+
+    private static final Map<String, GroupCommit> INSTANCES = new ConcurrentHashMap<>();
+
+    private static final int MAX_BATCH_SIZE = 1000;
+
+    private final Deque<Request> pending = new ArrayDeque<>();
+
+    private boolean writing;
+
+    public static GroupCommit getInstance(ObjectClassHandlerConfiguration config) {
+        String key = Util.getCanonicalPath(config.getFilePath()) + "|" + config.getObjectClass()
+                + "|" + config.getUniqueAttribute() + "|" + config.isIgnoreIdentifierCase();
+
+        return INSTANCES.computeIfAbsent(key, k -> new GroupCommit());
+    }
+
+    /**
+     * @return result of request, set by writer
+     * @throws Exception exception of request, or exception thrown by writer for whole batch
+     */
+    public Object submit(Request request, BatchWriter writer) throws Exception {
+        synchronized (this) {
+            pending.add(request);
+        }
+
+        boolean interrupted = false;
+        while (true) {
+            List<Request> batch;
+            synchronized (this) {
+                while (!request.done && writing) {
+                    try {
+                        wait();
+                    } catch (InterruptedException ex) {
+                        if (pending.remove(request)) {
+                            Thread.currentThread().interrupt();
+                            throw new ConnectorException(ex);
+                        }
+                        // request is being written by other thread, we have to wait for result
+                        interrupted = true;
+                    }
+                }
+
+                if (request.done) {
+                    if (interrupted) {
+                        Thread.currentThread().interrupt();
+                    }
+                    return request.getResult();
+                }
+
+                writing = true;
+                batch = takeBatch();
+            }
+
+            try {
+                writer.write(batch);
+            } catch (Exception | Error ex) {
+                for (Request r : batch) {
+                    if (!r.done) {
+                        r.fail(ex instanceof Exception ? (Exception) ex : new ConnectorException(ex));
+                    }
+                }
+            } finally {
+                synchronized (this) {
+                    for (Request r : batch) {
+                        if (!r.done) {
+                            r.fail(new ConnectorException("Request wasn't completed by writer"));
+                        }
+                    }
+
+                    writing = false;
+                    notifyAll();
+                }
+            }
+        }
+    }
+
+    synchronized int getPendingCount() {
+        return pending.size();
+    }
+
+    /**
+     * Takes pending requests in order until request with key used by previous request is found.
+     */
+    private List<Request> takeBatch() {
+        List<Request> batch = new ArrayList<>();
+        Set<String> keys = new HashSet<>();
+
+        Iterator<Request> iterator = pending.iterator();
+        while (iterator.hasNext() && batch.size() < MAX_BATCH_SIZE) {
+            Request request = iterator.next();
+
+            boolean conflict = false;
+            for (String key : request.getKeys()) {
+                if (!keys.add(key)) {
+                    conflict = true;
+                }
+            }
+
+            if (conflict) {
+                break;
+            }
+
+            iterator.remove();
+            batch.add(request);
+        }
+
+        return batch;
+    }
+
+    public interface BatchWriter {
+
+        /**
+         * Writes batch of requests, every request has to be completed or failed.
+         * Exception fails all requests which were not completed yet.
+         */
+        void write(List<Request> batch) throws Exception;
+    }
+
+    public abstract static class Request {
+
+        private volatile boolean done;
+
+        private Object result;
+
+        private Exception exception;
+
+        /**
+         * @return keys (unique attribute values) read or written by request
+         */
+        public abstract Set<String> getKeys();
+
+        public boolean isDone() {
+            return done;
+        }
+
+        public void complete(Object result) {
+            this.result = result;
+            this.done = true;
+        }
+
+        public void fail(Exception exception) {
+            this.exception = exception;
+            this.done = true;
+        }
+
+        private Object getResult() throws Exception {
+            if (exception != null) {
+                throw exception;
+            }
+
+            return result;
+        }
+    }
+}
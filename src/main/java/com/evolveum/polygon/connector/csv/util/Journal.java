@@ -0,0 +1,336 @@
+package com.evolveum.polygon.connector.csv.util;
+
+import com.evolveum.polygon.connector.csv.ObjectClassHandlerConfiguration;
+import org.apache.commons.csv.CSVPrinter;
+import org.identityconnectors.common.logging.Log;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Journal of changes which were not written to csv file yet (journal mode). Changes are appended to journal file
+ * in tmp folder, one write per batch. Journal is kept in memory as overlay of changed records keyed by unique
+ * attribute value, compaction folds it into csv file and truncates journal file.
+ * <p>
+ * Journal contains whole records in csv format, <code>U;uid;values...</code> for created or updated record and
+ * <code>D;uid</code> for deleted one, every batch ends with <code>C</code> record. Batch which wasn't finished
+ * (writer crashed) is ignored and removed by next writer. Entries are idempotent, so journal can be replayed over
+ * csv file which already contains its changes (e.g. after crash during compaction).
+ * <p>
+ * Instances are kept in JVM wide registry, one per csv file and unique attribute. Access has to be synchronized
+ * on instance, journal file can be changed only by owner of csv file lock.
+ */
+public class Journal {
+
+    private static final Log LOG = Log.getLog(Journal.class);
+
+    private static final String UPSERT = "U";
+
+    private static final String DELETE = "D";
+
+    private static final String COMMIT = "C";
+
+    private static final Map<String, Journal> INSTANCES = new ConcurrentHashMap<>();
+
+    private static final BackgroundExecutor COMPACTOR = new BackgroundExecutor("csv-journal-compactor");
+
+    private final boolean ignoreCase;
+
+    private final Map<String, Entry> entries = new LinkedHashMap<>();
+
+    /**
+     * Version of journal file entries were loaded from, null if journal file doesn't exist
+     */
+    private FileVersion version;
+
+    private boolean loaded;
+
+    /**
+     * Size of journal file without unfinished batch
+     */
+    private long size;
+
+    /**
+     * When first entry was appended to (or loaded from) empty journal, milliseconds
+     */
+    private long started;
+
+    private ScheduledFuture<?> compaction;
+
+    private Journal(boolean ignoreCase) {
+        this.ignoreCase = ignoreCase;
+    }
+
+    /**
+     * Called when connector instance is initialized, compactions can be scheduled while some instance is alive.
+     */
+    public static void acquireCompactor() {
+        COMPACTOR.acquire();
+    }
+
+    /**
+     * Called when connector instance is disposed, pending compactions are cancelled with last instance. Journal
+     * stays on disk and it's folded by next write (see {@link #getAge()}).
+     */
+    public static void releaseCompactor() {
+        COMPACTOR.release();
+    }
+
+    public static Journal getInstance(ObjectClassHandlerConfiguration config) {
+        String key = Util.getCanonicalPath(config.getFilePath()) + "|" + config.getObjectClass()
+                + "|" + config.getUniqueAttribute() + "|" + config.isIgnoreIdentifierCase();
+
+        return INSTANCES.computeIfAbsent(key, k -> new Journal(config.isIgnoreIdentifierCase()));
+    }
+
+    /**
+     * Loads entries from journal file again, if it was changed by somebody else (e.g. other process).
+     */
+    public void refresh(ObjectClassHandlerConfiguration config) throws IOException {
+        File file = Util.createJournalFile(config);
+        FileVersion current = file.exists() ? FileVersion.of(file) : null;
+        if (loaded && Objects.equals(version, current)) {
+            return;
+        }
+
+        entries.clear();
+        size = 0;
+
+        if (current != null) {
+            load(file, current, config);
+        }
+
+        version = current;
+        loaded = true;
+        started = entries.isEmpty() ? 0 : System.currentTimeMillis();
+    }
+
+    private void load(File file, FileVersion version, ObjectClassHandlerConfiguration config) throws IOException {
+        LOG.ok("Loading journal {0}, {1}", file, version);
+
+        List<Entry> batch = new ArrayList<>();
+        boolean committed = false;
+
+        try (OffsetTrackingReader reader = new OffsetTrackingReader(file,
+                Charset.forName(config.getEncoding()), 0);
+             RecordReader record = Util.createRecordReader(reader, config)) {
+
+            while (record.next()) {
+                reader.release(record.getCharacterPosition());
+
+                if (committed) {
+                    size = reader.getByteOffset(record.getCharacterPosition());
+                    committed = false;
+                }
+
+                String operation = record.size() > 0 ? record.get(0) : null;
+                if (COMMIT.equals(operation)) {
+                    batch.forEach(this::apply);
+                    batch.clear();
+                    committed = true;
+                } else if (UPSERT.equals(operation) && record.size() > 1) {
+                    String[] values = record.toArray();
+                    batch.add(new Entry(values[1], Arrays.copyOfRange(values, 2, values.length)));
+                } else if (DELETE.equals(operation) && record.size() > 1) {
+                    batch.add(new Entry(record.get(1), null));
+                } else {
+                    LOG.warn("Unknown record {0} in journal {1}, rest of journal is ignored",
+                            record.getRecordNumber(), file);
+                    break;
+                }
+            }
+        }
+
+        if (committed) {
+            size = version.getSize();
+        }
+
+        if (size < version.getSize()) {
+            LOG.warn("Journal {0} contains unfinished batch, {1} bytes will be removed", file,
+                    version.getSize() - size);
+        }
+
+        LOG.ok("Journal {0} loaded, entries: {1}", file, entries.size());
+    }
+
+    public boolean isEmpty() {
+        return entries.isEmpty();
+    }
+
+    /**
+     * @return size of journal file without unfinished batch
+     */
+    public long getSize() {
+        return size;
+    }
+
+    /**
+     * @return entry for unique attribute value, null if record wasn't changed since last compaction
+     */
+    public Entry get(String uid) {
+        return entries.get(createKey(uid));
+    }
+
+    /**
+     * @return milliseconds since first change which wasn't folded yet, 0 if journal is empty
+     */
+    public long getAge() {
+        return started > 0 ? System.currentTimeMillis() - started : 0;
+    }
+
+    public Collection<Entry> getEntries() {
+        return Collections.unmodifiableCollection(entries.values());
+    }
+
+    /**
+     * Appends batch to journal file and applies it. Unfinished batch of crashed writer is removed first.
+     * Journal has to be refreshed before.
+     *
+     * @param force whether journal file has to be written to storage device before method returns
+     */
+    public void append(List<Entry> batch, ObjectClassHandlerConfiguration config, boolean force)
+            throws IOException {
+
+        Charset charset = Charset.forName(config.getEncoding());
+
+        StringBuilder sb = new StringBuilder();
+        CSVPrinter printer = Util.createCsvFormat(config).print(sb);
+        for (Entry entry : batch) {
+            List<Object> values = new ArrayList<>();
+            values.add(entry.isDeleted() ? DELETE : UPSERT);
+            values.add(entry.uid);
+            if (!entry.isDeleted()) {
+                values.addAll(Arrays.asList(entry.record));
+            }
+            printer.printRecord(values);
+        }
+        printer.printRecord(COMMIT);
+
+        File file = Util.createJournalFile(config);
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE,
+                StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+
+            if (channel.size() > size) {
+                channel.truncate(size);
+            }
+
+            boolean terminated = Util.isTerminated(channel, size, charset);
+            ByteBuffer buffer = charset.encode(terminated ? sb.toString() : config.getRecordSeparator() + sb);
+
+            long position = size;
+            while (buffer.hasRemaining()) {
+                position += channel.write(buffer, position);
+            }
+
+            if (force) {
+                channel.force(false);
+            }
+
+            size = position;
+        }
+
+        if (entries.isEmpty()) {
+            started = System.currentTimeMillis();
+        }
+        batch.forEach(this::apply);
+        version = FileVersion.of(file);
+    }
+
+    /**
+     * Removes all entries and truncates journal file, called after journal was folded into csv file.
+     */
+    public void clear(ObjectClassHandlerConfiguration config) throws IOException {
+        File file = Util.createJournalFile(config);
+        if (file.exists()) {
+            try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.WRITE)) {
+                channel.truncate(0);
+            }
+        }
+
+        entries.clear();
+        size = 0;
+        version = file.exists() ? FileVersion.of(file) : null;
+        loaded = true;
+        started = 0;
+    }
+
+    /**
+     * @return true if compaction is scheduled or running (it wasn't cancelled)
+     */
+    public boolean isCompactionScheduled() {
+        return compaction != null && !compaction.isDone();
+    }
+
+    /**
+     * Schedules compaction task. Compaction which is already scheduled is moved only if new delay is shorter.
+     *
+     * @param delay delay in milliseconds
+     * @return false if compaction can't be scheduled (no connector instance is alive)
+     */
+    public boolean scheduleCompaction(Runnable task, long delay) {
+        if (isCompactionScheduled()) {
+            if (compaction.getDelay(TimeUnit.MILLISECONDS) <= delay) {
+                return true;
+            }
+            compaction.cancel(false);
+        }
+
+        compaction = COMPACTOR.schedule(task, delay);
+
+        return compaction != null;
+    }
+
+    private void apply(Entry entry) {
+        entries.put(createKey(entry.uid), entry);
+    }
+
+    private String createKey(String uid) {
+        return ignoreCase ? uid.toLowerCase(Locale.ROOT) : uid;
+    }
+
+    public static class Entry {
+
+        private final String uid;
+
+        private final String[] record;
+
+        /**
+         * @param record record in the same form as it's read from csv file, null if record was deleted
+         */
+        public Entry(String uid, String[] record) {
+            this.uid = uid;
+            this.record = record;
+        }
+
+        public String getUid() {
+            return uid;
+        }
+
+        /**
+         * @return record, null if record was deleted
+         */
+        public String[] getRecord() {
+            return record;
+        }
+
+        public boolean isDeleted() {
+            return record == null;
+        }
+    }
+}
@@ -0,0 +1,222 @@
+package com.evolveum.polygon.connector.csv.util;
+
+import org.identityconnectors.common.logging.Log;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Reader;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.CharBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Reader which decodes characters directly from memory mapped file into buffer of caller, there's no intermediate
+ * byte or char buffer. File is mapped in windows, so that files larger than 2GB can be read too.
+ * <p>
+ * Mapped windows are unmapped explicitly when they're not needed anymore, otherwise file couldn't be replaced
+ * on some platforms until buffer is garbage collected.
+ */
+public class MappedFileReader extends Reader {
+
+    private static final Log LOG = Log.getLog(MappedFileReader.class);
+
+    private static final long WINDOW_SIZE = 1024 * 1024 * 1024;
+
+    /**
+     * Window has to contain at least one whole character
+     */
+    private static final long MIN_WINDOW_SIZE = 4;
+
+    private static final Unmapper UNMAPPER = Unmapper.create();
+
+    private final FileChannel channel;
+
+    private final long size;
+
+    private final CharsetDecoder decoder;
+
+    private final long windowSize;
+
+    private MappedByteBuffer window;
+
+    private long windowStart;
+
+    private boolean lastWindow;
+
+    private boolean flushed;
+
+    /**
+     * Second character of surrogate pair which didn't fit into buffer of caller.
+     */
+    private final CharBuffer pending = CharBuffer.allocate(2);
+
+    public MappedFileReader(File file, Charset charset) throws IOException {
+        this(file, charset, WINDOW_SIZE);
+    }
+
+    /**
+     * @param windowSize size of mapped window in bytes, small windows are used by tests
+     */
+    MappedFileReader(File file, Charset charset, long windowSize) throws IOException {
+        if (windowSize < MIN_WINDOW_SIZE) {
+            throw new IllegalArgumentException("Window size must be at least " + MIN_WINDOW_SIZE + " bytes");
+        }
+        this.windowSize = windowSize;
+
+        this.channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+        try {
+            this.size = channel.size();
+            // same behaviour as InputStreamReader
+            this.decoder = charset.newDecoder()
+                    .onMalformedInput(CodingErrorAction.REPLACE)
+                    .onUnmappableCharacter(CodingErrorAction.REPLACE);
+
+            map(0);
+        } catch (IOException | RuntimeException ex) {
+            channel.close();
+            throw ex;
+        }
+
+        pending.flip();
+    }
+
+    private void map(long position) throws IOException {
+        if (window != null) {
+            UNMAPPER.unmap(window);
+            window = null;
+        }
+
+        long length = Math.min(windowSize, size - position);
+
+        window = channel.map(FileChannel.MapMode.READ_ONLY, position, length);
+        windowStart = position;
+        lastWindow = position + length >= size;
+    }
+
+    @Override
+    public int read(char[] cbuf, int off, int len) throws IOException {
+        if (window == null) {
+            throw new IOException("Reader closed");
+        }
+
+        if (len == 0) {
+            return 0;
+        }
+
+        if (pending.hasRemaining()) {
+            cbuf[off] = pending.get();
+            return 1;
+        }
+
+        if (len == 1) {
+            // surrogate pair doesn't fit into one character
+            pending.clear();
+            int count = decode(pending);
+            pending.flip();
+
+            if (count <= 0) {
+                return -1;
+            }
+
+            cbuf[off] = pending.get();
+            return 1;
+        }
+
+        int count = decode(CharBuffer.wrap(cbuf, off, len));
+
+        return count > 0 ? count : -1;
+    }
+
+    private int decode(CharBuffer out) throws IOException {
+        int start = out.position();
+
+        try {
+            while (out.position() == start && !flushed) {
+                CoderResult result = decoder.decode(window, out, lastWindow);
+                if (result.isOverflow()) {
+                    break;
+                }
+
+                if (result.isError()) {
+                    result.throwException();
+                }
+
+                if (lastWindow) {
+                    if (decoder.flush(out).isUnderflow()) {
+                        flushed = true;
+                    }
+                    break;
+                }
+
+                // unprocessed bytes of incomplete character are mapped again with the next window
+                map(windowStart + window.position());
+            }
+        } catch (InternalError ex) {
+            // mapped file was truncated by another process
+            throw new IOException("Couldn't read mapped file, reason: " + ex.getMessage(), ex);
+        }
+
+        return out.position() - start;
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            if (window != null) {
+                UNMAPPER.unmap(window);
+                window = null;
+            }
+        } finally {
+            channel.close();
+        }
+    }
+
+    /**
+     * Unmaps buffer using sun.misc.Unsafe.invokeCleaner if available, otherwise buffer is left
+     * for garbage collector.
+     */
+    private static class Unmapper {
+
+        private final Object unsafe;
+
+        private final Method invokeCleaner;
+
+        private Unmapper(Object unsafe, Method invokeCleaner) {
+            this.unsafe = unsafe;
+            this.invokeCleaner = invokeCleaner;
+        }
+
+        private static Unmapper create() {
+            try {
+                Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+                Field field = unsafeClass.getDeclaredField("theUnsafe");
+                field.setAccessible(true);
+
+                return new Unmapper(field.get(null),
+                        unsafeClass.getMethod("invokeCleaner", java.nio.ByteBuffer.class));
+            } catch (Exception ex) {
+                LOG.ok("Mapped buffers can't be unmapped explicitly, reason: {0}", ex.getMessage());
+                return new Unmapper(null, null);
+            }
+        }
+
+        private void unmap(MappedByteBuffer buffer) {
+            if (invokeCleaner == null) {
+                return;
+            }
+
+            try {
+                invokeCleaner.invoke(unsafe, buffer);
+            } catch (Exception ex) {
+                LOG.ok("Couldn't unmap buffer, reason: {0}", ex.getMessage());
+            }
+        }
+    }
+}
@@ -0,0 +1,198 @@
+package com.evolveum.polygon.connector.csv.util;
+
+import com.evolveum.polygon.connector.csv.ObjectClassHandlerConfiguration;
+import org.identityconnectors.common.StringUtil;
+import org.identityconnectors.common.security.GuardedByteArray;
+import org.identityconnectors.common.security.GuardedString;
+import org.identityconnectors.framework.common.exceptions.ConnectorException;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Splits csv values into attribute values and joins attribute values back using multivalue delimiter. Delimiter
+ * is matched literally (it's not a regular expression). If multivalue escape is configured, delimiters and escape
+ * characters inside of values are escaped when joined and unescaped when split.
+ */
+public class MultivalueCodec {
+
+    private static final int NONE = -1;
+
+    private final String delimiter;
+
+    private final int escape;
+
+    public MultivalueCodec(String delimiter, String escape) {
+        this.delimiter = StringUtil.isEmpty(delimiter) ? null : delimiter;
+
+        Character escapeChar = Util.toCharacter(escape);
+        this.escape = escapeChar != null && this.delimiter != null ? escapeChar : NONE;
+    }
+
+    public static MultivalueCodec create(ObjectClassHandlerConfiguration configuration) {
+        return new MultivalueCodec(configuration.getMultivalueDelimiter(), configuration.getMultivalueEscape());
+    }
+
+    /**
+     * @return true if delimiter is defined, otherwise raw value is always single value
+     */
+    public boolean isMultivalue() {
+        return delimiter != null;
+    }
+
+    /**
+     * @return non-empty values, empty list if raw value is empty
+     */
+    public List<String> split(String raw) {
+        return split(raw, true);
+    }
+
+    /**
+     * @param escaped false if value was joined without escaping (unique, name and password columns)
+     * @return non-empty values, empty list if raw value is empty
+     */
+    public List<String> split(String raw, boolean escaped) {
+        if (StringUtil.isEmpty(raw)) {
+            return new ArrayList<>();
+        }
+
+        if (delimiter == null) {
+            List<String> values = new ArrayList<>(1);
+            values.add(raw);
+            return values;
+        }
+
+        if (escaped && escape != NONE) {
+            return splitEscaped(raw);
+        }
+
+        List<String> values = new ArrayList<>();
+
+        int length = delimiter.length();
+        int start = 0;
+        int end;
+        while ((end = raw.indexOf(delimiter, start)) >= 0) {
+            if (end > start) {
+                values.add(raw.substring(start, end));
+            }
+            start = end + length;
+        }
+
+        if (start < raw.length()) {
+            values.add(start == 0 ? raw : raw.substring(start));
+        }
+
+        return values;
+    }
+
+    private List<String> splitEscaped(String raw) {
+        List<String> values = new ArrayList<>();
+
+        StringBuilder sb = new StringBuilder();
+        int i = 0;
+        while (i < raw.length()) {
+            char c = raw.charAt(i);
+            if (c == escape && i + 1 < raw.length()) {
+                sb.append(raw.charAt(i + 1));
+                i += 2;
+            } else if (raw.startsWith(delimiter, i)) {
+                if (sb.length() > 0) {
+                    values.add(sb.toString());
+                    sb.setLength(0);
+                }
+                i += delimiter.length();
+            } else {
+                sb.append(c);
+                i++;
+            }
+        }
+
+        if (sb.length() > 0) {
+            values.add(sb.toString());
+        }
+
+        return values;
+    }
+
+    /**
+     * @return raw value, null if there are no values
+     */
+    public String join(List<Object> values) {
+        return join(values, true);
+    }
+
+    /**
+     * @param escaped false if values shouldn't be escaped (unique, name and password columns)
+     * @return raw value, null if there are no values
+     */
+    public String join(List<Object> values, boolean escaped) {
+        if (values == null || values.isEmpty()) {
+            return null;
+        }
+
+        if (values.size() > 1 && delimiter == null) {
+            throw new ConnectorException("Multivalue delimiter not defined in connector configuration");
+        }
+
+        boolean escapeValues = escaped && escape != NONE;
+        if (values.size() == 1 && !escapeValues) {
+            return toString(values.get(0));
+        }
+
+        String[] strings = new String[values.size()];
+        int length = delimiter.length() * (strings.length - 1);
+        for (int i = 0; i < strings.length; i++) {
+            strings[i] = toString(values.get(i));
+            length += strings[i].length();
+        }
+
+        if (escapeValues) {
+            // some room for escape characters
+            length += length / 8;
+        }
+
+        StringBuilder sb = new StringBuilder(length);
+        for (int i = 0; i < strings.length; i++) {
+            if (i > 0) {
+                sb.append(delimiter);
+            }
+
+            if (escapeValues) {
+                appendEscaped(sb, strings[i]);
+            } else {
+                sb.append(strings[i]);
+            }
+        }
+
+        return sb.toString();
+    }
+
+    private void appendEscaped(StringBuilder sb, String value) {
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            // every character of delimiter is escaped, so that delimiter can't be found in escaped value
+            if (c == escape || delimiter.indexOf(c) >= 0) {
+                sb.append((char) escape);
+            }
+            sb.append(c);
+        }
+    }
+
+    private static String toString(Object value) {
+        if (value instanceof GuardedString) {
+            StringAccessor sa = new StringAccessor();
+            ((GuardedString) value).access(sa);
+
+            return sa.getValue();
+        }
+
+        if (value instanceof GuardedByteArray) {
+            ByteArrayAccessor ba = new ByteArrayAccessor();
+            ((GuardedByteArray) value).access(ba);
+
+            return org.identityconnectors.common.Base64.encode(ba.getValue());
+        }
+
+        return String.valueOf(value);
+    }
+}
@@ -0,0 +1,224 @@
+package com.evolveum.polygon.connector.csv.util;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.Deque;
+
+/**
+ * Reader which decodes file starting at arbitrary byte offset and is able to translate character position
+ * (e.g. {@link org.apache.commons.csv.CSVRecord#getCharacterPosition()}) back to byte offset in file.
+ * Character positions are counted from the byte offset reader was opened with.
+ * <p>
+ * Reader remembers byte range of every decoded block. Blocks which are no longer needed should be released
+ * via {@link #release(long)}, only positions which weren't released can be translated.
+ */
+public class OffsetTrackingReader extends Reader {
+
+    private static final int BUFFER_SIZE = 8192;
+
+    private static final int CHAR_START = 0;
+    private static final int CHAR_END = 1;
+    private static final int BYTE_START = 2;
+    private static final int BYTE_END = 3;
+
+    private final FileChannel channel;
+
+    private final Charset charset;
+
+    private final CharsetDecoder decoder;
+
+    private final ByteBuffer bytes = ByteBuffer.allocate(BUFFER_SIZE);
+
+    private final CharBuffer chars = CharBuffer.allocate(BUFFER_SIZE);
+
+    private final Deque<long[]> blocks = new ArrayDeque<>();
+
+    private long readPosition;
+
+    private long decodedBytes;
+
+    private long decodedChars;
+
+    private boolean eof;
+
+    private boolean flushed;
+
+    /**
+     * Last translated position, so that consecutive positions in one block don't decode it from its start
+     */
+    private long lastCharPosition = -1;
+
+    private long lastByteOffset;
+
+    public OffsetTrackingReader(File file, Charset charset, long offset) throws IOException {
+        this.channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+        this.charset = charset;
+        this.decoder = createDecoder(charset);
+
+        this.readPosition = offset;
+        this.decodedBytes = offset;
+
+        chars.flip();
+    }
+
+    private static CharsetDecoder createDecoder(Charset charset) {
+        // same behaviour as InputStreamReader
+        return charset.newDecoder()
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE);
+    }
+
+    @Override
+    public int read(char[] cbuf, int off, int len) throws IOException {
+        if (len == 0) {
+            return 0;
+        }
+
+        if (!chars.hasRemaining() && !fill()) {
+            return -1;
+        }
+
+        int count = Math.min(len, chars.remaining());
+        chars.get(cbuf, off, count);
+
+        return count;
+    }
+
+    private boolean fill() throws IOException {
+        chars.clear();
+
+        while (!flushed) {
+            if (!eof) {
+                int read = channel.read(bytes, readPosition);
+                if (read < 0) {
+                    eof = true;
+                } else {
+                    readPosition += read;
+                }
+            }
+
+            bytes.flip();
+            CoderResult result = decoder.decode(bytes, chars, eof);
+            if (eof && result.isUnderflow()) {
+                decoder.flush(chars);
+                flushed = true;
+            }
+            int consumed = bytes.position();
+            bytes.compact();
+
+            if (chars.position() > 0) {
+                blocks.addLast(new long[]{decodedChars, decodedChars + chars.position(),
+                        decodedBytes, decodedBytes + consumed});
+
+                decodedChars += chars.position();
+                decodedBytes += consumed;
+
+                chars.flip();
+                return true;
+            }
+
+            decodedBytes += consumed;
+        }
+
+        chars.flip();
+        return false;
+    }
+
+    /**
+     * Blocks which contain only characters before this position are forgotten.
+     */
+    public void release(long charPosition) {
+        while (!blocks.isEmpty() && blocks.peekFirst()[CHAR_END] <= charPosition) {
+            blocks.removeFirst();
+        }
+    }
+
+    /**
+     * @param charPosition position of character which starts record (it must not be inside of surrogate pair)
+     * @return offset of first byte of character in file
+     */
+    public long getByteOffset(long charPosition) throws IOException {
+        for (long[] block : blocks) {
+            if (charPosition == block[CHAR_START]) {
+                return block[BYTE_START];
+            }
+
+            if (charPosition > block[CHAR_START] && charPosition < block[CHAR_END]) {
+                long charStart = block[CHAR_START];
+                long byteStart = block[BYTE_START];
+                if (lastCharPosition > charStart && lastCharPosition <= charPosition
+                        && lastCharPosition < block[CHAR_END]) {
+                    charStart = lastCharPosition;
+                    byteStart = lastByteOffset;
+                }
+
+                long offset = byteStart + countBytes(byteStart, block[BYTE_END], (int) (charPosition - charStart));
+
+                lastCharPosition = charPosition;
+                lastByteOffset = offset;
+
+                return offset;
+            }
+        }
+
+        if (charPosition == decodedChars) {
+            return decodedBytes;
+        }
+
+        throw new IllegalStateException("Character position " + charPosition + " was already released");
+    }
+
+    /**
+     * Same as comparing {@link #getByteOffset(long)} with byte offset, but block has to be decoded again only
+     * if byte offset is inside of block containing character.
+     */
+    public boolean isBefore(long charPosition, long byteOffset) throws IOException {
+        for (long[] block : blocks) {
+            if (charPosition >= block[CHAR_START] && charPosition < block[CHAR_END]) {
+                if (block[BYTE_END] <= byteOffset) {
+                    return true;
+                }
+                if (block[BYTE_START] >= byteOffset) {
+                    return false;
+                }
+                break;
+            }
+        }
+
+        return getByteOffset(charPosition) < byteOffset;
+    }
+
+    /**
+     * Decodes part of block again until expected number of characters is produced. Re-encoding characters
+     * wouldn't be reliable for malformed input replaced during decoding.
+     */
+    private int countBytes(long byteStart, long byteEnd, int charCount) throws IOException {
+        ByteBuffer in = ByteBuffer.allocate((int) (byteEnd - byteStart));
+        while (in.hasRemaining()) {
+            if (channel.read(in, byteStart + in.position()) < 0) {
+                break;
+            }
+        }
+        in.flip();
+
+        CharBuffer out = CharBuffer.allocate(charCount);
+        createDecoder(charset).decode(in, out, false);
+
+        return in.position();
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+}
@@ -0,0 +1,70 @@
+package com.evolveum.polygon.connector.csv.util;
+
+import org.identityconnectors.framework.common.exceptions.ConnectorException;
+
+/**
+ * Position of next page in csv file: byte offset and number of first record which wasn't returned yet,
+ * bound to version of file it was created for. Byte offset can be used only if file version didn't change,
+ * otherwise records are counted again from the beginning of file.
+ * <p>
+ * Cookie of sorted results doesn't have byte offset (it's -1), record number is position of next page
+ * in sorted records. Such cookie can't be used if file version changed.
+ */
+public class PagedResultsCookie {
+
+    private static final String SEPARATOR = ":";
+
+    private final long offset;
+
+    private final long recordNumber;
+
+    private final String version;
+
+    public PagedResultsCookie(long offset, long recordNumber, FileVersion version) {
+        this(offset, recordNumber, version.toToken());
+    }
+
+    public PagedResultsCookie(long offset, long recordNumber, String version) {
+        this.offset = offset;
+        this.recordNumber = recordNumber;
+        this.version = version;
+    }
+
+    public static PagedResultsCookie parse(String cookie) {
+        if (cookie == null) {
+            return null;
+        }
+
+        String[] parts = cookie.split(SEPARATOR, 3);
+        try {
+            if (parts.length == 3) {
+                return new PagedResultsCookie(Long.parseLong(parts[0]), Long.parseLong(parts[1]), parts[2]);
+            }
+        } catch (NumberFormatException ex) {
+            // handled below
+        }
+
+        throw new ConnectorException("Invalid paged results cookie '" + cookie + "'");
+    }
+
+    public long getOffset() {
+        return offset;
+    }
+
+    public long getRecordNumber() {
+        return recordNumber;
+    }
+
+    public boolean isValidFor(FileVersion version) {
+        return isValidFor(version.toToken());
+    }
+
+    public boolean isValidFor(String version) {
+        return this.version.equals(version);
+    }
+
+    @Override
+    public String toString() {
+        return offset + SEPARATOR + recordNumber + SEPARATOR + version;
+    }
+}
@@ -0,0 +1,376 @@
+package com.evolveum.polygon.connector.csv.util;
+
+import com.evolveum.polygon.connector.csv.ObjectClassHandlerConfiguration;
+import org.identityconnectors.common.StringUtil;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+/**
+ * Splits csv file into byte ranges which start on record boundaries, so that ranges can be parsed in parallel.
+ * <p>
+ * Candidate range starts right after line feed, but line feed may be part of quoted (or escaped) value, so it's not
+ * known whether record starts there. Every candidate range is therefore scanned once for each state it could
+ * start in (line start, inside of quoted value, inside of unquoted value after escaped line feed). Real states
+ * are then resolved from the beginning of file, range by range. Scanner follows commons-csv lexer rules for
+ * quotes, escapes, comments and empty lines.
+ * <p>
+ * File is scanned as bytes, therefore scanner can be used only for encodings where ascii characters are
+ * single bytes which can't be part of multi-byte sequences.
+ */
+public class RecordBoundaryScanner {
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private static final int NONE = -1;
+
+    // first byte of record
+    private static final int RECORD_START = 0;
+    // line start after empty or comment line, record started before that line
+    private static final int LINE_START = 1;
+    private static final int FIELD_START = 2;
+    private static final int UNQUOTED = 3;
+    private static final int ESCAPE_UNQUOTED = 4;
+    private static final int QUOTED = 5;
+    private static final int ESCAPE_QUOTED = 6;
+    private static final int QUOTE_IN_QUOTED = 7;
+    private static final int AFTER_QUOTED = 8;
+    private static final int COMMENT = 9;
+    private static final int CR_RECORD_END = 10;
+    private static final int CR_LINE_END = 11;
+
+    // states possible after line feed, record start is handled as line start
+    private static final int[] INITIAL_STATES = {LINE_START, QUOTED, UNQUOTED};
+
+    private final int delimiter;
+    private final int quote;
+    private final int escape;
+    private final int commentMarker;
+    private final boolean ignoreEmptyLines;
+    private final boolean ignoreSurroundingSpaces;
+
+    private RecordBoundaryScanner(ObjectClassHandlerConfiguration configuration) {
+        this.delimiter = toByte(configuration.getFieldDelimiter());
+        this.quote = toByte(configuration.getQuote());
+        this.escape = toByte(configuration.getEscape());
+        this.commentMarker = toByte(configuration.getCommentMarker());
+        this.ignoreEmptyLines = configuration.isIgnoreEmptyLines();
+        this.ignoreSurroundingSpaces = configuration.isIgnoreSurroundingSpaces();
+    }
+
+    /**
+     * @return scanner or null if csv file format (encoding, non ascii special characters) is not supported
+     */
+    public static RecordBoundaryScanner create(ObjectClassHandlerConfiguration configuration) {
+        Charset charset = Charset.forName(configuration.getEncoding());
+        if (!isAsciiCompatible(charset)) {
+            return null;
+        }
+
+        String[] specialCharacters = {configuration.getFieldDelimiter(), configuration.getQuote(),
+                configuration.getEscape(), configuration.getCommentMarker()};
+        for (String character : specialCharacters) {
+            if (character != null && character.length() == 1 && character.charAt(0) >= 0x80) {
+                return null;
+            }
+        }
+
+        return new RecordBoundaryScanner(configuration);
+    }
+
+    private static boolean isAsciiCompatible(Charset charset) {
+        if (StandardCharsets.UTF_8.equals(charset) || StandardCharsets.US_ASCII.equals(charset)) {
+            return true;
+        }
+
+        if (!charset.canEncode() || charset.newEncoder().maxBytesPerChar() != 1.0f) {
+            return false;
+        }
+
+        byte[] ascii = new byte[0x80];
+        for (int i = 0; i < ascii.length; i++) {
+            ascii[i] = (byte) i;
+        }
+
+        return new String(ascii, charset).equals(new String(ascii, StandardCharsets.US_ASCII));
+    }
+
+    private static int toByte(String character) {
+        return StringUtil.isEmpty(character) ? NONE : character.charAt(0);
+    }
+
+    /**
+     * @param ranges   requested number of ranges, less ranges can be returned if records are too long
+     * @param executor used to scan candidate ranges in parallel
+     * @return sorted byte offsets where records start, the first one is always 0
+     */
+    public long[] findBoundaries(File file, int ranges, ExecutorService executor) throws IOException {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            long size = channel.size();
+
+            List<Long> candidates = new ArrayList<>();
+            candidates.add(0L);
+            for (int i = 1; i < ranges; i++) {
+                long candidate = findLineStart(channel, Math.max(size * i / ranges, candidates.get(i - 1)));
+                if (candidate < 0) {
+                    break;
+                }
+                if (candidate > candidates.get(candidates.size() - 1)) {
+                    candidates.add(candidate);
+                }
+            }
+            candidates.add(size);
+
+            List<Future<RangeResult>> futures = new ArrayList<>();
+            for (int i = 0; i < candidates.size() - 1; i++) {
+                long start = candidates.get(i);
+                long end = candidates.get(i + 1);
+                futures.add(executor.submit(() -> scanRange(channel, start, end)));
+            }
+
+            List<Long> boundaries = new ArrayList<>();
+            boundaries.add(0L);
+
+            int state = RECORD_START;
+            for (int i = 0; i < futures.size(); i++) {
+                RangeResult result = get(futures.get(i));
+
+                int index = getInitialStateIndex(state);
+                if (index < 0) {
+                    // shouldn't happen, range starts after line feed
+                    break;
+                }
+
+                if (i > 0) {
+                    long boundary = state == RECORD_START ? candidates.get(i) : result.firstRecordStart[index];
+                    if (boundary > boundaries.get(boundaries.size() - 1) && boundary < size) {
+                        boundaries.add(boundary);
+                    }
+                }
+
+                state = result.endState[index];
+            }
+
+            return boundaries.stream().mapToLong(Long::longValue).toArray();
+        }
+    }
+
+    private RangeResult get(Future<RangeResult> future) throws IOException {
+        try {
+            return future.get();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while scanning csv file", ex);
+        } catch (ExecutionException ex) {
+            if (ex.getCause() instanceof UncheckedIOException) {
+                throw ((UncheckedIOException) ex.getCause()).getCause();
+            }
+            throw new IOException("Couldn't scan csv file", ex.getCause());
+        }
+    }
+
+    private int getInitialStateIndex(int state) {
+        switch (state) {
+            case RECORD_START:
+            case LINE_START:
+                return 0;
+            case QUOTED:
+                return 1;
+            case UNQUOTED:
+                return 2;
+            default:
+                return -1;
+        }
+    }
+
+    /**
+     * @return offset of first byte after line feed found at or after position, -1 if there's no such byte
+     */
+    private long findLineStart(FileChannel channel, long position) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+
+        long offset = position;
+        while (true) {
+            buffer.clear();
+            int read = channel.read(buffer, offset);
+            if (read < 0) {
+                return -1;
+            }
+
+            for (int i = 0; i < read; i++) {
+                if (buffer.get(i) == '\n') {
+                    long lineStart = offset + i + 1;
+                    return lineStart < channel.size() ? lineStart : -1;
+                }
+            }
+
+            offset += read;
+        }
+    }
+
+    private RangeResult scanRange(FileChannel channel, long start, long end) {
+        int[] states = INITIAL_STATES.clone();
+        long[] firstRecordStart = {NONE, NONE, NONE};
+
+        ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+        try {
+            long offset = start;
+            while (offset < end) {
+                buffer.clear();
+                if (end - offset < buffer.capacity()) {
+                    buffer.limit((int) (end - offset));
+                }
+
+                int read = channel.read(buffer, offset);
+                if (read < 0) {
+                    break;
+                }
+
+                for (int i = 0; i < read; i++) {
+                    int b = buffer.get(i) & 0xff;
+                    long position = offset + i;
+
+                    for (int s = 0; s < states.length; s++) {
+                        int state = states[s];
+                        if (state == CR_RECORD_END && b != '\n') {
+                            // record ended with carriage return only, new record starts here
+                            if (firstRecordStart[s] == NONE) {
+                                firstRecordStart[s] = position;
+                            }
+                            state = RECORD_START;
+                        } else if (state == CR_LINE_END && b != '\n') {
+                            state = LINE_START;
+                        }
+
+                        state = next(state, b);
+                        if (state == RECORD_START && firstRecordStart[s] == NONE && position + 1 < end) {
+                            firstRecordStart[s] = position + 1;
+                        }
+
+                        states[s] = state;
+                    }
+                }
+
+                offset += read;
+            }
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+
+        return new RangeResult(firstRecordStart, states);
+    }
+
+    private int next(int state, int b) {
+        switch (state) {
+            case RECORD_START:
+            case LINE_START:
+                if (b == '\n') {
+                    return ignoreEmptyLines ? LINE_START : RECORD_START;
+                }
+                if (b == '\r') {
+                    return ignoreEmptyLines ? CR_LINE_END : CR_RECORD_END;
+                }
+                if (b == commentMarker) {
+                    return COMMENT;
+                }
+                return nextInField(b);
+            case FIELD_START:
+                if (b == '\n') {
+                    return RECORD_START;
+                }
+                if (b == '\r') {
+                    return CR_RECORD_END;
+                }
+                return nextInField(b);
+            case UNQUOTED:
+                if (b == '\n') {
+                    return RECORD_START;
+                }
+                if (b == '\r') {
+                    return CR_RECORD_END;
+                }
+                if (b == delimiter) {
+                    return FIELD_START;
+                }
+                return b == escape ? ESCAPE_UNQUOTED : UNQUOTED;
+            case ESCAPE_UNQUOTED:
+                return UNQUOTED;
+            case QUOTED:
+                if (b == quote) {
+                    return QUOTE_IN_QUOTED;
+                }
+                return b == escape ? ESCAPE_QUOTED : QUOTED;
+            case ESCAPE_QUOTED:
+                return QUOTED;
+            case QUOTE_IN_QUOTED:
+                if (b == quote) {
+                    // doubled quote
+                    return QUOTED;
+                }
+                return nextAfterQuoted(b);
+            case AFTER_QUOTED:
+                return nextAfterQuoted(b);
+            case COMMENT:
+                if (b == '\n') {
+                    return LINE_START;
+                }
+                return b == '\r' ? CR_LINE_END : COMMENT;
+            case CR_RECORD_END:
+                // only line feed gets here
+                return RECORD_START;
+            case CR_LINE_END:
+                return LINE_START;
+            default:
+                throw new IllegalStateException("Unknown state " + state);
+        }
+    }
+
+    /**
+     * Token start, line feed and carriage return were already handled.
+     */
+    private int nextInField(int b) {
+        if (b == delimiter) {
+            return FIELD_START;
+        }
+        if (ignoreSurroundingSpaces && b < 0x80 && Character.isWhitespace(b)) {
+            return FIELD_START;
+        }
+        if (b == quote) {
+            return QUOTED;
+        }
+        return b == escape ? ESCAPE_UNQUOTED : UNQUOTED;
+    }
+
+    private int nextAfterQuoted(int b) {
+        if (b == '\n') {
+            return RECORD_START;
+        }
+        if (b == '\r') {
+            return CR_RECORD_END;
+        }
+        return b == delimiter ? FIELD_START : AFTER_QUOTED;
+    }
+
+    private static class RangeResult {
+
+        private final long[] firstRecordStart;
+
+        private final int[] endState;
+
+        private RangeResult(long[] firstRecordStart, int[] endState) {
+            this.firstRecordStart = firstRecordStart;
+            this.endState = endState;
+        }
+    }
+}
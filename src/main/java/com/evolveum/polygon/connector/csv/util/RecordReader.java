@@ -0,0 +1,52 @@
+package com.evolveum.polygon.connector.csv.util;
+
+import org.identityconnectors.common.StringUtil;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * Reads csv records one by one. Values of current record are available only until next record is read.
+ */
+public interface RecordReader extends Closeable {
+
+    /**
+     * @return false if there are no more records
+     */
+    boolean next() throws IOException;
+
+    /**
+     * @return number of current record, the first record in file has number 1
+     */
+    long getRecordNumber();
+
+    /**
+     * @return position of the first character of current record (including empty and comment lines before it)
+     */
+    long getCharacterPosition();
+
+    int size();
+
+    String get(int index);
+
+    default boolean isBlank(int index) {
+        return StringUtil.isBlank(get(index));
+    }
+
+    /**
+     * @return hash of values of current record, the same as {@link SyncSnapshot#hash(String[])} of
+     * {@link #toArray()}
+     */
+    default long hash() {
+        return SyncSnapshot.hash(toArray());
+    }
+
+    default String[] toArray() {
+        String[] values = new String[size()];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = get(i);
+        }
+
+        return values;
+    }
+}
@@ -0,0 +1,191 @@
+package com.evolveum.polygon.connector.csv.util;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Objects;
+import java.util.Properties;
+import java.util.zip.CRC32;
+
+/**
+ * State of sync file at the time it was created, stored next to sync file (see
+ * {@link Util#createSyncInfoFile(File)}). Sync file created as hard link shares content with csv file, it's valid
+ * only while its size and modification time are the same, i.e. csv file wasn't changed in place.
+ * <p>
+ * Version and digest of csv file from which sync file was created are stored too, sync from token can finish
+ * without reading any file if csv file still has the same version.
+ */
+public class SyncFileInfo {
+
+    private static final String LINKED = "linked";
+
+    private static final String SIZE = "size";
+
+    private static final String MODIFIED = "modified";
+
+    private static final String FILE_KEY = "fileKey";
+
+    private static final String SOURCE = "source";
+
+    private static final String DIGEST = "digest";
+
+    /**
+     * Size of block at the start and at the end of file used for digest
+     */
+    private static final int DIGEST_BLOCK = 64 * 1024;
+
+    private final boolean linked;
+
+    private final long size;
+
+    private final long modified;
+
+    private final String fileKey;
+
+    private final String source;
+
+    private final long digest;
+
+    private SyncFileInfo(boolean linked, long size, long modified, String fileKey, String source, long digest) {
+        this.linked = linked;
+        this.size = size;
+        this.modified = modified;
+        this.fileKey = fileKey;
+        this.source = source;
+        this.digest = digest;
+    }
+
+    private static SyncFileInfo of(File syncFile, boolean linked) throws IOException {
+        return of(syncFile, linked, null, 0);
+    }
+
+    /**
+     * @param source version of csv file which has the same content as sync file, null if it's not known (csv file
+     *               was changed while sync file was created)
+     * @param digest see {@link #digest(File)}
+     */
+    public static SyncFileInfo of(File syncFile, boolean linked, FileVersion source, long digest)
+            throws IOException {
+        BasicFileAttributes attributes = Files.readAttributes(syncFile.toPath(), BasicFileAttributes.class);
+
+        return new SyncFileInfo(linked, attributes.size(), attributes.lastModifiedTime().toMillis(),
+                getFileKey(attributes), source != null ? source.toToken() : null, digest);
+    }
+
+    /**
+     * @return cheap digest of file content, CRC32 of size and of blocks at the start and at the end of file,
+     * it catches changes which don't change size nor modification time (e.g. coarse time granularity)
+     */
+    public static long digest(File file) throws IOException {
+        CRC32 crc = new CRC32();
+
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+            long length = raf.length();
+            crc.update(Long.toString(length).getBytes(StandardCharsets.UTF_8));
+
+            byte[] block = new byte[(int) Math.min(DIGEST_BLOCK, length)];
+            raf.readFully(block);
+            crc.update(block);
+
+            if (length > DIGEST_BLOCK) {
+                block = new byte[(int) Math.min(DIGEST_BLOCK, length - DIGEST_BLOCK)];
+                raf.seek(length - block.length);
+                raf.readFully(block);
+                crc.update(block);
+            }
+        }
+
+        return crc.getValue();
+    }
+
+    /**
+     * @return file key (e.g. device and inode) as string, null if file system doesn't provide it
+     */
+    public static String getFileKey(File file) throws IOException {
+        return getFileKey(Files.readAttributes(file.toPath(), BasicFileAttributes.class));
+    }
+
+    private static String getFileKey(BasicFileAttributes attributes) {
+        return attributes.fileKey() != null ? attributes.fileKey().toString() : null;
+    }
+
+    /**
+     * @return info of sync file, null if it wasn't stored
+     */
+    public static SyncFileInfo read(File syncFile) throws IOException {
+        File file = Util.createSyncInfoFile(syncFile);
+        if (!file.exists()) {
+            return null;
+        }
+
+        Properties properties = new Properties();
+        try (Reader reader = Files.newBufferedReader(file.toPath(), StandardCharsets.UTF_8)) {
+            properties.load(reader);
+        }
+
+        try {
+            return new SyncFileInfo(Boolean.parseBoolean(properties.getProperty(LINKED)),
+                    Long.parseLong(properties.getProperty(SIZE)), Long.parseLong(properties.getProperty(MODIFIED)),
+                    properties.getProperty(FILE_KEY), properties.getProperty(SOURCE),
+                    Long.parseLong(properties.getProperty(DIGEST, "0")));
+        } catch (NumberFormatException ex) {
+            throw new IOException("Invalid sync file info " + file.getName(), ex);
+        }
+    }
+
+    public void write(File syncFile) throws IOException {
+        Properties properties = new Properties();
+        properties.setProperty(LINKED, Boolean.toString(linked));
+        properties.setProperty(SIZE, Long.toString(size));
+        properties.setProperty(MODIFIED, Long.toString(modified));
+        if (fileKey != null) {
+            properties.setProperty(FILE_KEY, fileKey);
+        }
+        if (source != null) {
+            properties.setProperty(SOURCE, source);
+            properties.setProperty(DIGEST, Long.toString(digest));
+        }
+
+        try (Writer writer = Files.newBufferedWriter(Util.createSyncInfoFile(syncFile).toPath(),
+                StandardCharsets.UTF_8)) {
+            properties.store(writer, null);
+        }
+    }
+
+    /**
+     * @return whether sync file is hard link of csv file
+     */
+    public boolean isLinked() {
+        return linked;
+    }
+
+    public String getFileKey() {
+        return fileKey;
+    }
+
+    /**
+     * @return false if file was changed since info was created
+     */
+    public boolean matches(File file) throws IOException {
+        SyncFileInfo current = of(file, linked);
+
+        return size == current.size && modified == current.modified
+                && (fileKey == null || Objects.equals(fileKey, current.fileKey));
+    }
+
+    /**
+     * @return true if csv file has the same version and digest as when sync file was created from it
+     */
+    public boolean isSourceOf(File csv) throws IOException {
+        if (source == null || !csv.exists()) {
+            return false;
+        }
+
+        return source.equals(FileVersion.of(csv).toToken()) && digest == digest(csv);
+    }
+}
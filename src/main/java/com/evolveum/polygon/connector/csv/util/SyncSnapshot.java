@@ -0,0 +1,243 @@
+package com.evolveum.polygon.connector.csv.util;
+
+import org.identityconnectors.framework.common.exceptions.ConnectorException;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Compact snapshot of sync file: unique attribute value, 64-bit hash of record content and byte offset of record
+ * in sync file, sorted by unique attribute value. Sync compares current records with snapshot, content of old
+ * record is read from sync file only if it's needed (deleted record).
+ * <p>
+ * Snapshot is stored in binary file next to sync file, see {@link Util#createSyncSnapshotFile(File)}. Size and
+ * modification time of sync file are stored too, so that snapshot of different file with the same name is
+ * not used.
+ */
+public class SyncSnapshot {
+
+    private static final int MAGIC = 0x43535653;
+
+    private static final int VERSION = 1;
+
+    static final long FNV_OFFSET = 0xcbf29ce484222325L;
+
+    private static final long FNV_PRIME = 0x100000001b3L;
+
+    private final long fileSize;
+
+    private final long fileModified;
+
+    private final String[] uids;
+
+    private final long[] hashes;
+
+    private final long[] offsets;
+
+    private SyncSnapshot(long fileSize, long fileModified, String[] uids, long[] hashes, long[] offsets) {
+        this.fileSize = fileSize;
+        this.fileModified = fileModified;
+        this.uids = uids;
+        this.hashes = hashes;
+        this.offsets = offsets;
+    }
+
+    /**
+     * @return 64-bit FNV-1a hash of record values, see also {@link RecordReader#hash()}
+     */
+    public static long hash(String[] values) {
+        long hash = FNV_OFFSET;
+        for (String value : values) {
+            if (value != null) {
+                for (int i = 0; i < value.length(); i++) {
+                    hash = hash(hash, value.charAt(i));
+                }
+            }
+
+            hash = hashSeparator(hash, value == null);
+        }
+
+        return hash;
+    }
+
+    static long hash(long hash, char c) {
+        return (hash ^ c) * FNV_PRIME;
+    }
+
+    /**
+     * Value separator can't be produced by any character, null value has different separator than empty value.
+     */
+    static long hashSeparator(long hash, boolean nullValue) {
+        return (hash ^ (nullValue ? 0x10001 : 0x10000)) * FNV_PRIME;
+    }
+
+    /**
+     * @return true if snapshot was created from this sync file
+     */
+    public boolean matches(File syncFile) {
+        return syncFile.length() == fileSize && syncFile.lastModified() == fileModified;
+    }
+
+    public int size() {
+        return uids.length;
+    }
+
+    /**
+     * @return index of entry, -1 if unique attribute value is not in snapshot
+     */
+    public int indexOf(String uid) {
+        int index = Arrays.binarySearch(uids, uid);
+        return index >= 0 ? index : -1;
+    }
+
+    public String getUid(int index) {
+        return uids[index];
+    }
+
+    public long getHash(int index) {
+        return hashes[index];
+    }
+
+    /**
+     * @return byte offset of record in sync file, -1 if offset is not known (encoding doesn't allow it)
+     */
+    public long getOffset(int index) {
+        return offsets[index];
+    }
+
+    public void write(File file) throws IOException {
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                Files.newOutputStream(file.toPath())))) {
+
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeLong(fileSize);
+            out.writeLong(fileModified);
+            out.writeInt(uids.length);
+
+            for (int i = 0; i < uids.length; i++) {
+                byte[] uid = uids[i].getBytes(StandardCharsets.UTF_8);
+                out.writeInt(uid.length);
+                out.write(uid);
+                out.writeLong(hashes[i]);
+                out.writeLong(offsets[i]);
+            }
+        }
+    }
+
+    /**
+     * @throws IOException if file is not valid snapshot (e.g. it wasn't written completely)
+     */
+    public static SyncSnapshot read(File file) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(
+                Files.newInputStream(file.toPath())))) {
+
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                throw new IOException("File " + file.getName() + " is not sync snapshot or its version is not "
+                        + "supported");
+            }
+
+            long fileSize = in.readLong();
+            long fileModified = in.readLong();
+            int count = in.readInt();
+
+            String[] uids = new String[count];
+            long[] hashes = new long[count];
+            long[] offsets = new long[count];
+
+            for (int i = 0; i < count; i++) {
+                byte[] uid = new byte[in.readInt()];
+                in.readFully(uid);
+
+                uids[i] = new String(uid, StandardCharsets.UTF_8);
+                hashes[i] = in.readLong();
+                offsets[i] = in.readLong();
+            }
+
+            return new SyncSnapshot(fileSize, fileModified, uids, hashes, offsets);
+        }
+    }
+
+    public static class Builder {
+
+        private final String fileName;
+
+        private final long fileSize;
+
+        private final long fileModified;
+
+        private final List<Entry> entries = new ArrayList<>();
+
+        /**
+         * @param syncFile sync file which will be read, it must not be changed
+         */
+        public Builder(File syncFile) {
+            this.fileName = syncFile.getName();
+            this.fileSize = syncFile.length();
+            this.fileModified = syncFile.lastModified();
+        }
+
+        public void add(String uid, long hash, long offset) {
+            entries.add(new Entry(uid, hash, offset));
+        }
+
+        /**
+         * Adds entries of other builder, e.g. builder of part of sync file which was read by other thread.
+         */
+        public void addAll(Builder other) {
+            entries.addAll(other.entries);
+        }
+
+        /**
+         * @throws ConnectorException if unique attribute values are not unique
+         */
+        public SyncSnapshot build() {
+            entries.sort(Comparator.comparing(e -> e.uid));
+
+            int size = entries.size();
+
+            String[] uids = new String[size];
+            long[] hashes = new long[size];
+            long[] offsets = new long[size];
+
+            for (int i = 0; i < size; i++) {
+                Entry entry = entries.get(i);
+                if (i > 0 && entry.uid.equals(uids[i - 1])) {
+                    throw new ConnectorException("Unique attribute value '" + entry.uid + "' is not unique in "
+                            + fileName);
+                }
+
+                uids[i] = entry.uid;
+                hashes[i] = entry.hash;
+                offsets[i] = entry.offset;
+            }
+
+            return new SyncSnapshot(fileSize, fileModified, uids, hashes, offsets);
+        }
+    }
+
+    private static class Entry {
+
+        private final String uid;
+
+        private final long hash;
+
+        private final long offset;
+
+        private Entry(String uid, long hash, long offset) {
+            this.uid = uid;
+            this.hash = hash;
+            this.offset = offset;
+        }
+    }
+}
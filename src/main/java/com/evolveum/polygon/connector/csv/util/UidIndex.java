@@ -0,0 +1,153 @@
+package com.evolveum.polygon.connector.csv.util;
+
+import com.evolveum.polygon.connector.csv.ObjectClassHandlerConfiguration;
+import org.identityconnectors.common.logging.Log;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.ref.SoftReference;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * In-memory index of csv records keyed by unique attribute value. Index contains only byte offsets of records,
+ * record is read from file again when it's needed, so offsets can be used only for encodings supported by
+ * {@link Util#canAppendRecord(java.nio.charset.Charset)}.
+ * <p>
+ * Connector instance (and therefore object class handler) is created for every operation, so indexes are kept
+ * in JVM wide registry, one index per csv file and unique attribute. Registry holds indexes softly, index which
+ * is not used can be dropped when memory is needed, it's rebuilt with next use. Index is bound to
+ * {@link FileVersion} of file it was built from. It has to be rebuilt when file version changes, except for
+ * records appended by connector itself, those are added via {@link #update(FileVersion, FileVersion, Map)}.
+ * <p>
+ * Access to index has to be synchronized on index instance.
+ */
+public class UidIndex {
+
+    private static final Log LOG = Log.getLog(UidIndex.class);
+
+    private static final Map<String, SoftReference<UidIndex>> INDEXES = new ConcurrentHashMap<>();
+
+    private final boolean ignoreCase;
+
+    private FileVersion version;
+
+    private Map<String, Long> offsets;
+
+    private boolean unique;
+
+    private UidIndex(boolean ignoreCase) {
+        this.ignoreCase = ignoreCase;
+    }
+
+    public static UidIndex getInstance(ObjectClassHandlerConfiguration config) {
+        String key = Util.getCanonicalPath(config.getFilePath()) + "|" + config.getObjectClass()
+                + "|" + config.getUniqueAttribute() + "|" + config.isIgnoreIdentifierCase();
+
+        UidIndex[] index = new UidIndex[1];
+        INDEXES.compute(key, (k, ref) -> {
+            index[0] = ref != null ? ref.get() : null;
+            if (index[0] != null) {
+                return ref;
+            }
+
+            index[0] = new UidIndex(config.isIgnoreIdentifierCase());
+            return new SoftReference<>(index[0]);
+        });
+
+        return index[0];
+    }
+
+    /**
+     * @return true if index was built from file with this version
+     */
+    public boolean isCurrent(FileVersion version) {
+        return this.version != null && this.version.equals(version);
+    }
+
+    /**
+     * Index can be used only if unique attribute values are really unique in csv file.
+     */
+    public boolean isUnique() {
+        return unique;
+    }
+
+    public void rebuild(File file, FileVersion version, RecordLoader loader) throws IOException {
+        LOG.ok("Rebuilding uid index for {0}, {1}", file, version);
+
+        Map<String, Long> offsets = new HashMap<>();
+        boolean[] unique = {true};
+
+        loader.load((uid, offset) -> {
+            if (offsets.put(createKey(uid), offset) != null) {
+                unique[0] = false;
+            }
+        });
+
+        this.version = version;
+        this.unique = unique[0];
+        // we don't want to keep offsets in memory if we can't use them
+        this.offsets = this.unique ? offsets : null;
+
+        LOG.ok("Uid index for {0} rebuilt, records: {1}, unique: {2}", file, offsets.size(), this.unique);
+    }
+
+    /**
+     * @return byte offset of record in file, -1 if there's no such record
+     */
+    public long get(String uid) {
+        if (!unique) {
+            return -1;
+        }
+
+        Long offset = offsets.get(createKey(uid));
+
+        return offset != null ? offset : -1;
+    }
+
+    public boolean contains(String uid) {
+        return get(uid) >= 0;
+    }
+
+    /**
+     * Adds records appended by connector to index. If index wasn't built from file version to which records
+     * were appended, it's invalidated and will be rebuilt with next read. Rewritten file (offsets of records
+     * changed) has to invalidate index.
+     *
+     * @param oldVersion version of file before append
+     * @param newVersion version of file after append
+     * @param appended   byte offsets of appended records by unique attribute value
+     */
+    public void update(FileVersion oldVersion, FileVersion newVersion, Map<String, Long> appended) {
+        if (!unique || !isCurrent(oldVersion)) {
+            invalidate();
+            return;
+        }
+
+        appended.forEach((uid, offset) -> offsets.put(createKey(uid), offset));
+
+        this.version = newVersion;
+    }
+
+    public void invalidate() {
+        version = null;
+        offsets = null;
+        unique = false;
+    }
+
+    private String createKey(String uid) {
+        return ignoreCase ? uid.toLowerCase(Locale.ROOT) : uid;
+    }
+
+    public interface RecordLoader {
+
+        void load(RecordConsumer consumer) throws IOException;
+    }
+
+    public interface RecordConsumer {
+
+        void accept(String uid, long offset);
+    }
+}
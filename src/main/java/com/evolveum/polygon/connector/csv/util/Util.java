@@ -1,9 +1,9 @@
 package com.evolveum.polygon.connector.csv.util;
 
 import com.evolveum.polygon.connector.csv.CsvConfiguration;
-import com.evolveum.polygon.connector.csv.CsvConnector;
 import com.evolveum.polygon.connector.csv.ObjectClassHandlerConfiguration;
 import org.apache.commons.csv.CSVFormat;
+import org.apache.commons.csv.CSVRecord;
 import org.apache.commons.csv.QuoteMode;
 import org.identityconnectors.common.Base64;
 import org.identityconnectors.common.StringUtil;
@@ -16,13 +16,15 @@ import org.identityconnectors.framework.common.exceptions.ConnectorIOException;
 import org.identityconnectors.framework.common.objects.Attribute;
 
 import java.io.*;
+import java.nio.ByteBuffer;
 import java.nio.channels.FileChannel;
-import java.nio.channels.FileLock;
-import java.nio.file.Path;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
 import java.nio.file.StandardOpenOption;
 import java.text.DateFormat;
 import java.text.SimpleDateFormat;
 import java.util.*;
+import java.util.regex.Pattern;
 
 /**
  * Created by Viliam Repan (lazyman).
@@ -37,6 +39,14 @@ public class Util {
 
     public static final String SYNC_LOCK_EXTENSION = "sync.lock";
 
+    public static final String LOCK_EXTENSION = "lock";
+
+    public static final String JOURNAL_EXTENSION = "journal";
+
+    public static final String SYNC_SNAPSHOT_EXTENSION = "snapshot";
+
+    public static final String SYNC_INFO_EXTENSION = "info";
+
     public static final String DEFAULT_COLUMN_NAME = "col";
 
     public static void closeQuietly(Closeable closeable) {
@@ -50,85 +60,45 @@ public class Util {
         }
     }
 
-    public static void closeQuietly(FileLock lock) {
-        try {
-            if (lock != null && lock.isValid()) {
-                lock.channel().close(); // channel must be close to avoid fd leak (too many open files)
-            }
-        } catch (IOException ex) {
-            LOG.warn("Unlock failed for {0}!", lock);
-        }
-    }
-
     public static File createSyncLockFile(ObjectClassHandlerConfiguration config) {
         String fileName = config.getFilePath().getName() + "." + SYNC_LOCK_EXTENSION;
         return new File(config.getTmpFolder(), fileName);
     }
 
-    public static File createTmpPath(ObjectClassHandlerConfiguration config) {
-        String fileName = config.getFilePath().getName() + config.hashCode() + "." + TMP_EXTENSION;
+    public static File createLockFile(ObjectClassHandlerConfiguration config) {
+        String fileName = config.getFilePath().getName() + "." + LOCK_EXTENSION;
         return new File(config.getTmpFolder(), fileName);
     }
 
-    public static FileLock obtainTmpFileLock(ObjectClassHandlerConfiguration config) {
-        File tmp = createTmpPath(config);
-
-        return obtainTmpFileLock(tmp);
+    public static File createJournalFile(ObjectClassHandlerConfiguration config) {
+        String fileName = config.getFilePath().getName() + "." + JOURNAL_EXTENSION;
+        return new File(config.getTmpFolder(), fileName);
     }
 
-    public static FileLock obtainTmpFileLock(File file) {
-        LOG.ok("Obtaining file lock for {0}", file.getPath());
-
-        int attempts = 0;
-
-        final long MAX_WAIT = 5 * 1000; // 5 seconds
-        Path path = file.toPath();
-
-        long start = System.currentTimeMillis();
-        FileChannel channel;
-        while (true) {
-            try {
-                attempts++;
-
-                channel = FileChannel.open(path,
-                        new HashSet(Arrays.asList(StandardOpenOption.WRITE, StandardOpenOption.CREATE_NEW)));
+    public static File createTmpPath(ObjectClassHandlerConfiguration config) {
+        String fileName = config.getFilePath().getName() + "." + config.hashCode() + "." + TMP_EXTENSION;
+        return new File(config.getTmpFolder(), fileName);
+    }
 
-                break;
-            } catch (IOException ex) {
-                if (System.currentTimeMillis() > (start + MAX_WAIT)) {
-                    throw new ConnectorIOException("Timeout, couldn't create tmp file '" + file.getPath()
-                            + "', reason: " + ex.getMessage(), ex);
-                }
+    /**
+     * Deletes tmp files of csv file left by writers which didn't finish (crashed). Caller has to hold lock
+     * of csv file, otherwise file which is just being written could be deleted.
+     */
+    public static void deleteOrphanedTmpFiles(ObjectClassHandlerConfiguration config) {
+        Pattern pattern = Pattern.compile(Pattern.quote(config.getFilePath().getName()) + "\\.-?\\d+\\."
+                + TMP_EXTENSION);
 
-                try {
-                    Thread.sleep((long) (10 + (Math.random() * 50)));
-                } catch (InterruptedException ie) {
-                    throw new ConnectorException(ie);
-                }
-            }
+        File[] files = config.getTmpFolder().listFiles((dir, name) -> pattern.matcher(name).matches());
+        if (files == null) {
+            return;
         }
 
-        FileLock lock;
-        try {
-            lock = channel.lock();
-        } catch (IOException ex) {
-            try {
-                channel.close();
-            } catch (IOException io) {
-                LOG.warn("Close failed for {0}!", channel);
-            }
-
+        for (File file : files) {
+            LOG.warn("Deleting orphaned tmp file {0}", file.getPath());
             if (!file.delete()) {
-                throw new ConnectorIOException("Couldn't delete lock file '" + file.getPath() + "'");
+                LOG.warn("Couldn't delete orphaned tmp file {0}", file.getPath());
             }
-
-            throw new ConnectorIOException("Couldn't obtain lock for temp file '" + file.getPath()
-                    + "', reason: " + ex.getMessage(), ex);
         }
-
-        LOG.ok("Lock for file {0} obtained (attempts: {1})", file.getPath(), attempts);
-
-        return lock;
     }
 
     public static <T> T getSafeValue(Map<String, Object> map, String key, T defValue) {
@@ -159,14 +129,52 @@ public class Util {
         return defValue;
     }
 
-    public static BufferedReader createReader(ObjectClassHandlerConfiguration configuration) throws IOException {
+    public static Reader createReader(ObjectClassHandlerConfiguration configuration) throws IOException {
         return createReader(configuration.getFilePath(), configuration);
     }
 
-    public static BufferedReader createReader(File path, ObjectClassHandlerConfiguration configuration) throws IOException {
-        FileInputStream fis = new FileInputStream(path);
-        InputStreamReader in = new InputStreamReader(fis, configuration.getEncoding());
-        return new BufferedReader(in);
+    /**
+     * File is memory mapped, reader doesn't have to be buffered, csv parser does its own buffering.
+     */
+    public static Reader createReader(File path, ObjectClassHandlerConfiguration configuration) throws IOException {
+        return new MappedFileReader(path, Charset.forName(configuration.getEncoding()));
+    }
+
+    public static RecordReader createRecordReader(Reader reader, ObjectClassHandlerConfiguration configuration)
+            throws IOException {
+        return createRecordReader(reader, configuration, 1);
+    }
+
+    /**
+     * @param firstRecord number of the first record read from reader
+     */
+    public static RecordReader createRecordReader(Reader reader, ObjectClassHandlerConfiguration configuration,
+                                                  long firstRecord) throws IOException {
+        // format is created also for tokenizer, so that invalid configuration is reported the same way
+        CSVFormat format = createCsvFormatReader(configuration);
+
+        if (configuration.isFastParser()) {
+            return new CsvTokenizer(reader, configuration, firstRecord);
+        }
+
+        return new CsvParserRecordReader(reader, format, firstRecord);
+    }
+
+    public static String getCanonicalPath(File file) {
+        try {
+            return file.getCanonicalPath();
+        } catch (IOException ex) {
+            return file.getAbsolutePath();
+        }
+    }
+
+    public static String[] toArray(CSVRecord record) {
+        String[] values = new String[record.size()];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = record.get(i);
+        }
+
+        return values;
     }
 
     public static void checkCanReadFile(File file) {
@@ -174,7 +182,7 @@ public class Util {
             throw new ConfigurationException("File path is not defined");
         }
         
-        synchronized (CsvConnector.SYNCH_FILE_LOCK) {
+        synchronized (FileLocks.get(file)) {
         	if (!file.exists()) {
         		throw new ConfigurationException("File '" + file + "' doesn't exists. At least file with CSV header must exist");
         	}
@@ -271,67 +279,31 @@ public class Util {
     }
 
     public static String createRawValue(List<Object> values, ObjectClassHandlerConfiguration configuration) {
-        if (values == null || values.isEmpty()) {
-            return null;
-        }
-
-        if (values.size() > 1 && StringUtil.isEmpty(configuration.getMultivalueDelimiter())) {
-            throw new ConnectorException("Multivalue delimiter not defined in connector configuration");
-        }
-
-        StringBuilder sb = new StringBuilder();
-
-        for (int i = 0; i < values.size(); i++) {
-            Object obj = values.get(i);
-            if (obj instanceof GuardedString) {
-                GuardedString gs = (GuardedString) obj;
-                StringAccessor sa = new StringAccessor();
-                gs.access(sa);
-
-                sb.append(sa.getValue());
-            } else if (obj instanceof GuardedByteArray) {
-                GuardedByteArray ga = (GuardedByteArray) obj;
-                ByteArrayAccessor ba = new ByteArrayAccessor();
-                ga.access(ba);
-
-                String value = org.identityconnectors.common.Base64.encode(ba.getValue());
-                sb.append(value);
-            } else {
-                sb.append(obj);
-            }
-
-            if (i + 1 < values.size()) {
-                sb.append(configuration.getMultivalueDelimiter());
-            }
-        }
+        return createRawValue(values, true, configuration);
+    }
 
-        return sb.toString();
+    /**
+     * @param escaped false for unique, name and password columns, which are never split when read
+     */
+    public static String createRawValue(List<Object> values, boolean escaped,
+                                        ObjectClassHandlerConfiguration configuration) {
+        return configuration.getMultivalueCodec().join(values, escaped);
     }
 
     public static <T extends Object> List<T> createAttributeValues(String raw, Class<T> type,
                                                                    ObjectClassHandlerConfiguration configuration) {
-        if (StringUtil.isEmpty(raw)) {
-            return new ArrayList<>();
-        }
+        return createAttributeValues(raw, type, true, configuration);
+    }
 
-        List<T> result = new ArrayList<>();
+    public static <T extends Object> List<T> createAttributeValues(String raw, Class<T> type, boolean escaped,
+                                                                   ObjectClassHandlerConfiguration configuration) {
+        List<String> items = configuration.getMultivalueCodec().split(raw, escaped);
 
-        if (StringUtil.isEmpty(configuration.getMultivalueDelimiter())) {
-            Object value = createValue(raw, type);
+        List<T> result = new ArrayList<>(items.size());
+        for (String item : items) {
+            T value = (T) createValue(item, type);
             if (value != null) {
-                result.add((T) value);
-            }
-        } else {
-            String[] array = raw.split(configuration.getMultivalueDelimiter());
-            for (String item : array) {
-                if (StringUtil.isEmpty(item)) {
-                    continue;
-                }
-
-                T value = (T) createValue(item, type);
-                if (value != null) {
-                    result.add(value);
-                }
+                result.add(value);
             }
         }
 
@@ -393,10 +365,76 @@ public class Util {
         return DATE_FORMAT.format(new Date(millis));
     }
 
-    public static void cleanupResources(Writer writer, Reader reader, FileLock lock,
-                                        ObjectClassHandlerConfiguration config) {
-        Util.closeQuietly(writer);
-        Util.closeQuietly(reader);
+    /**
+     * @return true if new line characters are encoded to single byte, so that {@link #appendRecord(File, String,
+     * String, Charset)} can check last byte of file and encoded records can be written in the middle of file
+     * (encoding doesn't add byte order mark)
+     */
+    public static boolean canAppendRecord(Charset charset) {
+        return "\n".getBytes(charset).length == 1 && "\r".getBytes(charset).length == 1;
+    }
+
+    /**
+     * Appends record to the end of file. Record separator is written first if file doesn't end with new line
+     * (last record wasn't terminated).
+     * <p>
+     * Append is done in place by positional writes, possibly more than one. Writers are serialized by file lock,
+     * but readers don't take it, so reader which reaches end of file during append can see only part of appended
+     * records (last record can be cut in the middle of value). Such read is not consistent, same as read of file
+     * which is changed by other application.
+     *
+     * @return byte offset of appended record
+     */
+    public static long appendRecord(File file, String record, String recordSeparator, Charset charset)
+            throws IOException {
+
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ,
+                StandardOpenOption.WRITE)) {
+
+            long size = channel.size();
+
+            boolean terminated = isTerminated(channel, size, charset);
+            long offset = terminated ? size : size + charset.encode(recordSeparator).remaining();
+            ByteBuffer buffer = charset.encode(terminated ? record : recordSeparator + record);
+
+            long position = size;
+            while (buffer.hasRemaining()) {
+                position += channel.write(buffer, position);
+            }
+
+            return offset;
+        }
+    }
+
+    public static boolean isTerminated(File file, long size, Charset charset) throws IOException {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            return isTerminated(channel, size, charset);
+        }
+    }
+
+    /**
+     * @return true if file is empty or its last byte (before size) is new line character, charset has to be
+     * supported by {@link #canAppendRecord(Charset)}
+     */
+    public static boolean isTerminated(FileChannel channel, long size, Charset charset) throws IOException {
+        if (size == 0) {
+            return true;
+        }
+
+        ByteBuffer last = ByteBuffer.allocate(1);
+        channel.read(last, size - 1);
+
+        byte b = last.get(0);
+        return b == "\n".getBytes(charset)[0] || b == "\r".getBytes(charset)[0];
+    }
+
+    public static Writer createTmpWriter(ObjectClassHandlerConfiguration config) throws IOException {
+        File tmp = createTmpPath(config);
+
+        return Files.newBufferedWriter(tmp.toPath(), Charset.forName(config.getEncoding()));
+    }
+
+    public static void cleanupResources(FileLockManager.Lock lock, ObjectClassHandlerConfiguration config) {
         Util.closeQuietly(lock);
 
         File tmp = Util.createTmpPath(config);
@@ -421,6 +459,25 @@ public class Util {
         return new File(tmpFolder, fileName + ".sync." + timestamp);
     }
 
+    public static File createSyncSnapshotFile(File syncFile) {
+        return new File(syncFile.getPath() + "." + SYNC_SNAPSHOT_EXTENSION);
+    }
+
+    public static File createSyncInfoFile(File syncFile) {
+        return new File(syncFile.getPath() + "." + SYNC_INFO_EXTENSION);
+    }
+
+    /**
+     * @return number of hard links of file, -1 if file system doesn't provide it
+     */
+    public static int getLinkCount(File file) throws IOException {
+        try {
+            return (Integer) Files.getAttribute(file.toPath(), "unix:nlink");
+        } catch (UnsupportedOperationException | IllegalArgumentException ex) {
+            return -1;
+        }
+    }
+
     public static File findOldestSyncFile(long token, ObjectClassHandlerConfiguration config) {
         String[] tokenFiles = Util.listTokenFiles(config);
         Arrays.sort(tokenFiles);
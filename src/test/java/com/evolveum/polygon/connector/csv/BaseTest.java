@@ -7,6 +7,9 @@ import org.identityconnectors.framework.api.ConnectorFacadeFactory;
 import org.identityconnectors.framework.common.objects.Attribute;
 import org.identityconnectors.framework.common.objects.AttributeBuilder;
 import org.identityconnectors.framework.common.objects.ConnectorObject;
+import org.identityconnectors.framework.common.objects.OperationOptions;
+import org.identityconnectors.framework.common.objects.OperationOptionsBuilder;
+import org.identityconnectors.framework.common.objects.OperationalAttributes;
 import org.identityconnectors.framework.common.objects.Uid;
 import org.identityconnectors.test.common.TestHelpers;
 
@@ -103,6 +106,15 @@ public abstract class BaseTest {
         }
     }
 
+    /**
+     * Password is not returned by default, it has to be requested explicitly.
+     */
+    protected OperationOptions createPasswordOptions() {
+        return new OperationOptionsBuilder()
+                .setAttributesToGet(ATTR_FIRST_NAME, ATTR_LAST_NAME, OperationalAttributes.PASSWORD_NAME)
+                .build();
+    }
+
     protected Attribute createAttribute(String name, Object... values) {
         return AttributeBuilder.build(name, values);
     }
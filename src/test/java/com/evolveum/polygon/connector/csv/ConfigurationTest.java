@@ -2,6 +2,7 @@ package com.evolveum.polygon.connector.csv;
 
 import com.evolveum.polygon.connector.csv.util.ListResultHandler;
 import org.identityconnectors.framework.api.ConnectorFacade;
+import org.identityconnectors.framework.common.exceptions.ConfigurationException;
 import org.identityconnectors.framework.common.objects.ObjectClass;
 import org.testng.AssertJUnit;
 import org.testng.annotations.Test;
@@ -35,4 +36,12 @@ public class ConfigurationTest extends BaseTest {
 
         data.setWritable(true);
     }
+
+    @Test(expectedExceptions = ConfigurationException.class)
+    public void unknownDurability() throws Exception {
+        CsvConfiguration config = createConfiguration();
+        config.setDurability("always");
+
+        setupConnector("/create.csv", config);
+    }
 }
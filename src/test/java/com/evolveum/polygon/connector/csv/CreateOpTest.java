@@ -1,8 +1,11 @@
 package com.evolveum.polygon.connector.csv;
 
 import com.evolveum.polygon.connector.csv.util.CsvTestUtil;
+import com.evolveum.polygon.connector.csv.util.FileVersion;
+import org.apache.commons.io.FileUtils;
 import org.identityconnectors.common.security.GuardedString;
 import org.identityconnectors.framework.api.ConnectorFacade;
+import org.identityconnectors.framework.common.exceptions.AlreadyExistsException;
 import org.identityconnectors.framework.common.exceptions.ConfigurationException;
 import org.identityconnectors.framework.common.exceptions.ConnectorException;
 import org.identityconnectors.framework.common.exceptions.InvalidAttributeValueException;
@@ -10,6 +13,7 @@ import org.identityconnectors.framework.common.objects.*;
 import org.testng.annotations.Test;
 
 import java.io.File;
+import java.nio.charset.StandardCharsets;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Map;
@@ -63,7 +67,7 @@ public class CreateOpTest extends BaseTest {
         assertNotNull(uid);
         assertEquals(NEW_UID, uid.getUidValue());
 
-        ConnectorObject newObject = connector.getObject(ObjectClass.ACCOUNT, uid, null);
+        ConnectorObject newObject = connector.getObject(ObjectClass.ACCOUNT, uid, createPasswordOptions());
         assertNotNull(newObject);
         attributes = new HashSet<>();
         attributes.add(new Name(NEW_UID));
@@ -111,7 +115,7 @@ public class CreateOpTest extends BaseTest {
         assertNotNull(uid);
         assertEquals(NEW_UID, uid.getUidValue());
 
-        ConnectorObject newObject = connector.getObject(ObjectClass.ACCOUNT, uid, null);
+        ConnectorObject newObject = connector.getObject(ObjectClass.ACCOUNT, uid, createPasswordOptions());
         assertNotNull(newObject);
         attributes = new HashSet<>();
         attributes.add(new Name(NEW_UID));
@@ -157,7 +161,7 @@ public class CreateOpTest extends BaseTest {
         assertNotNull(uid);
         assertEquals(NEW_UID, uid.getUidValue());
 
-        ConnectorObject newObject = connector.getObject(ObjectClass.ACCOUNT, uid, null);
+        ConnectorObject newObject = connector.getObject(ObjectClass.ACCOUNT, uid, createPasswordOptions());
         assertNotNull(newObject);
         attributes = new HashSet<>();
         attributes.add(createAttribute(Uid.NAME, NEW_UID));
@@ -204,7 +208,7 @@ public class CreateOpTest extends BaseTest {
         assertNotNull(uid);
         assertEquals(NEW_UID, uid.getUidValue());
 
-        ConnectorObject newObject = connector.getObject(ObjectClass.ACCOUNT, uid, null);
+        ConnectorObject newObject = connector.getObject(ObjectClass.ACCOUNT, uid, createPasswordOptions());
         assertNotNull(newObject);
         attributes = new HashSet<>();
         attributes.add(new Name(NEW_LAST_NAME));
@@ -241,7 +245,7 @@ public class CreateOpTest extends BaseTest {
         assertNotNull(uid);
         assertEquals(NEW_UID, uid.getUidValue());
 
-        ConnectorObject newObject = connector.getObject(ObjectClass.ACCOUNT, uid, null);
+        ConnectorObject newObject = connector.getObject(ObjectClass.ACCOUNT, uid, createPasswordOptions());
         assertNotNull(newObject);
         attributes = new HashSet<>();
         attributes.add(new Name(NEW_UID));
@@ -260,4 +264,83 @@ public class CreateOpTest extends BaseTest {
         Map<String, String> realRecord = CsvTestUtil.findRecord(createConfigurationNameEqualsUid(), NEW_UID);
         assertEquals(expectedRecord, realRecord);
     }
+
+    @Test
+    public void createAccountMultivalueEscape() throws Exception {
+        CsvConfiguration config = createConfigurationNameEqualsUid();
+        config.setMultivalueDelimiter(",");
+        config.setMultivalueEscape("~");
+        ConnectorFacade connector = setupConnector("/create.csv", config);
+
+        final String FIRST_LAST_NAME = "Doe, Jr.";
+        final String SECOND_LAST_NAME = "a~b";
+        final String PASSWORD = "se~cret,1";
+
+        Set<Attribute> attributes = new HashSet<>();
+        attributes.add(new Name(NEW_UID));
+        attributes.add(createAttribute(ATTR_UID, NEW_UID));
+        attributes.add(createAttribute(ATTR_FIRST_NAME, NEW_FIRST_NAME));
+        attributes.add(createAttribute(ATTR_LAST_NAME, FIRST_LAST_NAME, SECOND_LAST_NAME));
+        attributes.add(AttributeBuilder.buildPassword(new GuardedString(PASSWORD.toCharArray())));
+        Uid uid = connector.create(ObjectClass.ACCOUNT, attributes, null);
+        assertNotNull(uid);
+
+        ConnectorObject newObject = connector.getObject(ObjectClass.ACCOUNT, uid, createPasswordOptions());
+        assertNotNull(newObject);
+        attributes = new HashSet<>();
+        attributes.add(new Name(NEW_UID));
+        attributes.add(createAttribute(Uid.NAME, NEW_UID));
+        attributes.add(createAttribute(ATTR_FIRST_NAME, NEW_FIRST_NAME));
+        attributes.add(createAttribute(ATTR_LAST_NAME, FIRST_LAST_NAME, SECOND_LAST_NAME));
+        attributes.add(AttributeBuilder.buildPassword(new GuardedString(PASSWORD.toCharArray())));
+        assertConnectorObject(attributes, newObject);
+
+        Map<String, String> expectedRecord = new HashMap<>();
+        expectedRecord.put(ATTR_UID, NEW_UID);
+        expectedRecord.put(ATTR_FIRST_NAME, NEW_FIRST_NAME);
+        expectedRecord.put(ATTR_LAST_NAME, "Doe~, Jr.,a~~b");
+        // password column is never split, so it's not escaped
+        expectedRecord.put(ATTR_PASSWORD, PASSWORD);
+
+        Map<String, String> realRecord = CsvTestUtil.findRecord(createConfigurationNameEqualsUid(), NEW_UID);
+        assertEquals(expectedRecord, realRecord);
+    }
+
+    @Test(expectedExceptions = AlreadyExistsException.class)
+    public void createAccountAlreadyExists() throws Exception {
+        ConnectorFacade connector = setupConnector("/create.csv", createConfigurationNameEqualsUid());
+
+        Set<Attribute> attributes = new HashSet<>();
+        attributes.add(new Name("123"));
+        attributes.add(createAttribute(ATTR_FIRST_NAME, NEW_FIRST_NAME));
+        connector.create(ObjectClass.ACCOUNT, attributes, null);
+    }
+
+    @Test
+    public void createAccountAppendsRecord() throws Exception {
+        ConnectorFacade connector = setupConnector("/create.csv", createConfigurationNameEqualsUid());
+
+        File file = new File(CSV_FILE_PATH);
+        String oldContent = FileUtils.readFileToString(file, StandardCharsets.UTF_8);
+        FileVersion oldVersion = FileVersion.of(file);
+
+        for (int i = 0; i < 3; i++) {
+            Set<Attribute> attributes = new HashSet<>();
+            attributes.add(new Name(NEW_UID + i));
+            attributes.add(createAttribute(ATTR_FIRST_NAME, NEW_FIRST_NAME));
+            connector.create(ObjectClass.ACCOUNT, attributes, null);
+        }
+
+        // file wasn't replaced, records were appended
+        assertEquals(oldVersion.getFileKey(), FileVersion.of(file).getFileKey());
+
+        // last record of template isn't terminated, record separator has to be added first
+        String newContent = FileUtils.readFileToString(file, StandardCharsets.UTF_8);
+        assertEquals(oldContent + "\r\n" + NEW_FIRST_NAME + ";" + NEW_UID + "0;;\r\n"
+                + NEW_FIRST_NAME + ";" + NEW_UID + "1;;\r\n"
+                + NEW_FIRST_NAME + ";" + NEW_UID + "2;;\r\n", newContent);
+
+        ConnectorObject object = connector.getObject(ObjectClass.ACCOUNT, new Uid(NEW_UID + "1"), null);
+        assertNotNull(object);
+    }
 }
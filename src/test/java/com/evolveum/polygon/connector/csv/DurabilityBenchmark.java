@@ -0,0 +1,97 @@
+package com.evolveum.polygon.connector.csv;
+
+import com.evolveum.polygon.connector.csv.util.Durability;
+import org.apache.commons.io.FileUtils;
+import org.identityconnectors.common.logging.Log;
+import org.identityconnectors.framework.api.ConnectorFacade;
+import org.identityconnectors.framework.common.objects.Attribute;
+import org.identityconnectors.framework.common.objects.AttributeBuilder;
+import org.identityconnectors.framework.common.objects.ObjectClass;
+import org.identityconnectors.framework.common.objects.Uid;
+import org.testng.annotations.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Measures latency of create (append) and update (file replace) for every durability level.
+ * Not executed by default build (class name doesn't match surefire includes), run it using
+ * <code>mvn test -Dtest=DurabilityBenchmark</code>.
+ */
+public class DurabilityBenchmark extends BaseTest {
+
+    private static final Log LOG = Log.getLog(DurabilityBenchmark.class);
+
+    private static final int RECORDS = 10000;
+
+    private static final int OPERATIONS = 200;
+
+    @Test
+    public void createAndUpdate() throws Exception {
+        for (Durability durability : Durability.values()) {
+            ConnectorFacade connector = setupBenchmarkConnector(durability);
+
+            // warm up
+            create(connector, "warmup", 20);
+            update(connector, 20);
+
+            long create = create(connector, "new", OPERATIONS);
+            long update = update(connector, OPERATIONS);
+
+            LOG.info("Durability {0}: create {1} us/op, update {2} us/op", durability.getValue(), create / 1000,
+                    update / 1000);
+        }
+    }
+
+    private ConnectorFacade setupBenchmarkConnector(Durability durability) throws IOException {
+        StringBuilder sb = new StringBuilder();
+        sb.append("firstName;uid;lastName;password\n");
+        for (int i = 0; i < RECORDS; i++) {
+            sb.append("first").append(i).append(";user").append(i).append(";last").append(i)
+                    .append(";secret").append(i).append("\n");
+        }
+
+        File file = new File(CSV_FILE_PATH);
+        FileUtils.writeStringToFile(file, sb.toString(), StandardCharsets.UTF_8);
+
+        CsvConfiguration config = createConfiguration();
+        config.setFilePath(file);
+        config.setTmpFolder(null);
+        config.setDurability(durability.getValue());
+        config.validate();
+
+        return createNewInstance(config);
+    }
+
+    /**
+     * @return average time of one create in nanoseconds
+     */
+    private long create(ConnectorFacade connector, String prefix, int count) {
+        long start = System.nanoTime();
+        for (int i = 0; i < count; i++) {
+            Set<Attribute> attributes = new HashSet<>();
+            attributes.add(AttributeBuilder.build(ATTR_UID, prefix + i));
+            attributes.add(AttributeBuilder.build(ATTR_LAST_NAME, "last"));
+            connector.create(ObjectClass.ACCOUNT, attributes, null);
+        }
+
+        return (System.nanoTime() - start) / count;
+    }
+
+    /**
+     * @return average time of one update in nanoseconds
+     */
+    private long update(ConnectorFacade connector, int count) {
+        long start = System.nanoTime();
+        for (int i = 0; i < count; i++) {
+            Set<Attribute> attributes = new HashSet<>();
+            attributes.add(AttributeBuilder.build(ATTR_LAST_NAME, "changed" + i));
+            connector.update(ObjectClass.ACCOUNT, new Uid("user" + (i * 37 % RECORDS)), attributes, null);
+        }
+
+        return (System.nanoTime() - start) / count;
+    }
+}
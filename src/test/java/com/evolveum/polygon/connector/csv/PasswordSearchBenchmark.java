@@ -0,0 +1,97 @@
+package com.evolveum.polygon.connector.csv;
+
+import org.apache.commons.io.FileUtils;
+import org.identityconnectors.common.logging.Log;
+import org.identityconnectors.framework.api.ConnectorFacade;
+import org.identityconnectors.framework.common.objects.ObjectClass;
+import org.identityconnectors.framework.common.objects.OperationOptions;
+import org.identityconnectors.framework.common.objects.ResultsHandler;
+import org.testng.AssertJUnit;
+import org.testng.annotations.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Measures search throughput when password column is skipped (default) and when password is requested.
+ * Not executed by default build (class name doesn't match surefire includes), run it using
+ * <code>mvn test -Dtest=PasswordSearchBenchmark</code>.
+ */
+public class PasswordSearchBenchmark extends BaseTest {
+
+    private static final Log LOG = Log.getLog(PasswordSearchBenchmark.class);
+
+    private static final int RECORDS = 200000;
+
+    private static final int ITERATIONS = 5;
+
+    @Test
+    public void searchWithAndWithoutPassword() throws Exception {
+        CsvConfiguration config = createConfiguration();
+        ConnectorFacade connector = setupBenchmarkConnector(config, true);
+
+        // warm up
+        search(connector, null);
+        search(connector, createPasswordOptions());
+
+        long withoutPassword = search(connector, null);
+        long withPassword = search(connector, createPasswordOptions());
+
+        config = createConfiguration();
+        config.setPasswordAttribute(null);
+        connector = setupBenchmarkConnector(config, false);
+
+        search(connector, null);
+        long noPasswordColumn = search(connector, null);
+
+        LOG.info("Search of {0} records: password not requested {1} records/s, password requested {2} records/s, "
+                        + "no password column {3} records/s", RECORDS, throughput(withoutPassword),
+                throughput(withPassword), throughput(noPasswordColumn));
+    }
+
+    private ConnectorFacade setupBenchmarkConnector(CsvConfiguration config, boolean passwordColumn)
+            throws IOException {
+
+        StringBuilder sb = new StringBuilder();
+        sb.append("firstName;uid;lastName");
+        sb.append(passwordColumn ? ";password\n" : "\n");
+        for (int i = 0; i < RECORDS; i++) {
+            sb.append("first").append(i).append(";user").append(i).append(";last").append(i);
+            sb.append(passwordColumn ? ";secret" + i + "\n" : "\n");
+        }
+
+        File file = new File(CSV_FILE_PATH);
+        FileUtils.writeStringToFile(file, sb.toString(), StandardCharsets.UTF_8);
+
+        config.setFilePath(file);
+        config.setTmpFolder(null);
+        config.validate();
+
+        return createNewInstance(config);
+    }
+
+    /**
+     * @return average time of one search in nanoseconds
+     */
+    private long search(ConnectorFacade connector, OperationOptions options) {
+        long start = System.nanoTime();
+        for (int i = 0; i < ITERATIONS; i++) {
+            AtomicInteger count = new AtomicInteger();
+            ResultsHandler handler = object -> {
+                count.incrementAndGet();
+                return true;
+            };
+            connector.search(ObjectClass.ACCOUNT, null, handler, options);
+
+            AssertJUnit.assertEquals(RECORDS, count.get());
+        }
+
+        return (System.nanoTime() - start) / ITERATIONS;
+    }
+
+    private long throughput(long time) {
+        return RECORDS * 1000000000L / time;
+    }
+}
@@ -152,6 +152,7 @@ public class SchemaOpTest extends BaseTest {
 
             if (password) {
                 assertEquals(GuardedString.class, info.getType());
+                assertFalse(info.isReturnedByDefault());
             } else {
                 assertEquals(String.class, info.getType());
             }
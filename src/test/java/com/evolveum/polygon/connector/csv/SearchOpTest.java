@@ -1,17 +1,34 @@
 package com.evolveum.polygon.connector.csv;
 
 import com.evolveum.polygon.connector.csv.util.ListResultHandler;
+import org.apache.commons.io.FileUtils;
 import org.identityconnectors.framework.api.ConnectorFacade;
 import org.identityconnectors.framework.common.exceptions.ConnectorException;
+import org.identityconnectors.framework.common.objects.Attribute;
+import org.identityconnectors.framework.common.objects.AttributeBuilder;
+import org.identityconnectors.framework.common.objects.AttributeUtil;
 import org.identityconnectors.framework.common.objects.ConnectorObject;
+import org.identityconnectors.framework.common.objects.Name;
 import org.identityconnectors.framework.common.objects.ObjectClass;
+import org.identityconnectors.framework.common.objects.OperationOptions;
+import org.identityconnectors.framework.common.objects.OperationOptionsBuilder;
+import org.identityconnectors.framework.common.objects.OperationalAttributes;
+import org.identityconnectors.framework.common.objects.SearchResult;
+import org.identityconnectors.framework.common.objects.SortKey;
 import org.identityconnectors.framework.common.objects.Uid;
 import org.identityconnectors.framework.common.objects.filter.EqualsFilter;
+import org.identityconnectors.framework.common.objects.filter.Filter;
+import org.identityconnectors.framework.common.objects.filter.FilterBuilder;
 import org.testng.AssertJUnit;
 import org.testng.annotations.Test;
 
 import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
 
 /**
  * Created by Viliam Repan (lazyman).
@@ -64,6 +81,362 @@ public class SearchOpTest extends BaseTest {
         //todo asserts
     }
 
+    @Test
+    public void findByUidAfterFileChange() throws Exception {
+        ConnectorFacade connector = setupConnector("/search.csv");
+
+        ListResultHandler handler = new ListResultHandler();
+        connector.search(ObjectClass.ACCOUNT, new EqualsFilter(new Uid("vilo")), handler, null);
+        AssertJUnit.assertEquals(1, handler.getObjects().size());
+
+        // file modified in place by another tool, index has to be rebuilt
+        FileUtils.writeStringToFile(new File(CSV_FILE_PATH), "\n\"jack\";\"jack\";\"black\";\"pwd\"",
+                StandardCharsets.UTF_8, true);
+
+        handler = new ListResultHandler();
+        connector.search(ObjectClass.ACCOUNT, new EqualsFilter(new Uid("jack")), handler, null);
+        AssertJUnit.assertEquals(1, handler.getObjects().size());
+
+        ConnectorObject object = handler.getObjects().get(0);
+        AssertJUnit.assertEquals("black", AttributeUtil.getStringValue(object.getAttributeByName(ATTR_LAST_NAME)));
+    }
+
+    @Test
+    public void findByUidAfterUpdate() throws Exception {
+        ConnectorFacade connector = setupConnector("/search.csv");
+
+        AssertJUnit.assertNotNull(connector.getObject(ObjectClass.ACCOUNT, new Uid("vilo"), null));
+
+        Set<Attribute> attributes = new HashSet<>();
+        attributes.add(AttributeBuilder.build(ATTR_LAST_NAME, "changed"));
+        connector.update(ObjectClass.ACCOUNT, new Uid("vilo"), attributes, null);
+
+        ConnectorObject object = connector.getObject(ObjectClass.ACCOUNT, new Uid("vilo"), null);
+        AssertJUnit.assertEquals("changed", AttributeUtil.getStringValue(object.getAttributeByName(ATTR_LAST_NAME)));
+
+        connector.delete(ObjectClass.ACCOUNT, new Uid("vilo"), null);
+        AssertJUnit.assertNull(connector.getObject(ObjectClass.ACCOUNT, new Uid("vilo"), null));
+    }
+
+    @Test
+    public void findByUidNotUnique() throws Exception {
+        ConnectorFacade connector = setupConnector("/search.csv");
+
+        FileUtils.writeStringToFile(new File(CSV_FILE_PATH), "\n\"vilo\";\"vilo\";\"black\";\"pwd\"",
+                StandardCharsets.UTF_8, true);
+
+        ListResultHandler handler = new ListResultHandler();
+        connector.search(ObjectClass.ACCOUNT, new EqualsFilter(new Uid("vilo")), handler, null);
+        AssertJUnit.assertEquals(2, handler.getObjects().size());
+    }
+
+    @Test
+    public void findByStartsWith() throws Exception {
+        ConnectorFacade connector = setupConnector("/search.csv");
+
+        ListResultHandler handler = new ListResultHandler();
+        connector.search(ObjectClass.ACCOUNT, FilterBuilder.startsWith(AttributeBuilder.build(ATTR_LAST_NAME, "rep")),
+                handler, null);
+
+        List<ConnectorObject> objects = handler.getObjects();
+        AssertJUnit.assertEquals(1, objects.size());
+        AssertJUnit.assertEquals("vilo", objects.get(0).getUid().getUidValue());
+    }
+
+    @Test
+    public void findByOrAndNot() throws Exception {
+        ConnectorFacade connector = setupConnector("/search.csv");
+
+        Filter filter = FilterBuilder.or(
+                FilterBuilder.equalTo(AttributeBuilder.build(ATTR_FIRST_NAME, "michal")),
+                FilterBuilder.not(FilterBuilder.equalTo(AttributeBuilder.build(ATTR_LAST_NAME, "repan"))));
+
+        ListResultHandler handler = new ListResultHandler();
+        connector.search(ObjectClass.ACCOUNT, filter, handler, null);
+
+        List<ConnectorObject> objects = handler.getObjects();
+        AssertJUnit.assertEquals(1, objects.size());
+        AssertJUnit.assertEquals("miso", objects.get(0).getUid().getUidValue());
+    }
+
+    @Test
+    public void findByNameGreaterThan() throws Exception {
+        ConnectorFacade connector = setupConnector("/search.csv");
+
+        Filter filter = FilterBuilder.and(
+                FilterBuilder.greaterThan(new Name("miso")),
+                FilterBuilder.not(new EqualsFilter(new Uid("unknown"))));
+
+        ListResultHandler handler = new ListResultHandler();
+        connector.search(ObjectClass.ACCOUNT, filter, handler, null);
+
+        List<ConnectorObject> objects = handler.getObjects();
+        AssertJUnit.assertEquals(1, objects.size());
+        AssertJUnit.assertEquals("vilo", objects.get(0).getUid().getUidValue());
+    }
+
+    @Test
+    public void findByMultivalueAttribute() throws Exception {
+        CsvConfiguration config = new CsvConfiguration();
+        config.setFilePath(new File(CSV_FILE_PATH));
+        config.setQuoteMode("ALL");
+        config.setFieldDelimiter(",");
+        config.setMultivalueDelimiter(";");
+        config.setUniqueAttribute("login");
+        config.setPasswordAttribute("password");
+
+        ConnectorFacade connector = setupConnector("/search-multivalue.csv", config);
+
+        ListResultHandler handler = new ListResultHandler();
+        connector.search(ObjectClass.ACCOUNT,
+                FilterBuilder.containsAllValues(AttributeBuilder.build("groups", "Essential Documents")), handler, null);
+
+        List<ConnectorObject> objects = handler.getObjects();
+        AssertJUnit.assertEquals(1, objects.size());
+        AssertJUnit.assertEquals("jparadajka", objects.get(0).getUid().getUidValue());
+    }
+
+    @Test
+    public void findWithAttributesToGet() throws Exception {
+        ConnectorFacade connector = setupConnector("/search.csv");
+
+        OperationOptions options = new OperationOptionsBuilder().setAttributesToGet(ATTR_LAST_NAME).build();
+
+        ListResultHandler handler = new ListResultHandler();
+        connector.search(ObjectClass.ACCOUNT,
+                FilterBuilder.startsWith(AttributeBuilder.build(ATTR_FIRST_NAME, "vil")), handler, options);
+
+        List<ConnectorObject> objects = handler.getObjects();
+        AssertJUnit.assertEquals(1, objects.size());
+
+        ConnectorObject object = objects.get(0);
+        AssertJUnit.assertEquals("vilo", object.getUid().getUidValue());
+        AssertJUnit.assertNotNull(object.getAttributeByName(ATTR_LAST_NAME));
+        AssertJUnit.assertNull(object.getAttributeByName(OperationalAttributes.PASSWORD_NAME));
+
+        object = connector.getObject(ObjectClass.ACCOUNT, new Uid("vilo"), options);
+        AssertJUnit.assertNotNull(object.getAttributeByName(ATTR_LAST_NAME));
+        AssertJUnit.assertNull(object.getAttributeByName(ATTR_FIRST_NAME));
+        AssertJUnit.assertNull(object.getAttributeByName(OperationalAttributes.PASSWORD_NAME));
+    }
+
+    @Test
+    public void passwordNotReturnedByDefault() throws Exception {
+        ConnectorFacade connector = setupConnector("/search.csv");
+
+        ConnectorObject object = connector.getObject(ObjectClass.ACCOUNT, new Uid("vilo"), null);
+        AssertJUnit.assertNotNull(object.getAttributeByName(ATTR_LAST_NAME));
+        AssertJUnit.assertNull(object.getAttributeByName(OperationalAttributes.PASSWORD_NAME));
+
+        ListResultHandler handler = new ListResultHandler();
+        connector.search(ObjectClass.ACCOUNT, null, handler, null);
+        for (ConnectorObject obj : handler.getObjects()) {
+            AssertJUnit.assertNull(obj.getAttributeByName(OperationalAttributes.PASSWORD_NAME));
+        }
+
+        OperationOptions options = new OperationOptionsBuilder()
+                .setAttributesToGet(ATTR_LAST_NAME, OperationalAttributes.PASSWORD_NAME).build();
+        object = connector.getObject(ObjectClass.ACCOUNT, new Uid("vilo"), options);
+        AssertJUnit.assertNotNull(object.getAttributeByName(OperationalAttributes.PASSWORD_NAME));
+    }
+
+    @Test
+    public void pagedSearch() throws Exception {
+        ConnectorFacade connector = setupConnector("/search-paged.csv");
+
+        List<String> uids = new ArrayList<>();
+        int pages = 0;
+
+        String cookie = null;
+        do {
+            OperationOptions options = new OperationOptionsBuilder()
+                    .setPageSize(2)
+                    .setPagedResultsCookie(cookie)
+                    .build();
+
+            ListResultHandler handler = new ListResultHandler();
+            SearchResult result = connector.search(ObjectClass.ACCOUNT, null, handler, options);
+
+            handler.getObjects().forEach(o -> uids.add(o.getUid().getUidValue()));
+            cookie = result.getPagedResultsCookie();
+            pages++;
+        } while (cookie != null);
+
+        AssertJUnit.assertEquals(Arrays.asList("simon", "lubo", "ondrej", "jan", "peter"), uids);
+        AssertJUnit.assertEquals(3, pages);
+    }
+
+    @Test
+    public void pagedSearchAfterFileChange() throws Exception {
+        ConnectorFacade connector = setupConnector("/search-paged.csv");
+
+        OperationOptions options = new OperationOptionsBuilder().setPageSize(2).build();
+        SearchResult result = connector.search(ObjectClass.ACCOUNT, null, new ListResultHandler(), options);
+        AssertJUnit.assertNotNull(result.getPagedResultsCookie());
+
+        // byte offset from cookie can't be used anymore
+        FileUtils.writeStringToFile(new File(CSV_FILE_PATH), "\n\"jack\";\"jack\";\"black\";\"pwd\"",
+                StandardCharsets.UTF_8, true);
+
+        options = new OperationOptionsBuilder()
+                .setPageSize(2)
+                .setPagedResultsCookie(result.getPagedResultsCookie())
+                .build();
+
+        ListResultHandler handler = new ListResultHandler();
+        connector.search(ObjectClass.ACCOUNT, null, handler, options);
+
+        List<ConnectorObject> objects = handler.getObjects();
+        AssertJUnit.assertEquals(2, objects.size());
+        AssertJUnit.assertEquals("ondrej", objects.get(0).getUid().getUidValue());
+        AssertJUnit.assertEquals("jan", objects.get(1).getUid().getUidValue());
+    }
+
+    @Test
+    public void pagedSearchWithOffset() throws Exception {
+        ConnectorFacade connector = setupConnector("/search-paged.csv");
+
+        OperationOptions options = new OperationOptionsBuilder()
+                .setPageSize(2)
+                .setPagedResultsOffset(4)
+                .build();
+
+        ListResultHandler handler = new ListResultHandler();
+        SearchResult result = connector.search(ObjectClass.ACCOUNT, null, handler, options);
+
+        List<ConnectorObject> objects = handler.getObjects();
+        AssertJUnit.assertEquals(2, objects.size());
+        AssertJUnit.assertEquals("jan", objects.get(0).getUid().getUidValue());
+        AssertJUnit.assertEquals("peter", objects.get(1).getUid().getUidValue());
+        AssertJUnit.assertNull(result.getPagedResultsCookie());
+    }
+
+    @Test
+    public void sortedSearch() throws Exception {
+        ConnectorFacade connector = setupConnector("/search-paged.csv");
+
+        OperationOptions options = new OperationOptionsBuilder()
+                .setSortKeys(new SortKey(ATTR_LAST_NAME, true))
+                .build();
+
+        ListResultHandler handler = new ListResultHandler();
+        connector.search(ObjectClass.ACCOUNT, null, handler, options);
+
+        AssertJUnit.assertEquals(Arrays.asList("ondrej", "simon", "jan", "peter", "lubo"), getUids(handler));
+
+        options = new OperationOptionsBuilder()
+                .setSortKeys(new SortKey(Uid.NAME, false))
+                .build();
+
+        handler = new ListResultHandler();
+        connector.search(ObjectClass.ACCOUNT, null, handler, options);
+
+        AssertJUnit.assertEquals(Arrays.asList("simon", "peter", "ondrej", "lubo", "jan"), getUids(handler));
+    }
+
+    @Test
+    public void sortedPagedSearch() throws Exception {
+        ConnectorFacade connector = setupConnector("/search-paged.csv");
+
+        List<String> uids = new ArrayList<>();
+        int pages = 0;
+
+        String cookie = null;
+        do {
+            OperationOptions options = new OperationOptionsBuilder()
+                    .setSortKeys(new SortKey(Uid.NAME, true))
+                    .setPageSize(2)
+                    .setPagedResultsCookie(cookie)
+                    .build();
+
+            ListResultHandler handler = new ListResultHandler();
+            SearchResult result = connector.search(ObjectClass.ACCOUNT, null, handler, options);
+
+            uids.addAll(getUids(handler));
+            cookie = result.getPagedResultsCookie();
+            pages++;
+        } while (cookie != null);
+
+        AssertJUnit.assertEquals(Arrays.asList("jan", "lubo", "ondrej", "peter", "simon"), uids);
+        AssertJUnit.assertEquals(3, pages);
+    }
+
+    @Test(expectedExceptions = ConnectorException.class)
+    public void sortedPagedSearchAfterFileChange() throws Exception {
+        ConnectorFacade connector = setupConnector("/search-paged.csv");
+
+        OperationOptions options = new OperationOptionsBuilder()
+                .setSortKeys(new SortKey(Uid.NAME, true))
+                .setPageSize(2)
+                .build();
+        SearchResult result = connector.search(ObjectClass.ACCOUNT, null, new ListResultHandler(), options);
+        AssertJUnit.assertNotNull(result.getPagedResultsCookie());
+
+        // position from cookie would point to differently sorted records
+        FileUtils.writeStringToFile(new File(CSV_FILE_PATH), "\n\"jack\";\"jack\";\"black\";\"pwd\"",
+                StandardCharsets.UTF_8, true);
+
+        options = new OperationOptionsBuilder()
+                .setSortKeys(new SortKey(Uid.NAME, true))
+                .setPageSize(2)
+                .setPagedResultsCookie(result.getPagedResultsCookie())
+                .build();
+        connector.search(ObjectClass.ACCOUNT, null, new ListResultHandler(), options);
+    }
+
+    @Test
+    public void parallelSearch() throws Exception {
+        // large enough to be split into several ranges
+        StringBuilder sb = new StringBuilder("firstName;uid;lastName;password\n");
+        for (int i = 0; i < 60000; i++) {
+            sb.append("\"first\nname ").append(i).append("\";\"uid").append(i).append("\";\"last \"\"name\"\" ")
+                    .append(i % 10).append("\";\"password\"\n");
+        }
+        FileUtils.writeStringToFile(new File(CSV_FILE_PATH), sb.toString(), StandardCharsets.UTF_8);
+
+        Filter filter = FilterBuilder.endsWith(AttributeBuilder.build(ATTR_LAST_NAME, "\" 7"));
+
+        ListResultHandler expected = new ListResultHandler();
+        createNewInstance(createConfiguration()).search(ObjectClass.ACCOUNT, filter, expected, null);
+        AssertJUnit.assertEquals(6000, expected.getObjects().size());
+
+        CsvConfiguration config = createConfiguration();
+        config.setParallelism(4);
+
+        ListResultHandler handler = new ListResultHandler();
+        createNewInstance(config).search(ObjectClass.ACCOUNT, filter, handler, null);
+        AssertJUnit.assertEquals(getUids(expected), getUids(handler));
+
+        config.setPreserveRecordOrder(false);
+
+        handler = new ListResultHandler();
+        createNewInstance(config).search(ObjectClass.ACCOUNT, filter, handler, null);
+        AssertJUnit.assertEquals(new HashSet<>(getUids(expected)), new HashSet<>(getUids(handler)));
+    }
+
+    @Test
+    public void searchWithCommonsCsvParser() throws Exception {
+        ConnectorFacade connector = setupConnector("/search-paged.csv");
+
+        ListResultHandler expected = new ListResultHandler();
+        connector.search(ObjectClass.ACCOUNT, null, expected, null);
+        AssertJUnit.assertEquals(5, expected.getObjects().size());
+
+        CsvConfiguration config = createConfiguration();
+        config.setFastParser(false);
+
+        ListResultHandler handler = new ListResultHandler();
+        createNewInstance(config).search(ObjectClass.ACCOUNT, null, handler, null);
+        AssertJUnit.assertEquals(expected.getObjects(), handler.getObjects());
+    }
+
+    private List<String> getUids(ListResultHandler handler) {
+        List<String> uids = new ArrayList<>();
+        handler.getObjects().forEach(o -> uids.add(o.getUid().getUidValue()));
+
+        return uids;
+    }
+
     @Test(expectedExceptions = ConnectorException.class)
     public void searchWrongNumberColumnCountInRow() throws Exception {
         CsvConfiguration config = new CsvConfiguration();
@@ -5,10 +5,17 @@ import static org.testng.AssertJUnit.assertEquals;
 
 import java.io.File;
 import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 import org.apache.commons.io.FileUtils;
 import org.identityconnectors.common.logging.Log;
@@ -35,19 +42,19 @@ public class SyncOpTest extends BaseTest {
     public void syncLock() throws Exception {
         CsvConfiguration config = createConfiguration();
         config.setTrim(true);
+        config.setLockTimeout(500);
         ConnectorFacade connector = setupConnector("/sync.csv", config);
 
         File oldSyncFile = new File("./target/data.csv.sync.1300734815289");
         FileUtils.copyFile(new File(TEMPLATE_FOLDER_PATH, "sync.csv.1300734815289"), oldSyncFile);
 
         File lock = new File("./target/data.csv." + Util.SYNC_LOCK_EXTENSION);
-        lock.createNewFile();
 
-        try {
-//            SyncToken oldToken = connector.getLatestSyncToken(ObjectClass.ACCOUNT);
-//            assertEquals("1300734815289", oldToken.getValue());
+        // lock file is persistent, sync has to fail only if file is really locked (e.g. by other process)
+        try (FileChannel channel = FileChannel.open(lock.toPath(), StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE);
+             FileLock fileLock = channel.lock()) {
 
-            final List<SyncDelta> deltas = new ArrayList<>();
             connector.sync(ObjectClass.ACCOUNT, new SyncToken("1300734815289"), delta -> true, null);
         } finally {
             CsvTestUtil.deleteAllSyncFiles();
@@ -111,6 +118,137 @@ public class SyncOpTest extends BaseTest {
         }
     }
 
+    @Test
+    public void syncStreaming() throws Exception {
+        CsvConfiguration config = createConfiguration();
+        config.setTrim(true);
+        config.setStreamingSync(true);
+        ConnectorFacade connector = setupConnector("/sync.csv", config);
+
+        File oldSyncFile = new File("./target/data.csv.sync.1300734815289");
+        FileUtils.copyFile(new File(TEMPLATE_FOLDER_PATH, "sync.csv.1300734815289"), oldSyncFile);
+
+        try {
+            final List<SyncDelta> deltas = new ArrayList<>();
+            connector.sync(ObjectClass.ACCOUNT, new SyncToken("1300734815289"), delta -> {
+                deltas.add(delta);
+                return true;
+            }, null);
+
+            AssertJUnit.assertEquals(3, deltas.size());
+
+            // deltas are sorted by unique attribute value
+            AssertJUnit.assertEquals("apple", deltas.get(0).getUid().getUidValue());
+            AssertJUnit.assertEquals("miso", deltas.get(1).getUid().getUidValue());
+            AssertJUnit.assertEquals("vilo", deltas.get(2).getUid().getUidValue());
+
+            Map<String, SyncDelta> deltaMap = createSyncDeltaTestMap(deltas.get(0).getToken());
+            for (SyncDelta delta : deltas) {
+                assertEquals(deltaMap.get(delta.getUid().getUidValue()), delta);
+            }
+        } finally {
+            CsvTestUtil.deleteAllSyncFiles();
+        }
+    }
+
+    @Test
+    public void syncStreamingNullValues() throws Exception {
+        // unquoted empty values are read as null with NON_NUMERIC quote mode
+        StringBuilder old = new StringBuilder("firstName;uid;lastName;password\n");
+        StringBuilder current = new StringBuilder("firstName;uid;lastName;password\n");
+        for (int i = 0; i < 20000; i++) {
+            String record = "\"first " + i + "\";\"uid" + i + "\";;\"password\"\n";
+            old.append(record);
+
+            if (i % 1000 == 1) {
+                // deleted
+                continue;
+            }
+            if (i % 1000 == 2) {
+                record = record.replace(";;", ";\"last\";");
+            }
+            current.append(record);
+
+            if (i % 1000 == 3) {
+                current.append("\"first\";\"new").append(i).append("\";;\"password\"\n");
+            }
+        }
+        FileUtils.writeStringToFile(new File(CSV_FILE_PATH), current.toString(), StandardCharsets.UTF_8);
+        FileUtils.writeStringToFile(new File("./target/data.csv.sync.1300734815289"), old.toString(),
+                StandardCharsets.UTF_8);
+
+        try {
+            CsvConfiguration config = createConfiguration();
+            config.setQuoteMode("NON_NUMERIC");
+
+            List<String> expected = syncDeltas(config);
+            AssertJUnit.assertEquals(60, expected.size());
+            Collections.sort(expected);
+
+            // smallest memory limit, sync files have to be sorted using sorted runs
+            config = createConfiguration();
+            config.setQuoteMode("NON_NUMERIC");
+            config.setStreamingSync(true);
+            config.setSortMemoryLimit(1);
+
+            List<String> real = syncDeltas(config);
+            Collections.sort(real);
+
+            AssertJUnit.assertEquals(expected, real);
+        } finally {
+            CsvTestUtil.deleteAllSyncFiles();
+        }
+    }
+
+    @Test
+    public void parallelSync() throws Exception {
+        // large enough to be split into several ranges
+        StringBuilder old = new StringBuilder("firstName;uid;lastName;password\n");
+        StringBuilder current = new StringBuilder("firstName;uid;lastName;password\n");
+        for (int i = 0; i < 60000; i++) {
+            String record = "\"first\nname " + i + "\";\"uid" + i + "\";\"last \"\"name\"\" " + i + "\";\"password\"\n";
+            old.append(record);
+
+            if (i % 1000 == 1) {
+                // deleted
+                continue;
+            }
+            if (i % 1000 == 2) {
+                record = record.replace("password", "changed");
+            }
+            current.append(record);
+
+            if (i % 1000 == 3) {
+                current.append("first;new").append(i).append(";last;password\n");
+            }
+        }
+        FileUtils.writeStringToFile(new File(CSV_FILE_PATH), current.toString(), StandardCharsets.UTF_8);
+        FileUtils.writeStringToFile(new File("./target/data.csv.sync.1300734815289"), old.toString(),
+                StandardCharsets.UTF_8);
+
+        try {
+            List<String> expected = syncDeltas(createConfiguration());
+            AssertJUnit.assertEquals(180, expected.size());
+
+            CsvConfiguration config = createConfiguration();
+            config.setParallelism(4);
+
+            AssertJUnit.assertEquals(expected, syncDeltas(config));
+        } finally {
+            CsvTestUtil.deleteAllSyncFiles();
+        }
+    }
+
+    private List<String> syncDeltas(CsvConfiguration config) {
+        List<String> deltas = new ArrayList<>();
+        createNewInstance(config).sync(ObjectClass.ACCOUNT, new SyncToken("1300734815289"), delta -> {
+            deltas.add(delta.getDeltaType() + " " + delta.getUid().getUidValue());
+            return true;
+        }, null);
+
+        return deltas;
+    }
+
     @Test
     public void syncActualTokenTest() throws Exception {
         CsvConfiguration config = createConfiguration();
@@ -130,6 +268,86 @@ public class SyncOpTest extends BaseTest {
         }
     }
 
+    @Test
+    public void syncLinkedFile() throws Exception {
+        CsvConfiguration config = createConfiguration();
+        config.setTrim(true);
+        config.setLinkSyncFiles(true);
+        ConnectorFacade connector = setupConnector("/sync.csv", config);
+
+        try {
+            SyncToken token = connector.getLatestSyncToken(ObjectClass.ACCOUNT);
+            File syncFile = Util.createSyncFileName(Long.parseLong((String) token.getValue()), config.getConfig());
+            String content = FileUtils.readFileToString(syncFile, StandardCharsets.UTF_8);
+
+            // create must not append to csv file which is linked to sync file
+            Set<Attribute> attributes = new HashSet<>();
+            attributes.add(AttributeBuilder.build(ATTR_UID, "linked"));
+            attributes.add(AttributeBuilder.build(ATTR_LAST_NAME, "file"));
+            connector.create(ObjectClass.ACCOUNT, attributes, null);
+
+            assertEquals(content, FileUtils.readFileToString(syncFile, StandardCharsets.UTF_8));
+
+            final List<SyncDelta> deltas = new ArrayList<>();
+            connector.sync(ObjectClass.ACCOUNT, token, delta -> {
+                deltas.add(delta);
+                return true;
+            }, null);
+
+            AssertJUnit.assertEquals(1, deltas.size());
+            AssertJUnit.assertEquals(SyncDeltaType.CREATE, deltas.get(0).getDeltaType());
+            AssertJUnit.assertEquals("linked", deltas.get(0).getUid().getUidValue());
+        } finally {
+            CsvTestUtil.deleteAllSyncFiles();
+        }
+    }
+
+    @Test
+    public void syncUnchangedFile() throws Exception {
+        CsvConfiguration config = createConfiguration();
+        config.setTrim(true);
+        ConnectorFacade connector = setupConnector("/sync.csv", config);
+
+        try {
+            SyncToken token = connector.getLatestSyncToken(ObjectClass.ACCOUNT);
+            int files = Util.listTokenFiles(config.getConfig()).length;
+
+            final SyncToken[] tokenHolder = new SyncToken[1];
+            connector.sync(ObjectClass.ACCOUNT, token, new SyncTokenResultsHandler() {
+
+                @Override
+                public void handleResult(SyncToken syncToken) {
+                    tokenHolder[0] = syncToken;
+                }
+
+                @Override
+                public boolean handle(SyncDelta delta) {
+                    Assert.fail("File wasn't changed, there should be no delta");
+                    return false;
+                }
+            }, null);
+
+            // same token is returned, no sync file was created
+            AssertJUnit.assertEquals(token, tokenHolder[0]);
+            AssertJUnit.assertEquals(files, Util.listTokenFiles(config.getConfig()).length);
+
+            Set<Attribute> attributes = new HashSet<>();
+            attributes.add(AttributeBuilder.build(ATTR_LAST_NAME, "changed"));
+            connector.update(ObjectClass.ACCOUNT, new Uid("jdoe"), attributes, null);
+
+            final List<SyncDelta> deltas = new ArrayList<>();
+            connector.sync(ObjectClass.ACCOUNT, token, delta -> {
+                deltas.add(delta);
+                return true;
+            }, null);
+
+            AssertJUnit.assertEquals(1, deltas.size());
+            AssertJUnit.assertEquals(SyncDeltaType.UPDATE, deltas.get(0).getDeltaType());
+        } finally {
+            CsvTestUtil.deleteAllSyncFiles();
+        }
+    }
+
     private Map<String, SyncDelta> createSyncDeltaTestMap(SyncToken token) {
         Map<String, SyncDelta> map = new HashMap<String, SyncDelta>();
 
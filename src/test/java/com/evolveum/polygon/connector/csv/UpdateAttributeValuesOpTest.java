@@ -46,7 +46,7 @@ public class UpdateAttributeValuesOpTest extends UpdateOpTest {
 
         AssertJUnit.assertEquals(expected, real);
 
-        ConnectorObject object = connector.getObject(ObjectClass.ACCOUNT, real, null);
+        ConnectorObject object = connector.getObject(ObjectClass.ACCOUNT, real, createPasswordOptions());
         assertNotNull(object);
 
         attributes = new HashSet<>();
@@ -81,7 +81,7 @@ public class UpdateAttributeValuesOpTest extends UpdateOpTest {
 
         AssertJUnit.assertEquals(expected, real);
 
-        ConnectorObject object = connector.getObject(ObjectClass.ACCOUNT, real, null);
+        ConnectorObject object = connector.getObject(ObjectClass.ACCOUNT, real, createPasswordOptions());
         assertNotNull(object);
 
         attributes = new HashSet<>();
@@ -116,7 +116,7 @@ public class UpdateAttributeValuesOpTest extends UpdateOpTest {
 
         AssertJUnit.assertEquals(expected, real);
 
-        ConnectorObject object = connector.getObject(ObjectClass.ACCOUNT, real, null);
+        ConnectorObject object = connector.getObject(ObjectClass.ACCOUNT, real, createPasswordOptions());
         assertNotNull(object);
 
         attributes = new HashSet<>();
@@ -150,7 +150,7 @@ public class UpdateAttributeValuesOpTest extends UpdateOpTest {
 
         AssertJUnit.assertEquals(expected, real);
 
-        ConnectorObject object = connector.getObject(ObjectClass.ACCOUNT, real, null);
+        ConnectorObject object = connector.getObject(ObjectClass.ACCOUNT, real, createPasswordOptions());
         assertNotNull(object);
 
         attributes = new HashSet<>();
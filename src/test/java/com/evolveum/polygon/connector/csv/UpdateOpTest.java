@@ -1,6 +1,8 @@
 package com.evolveum.polygon.connector.csv;
 
 import com.evolveum.polygon.connector.csv.util.CsvTestUtil;
+import com.evolveum.polygon.connector.csv.util.Util;
+import org.apache.commons.io.FileUtils;
 import org.identityconnectors.common.Base64;
 import org.identityconnectors.common.security.GuardedString;
 import org.identityconnectors.framework.api.ConnectorFacade;
@@ -11,10 +13,15 @@ import org.identityconnectors.framework.common.objects.*;
 import org.testng.AssertJUnit;
 import org.testng.annotations.Test;
 
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.stream.Collectors;
 
 import static org.testng.AssertJUnit.assertEquals;
 import static org.testng.AssertJUnit.assertNotNull;
@@ -74,7 +81,7 @@ public class UpdateOpTest extends BaseTest {
 
         AssertJUnit.assertEquals(new Uid(CHANGED_VALUE), real);
 
-        ConnectorObject object = connector.getObject(ObjectClass.ACCOUNT, real, null);
+        ConnectorObject object = connector.getObject(ObjectClass.ACCOUNT, real, createPasswordOptions());
         assertNotNull(object);
 
         attributes = new HashSet<>();
@@ -105,7 +112,7 @@ public class UpdateOpTest extends BaseTest {
 
         AssertJUnit.assertEquals(new Uid(CHANGED_VALUE), real);
 
-        ConnectorObject object = connector.getObject(ObjectClass.ACCOUNT, real, null);
+        ConnectorObject object = connector.getObject(ObjectClass.ACCOUNT, real, createPasswordOptions());
         assertNotNull(object);
 
         attributes = new HashSet<>();
@@ -138,7 +145,7 @@ public class UpdateOpTest extends BaseTest {
 
         AssertJUnit.assertEquals(expected, real);
 
-        ConnectorObject object = connector.getObject(ObjectClass.ACCOUNT, real, null);
+        ConnectorObject object = connector.getObject(ObjectClass.ACCOUNT, real, createPasswordOptions());
         assertNotNull(object);
 
         attributes = new HashSet<>();
@@ -170,7 +177,7 @@ public class UpdateOpTest extends BaseTest {
 
         AssertJUnit.assertEquals(expected, real);
 
-        ConnectorObject object = connector.getObject(ObjectClass.ACCOUNT, real, null);
+        ConnectorObject object = connector.getObject(ObjectClass.ACCOUNT, real, createPasswordOptions());
         assertNotNull(object);
 
         attributes = new HashSet<>();
@@ -191,6 +198,89 @@ public class UpdateOpTest extends BaseTest {
         assertEquals(expectedRecord, realRecord);
     }
 
+    @Test
+    public void updateReplacesOnlyChangedRecord() throws Exception {
+        ConnectorFacade connector = setupConnector(TEMPLATE_UPDATE, createConfigurationNameEqualsUid());
+
+        File file = new File(CSV_FILE_PATH);
+        String oldContent = FileUtils.readFileToString(file, StandardCharsets.UTF_8);
+
+        Set<Attribute> attributes = new HashSet<>();
+        attributes.add(AttributeBuilder.build(ATTR_LAST_NAME, CHANGED_VALUE));
+        connector.update(ObjectClass.ACCOUNT, new Uid(VILO_UID), attributes, null);
+
+        // other records are copied as they are (quotes are kept), changed record is printed again
+        String expected = oldContent.substring(0, oldContent.indexOf("\"viliam\""))
+                + VILO_FIRST_NAME + ";" + VILO_UID + ";" + CHANGED_VALUE + ";" + VILO_PASSWORD + "\r\n";
+        AssertJUnit.assertEquals(expected, FileUtils.readFileToString(file, StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void updateInJournalMode() throws Exception {
+        CsvConfiguration config = createConfigurationNameEqualsUid();
+        config.setJournal(true);
+        ConnectorFacade connector = setupConnector(TEMPLATE_UPDATE, config);
+
+        File file = new File(CSV_FILE_PATH);
+        String oldContent = FileUtils.readFileToString(file, StandardCharsets.UTF_8);
+        File journal = new File(CSV_FILE_PATH + "." + Util.JOURNAL_EXTENSION);
+
+        try {
+            Set<Attribute> attributes = new HashSet<>();
+            attributes.add(AttributeBuilder.build(ATTR_LAST_NAME, CHANGED_VALUE));
+            connector.update(ObjectClass.ACCOUNT, new Uid(VILO_UID), attributes, null);
+
+            // change is only in journal, but it's visible
+            AssertJUnit.assertEquals(oldContent, FileUtils.readFileToString(file, StandardCharsets.UTF_8));
+            AssertJUnit.assertTrue(journal.length() > 0);
+
+            ConnectorObject object = connector.getObject(ObjectClass.ACCOUNT, new Uid(VILO_UID), null);
+            assertNotNull(object);
+            assertEquals(CHANGED_VALUE, AttributeUtil.getStringValue(object.getAttributeByName(ATTR_LAST_NAME)));
+
+            // search reads whole csv file, journal is applied over it, but it isn't folded into it
+            List<ConnectorObject> objects = new ArrayList<>();
+            connector.search(ObjectClass.ACCOUNT, null, objects::add, null);
+
+            List<ConnectorObject> found = objects.stream()
+                    .filter(o -> VILO_UID.equals(o.getUid().getUidValue()))
+                    .collect(Collectors.toList());
+            assertEquals(1, found.size());
+            assertEquals(CHANGED_VALUE, AttributeUtil.getStringValue(found.get(0).getAttributeByName(ATTR_LAST_NAME)));
+
+            AssertJUnit.assertEquals(oldContent, FileUtils.readFileToString(file, StandardCharsets.UTF_8));
+            AssertJUnit.assertTrue(journal.length() > 0);
+        } finally {
+            journal.delete();
+        }
+    }
+
+    @Test
+    public void updateAfterCrashedWriter() throws Exception {
+        ConnectorFacade connector = setupConnector(TEMPLATE_UPDATE, createConfigurationNameEqualsUid());
+
+        // writer which crashed left its owner in lock file and unfinished tmp file
+        File lock = new File(CSV_FILE_PATH + "." + Util.LOCK_EXTENSION);
+        FileUtils.writeStringToFile(lock, "1;crashed;2020-01-01T00:00:00Z", StandardCharsets.UTF_8);
+        File orphan = new File(CSV_FILE_PATH + ".123." + Util.TMP_EXTENSION);
+        FileUtils.writeStringToFile(orphan, "unfinished", StandardCharsets.UTF_8);
+
+        try {
+            Set<Attribute> attributes = new HashSet<>();
+            attributes.add(AttributeBuilder.build(ATTR_LAST_NAME, CHANGED_VALUE));
+            connector.update(ObjectClass.ACCOUNT, new Uid(VILO_UID), attributes, null);
+
+            AssertJUnit.assertFalse(orphan.exists());
+            AssertJUnit.assertEquals(0, lock.length());
+
+            Map<String, String> realRecord = CsvTestUtil.findRecord(createConfigurationNameEqualsUid(), VILO_UID);
+            assertEquals(CHANGED_VALUE, realRecord.get(ATTR_LAST_NAME));
+        } finally {
+            orphan.delete();
+            lock.delete();
+        }
+    }
+
     @Test(expectedExceptions = IllegalArgumentException.class)
     public void updateUidAttributeWithTwoValues() throws Exception {
         ConnectorFacade connector = setupConnector(TEMPLATE_UPDATE, createConfigurationNameEqualsUid());
@@ -230,7 +320,7 @@ public class UpdateOpTest extends BaseTest {
 
         assertEquals(expected, real);
 
-        ConnectorObject object = connector.getObject(ObjectClass.ACCOUNT, real, null);
+        ConnectorObject object = connector.getObject(ObjectClass.ACCOUNT, real, createPasswordOptions());
         assertNotNull(object);
 
         attributes = new HashSet<>();
@@ -0,0 +1,42 @@
+package com.evolveum.polygon.connector.csv.util;
+
+import org.testng.AssertJUnit;
+import org.testng.annotations.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+public class BackgroundExecutorTest {
+
+    @Test
+    public void scheduleWithoutUsers() {
+        BackgroundExecutor executor = new BackgroundExecutor("test");
+
+        AssertJUnit.assertNull(executor.schedule(() -> {
+        }, 0));
+    }
+
+    @Test
+    public void releaseCancelsPendingTasks() throws Exception {
+        BackgroundExecutor executor = new BackgroundExecutor("test");
+        executor.acquire();
+        executor.acquire();
+
+        CountDownLatch done = new CountDownLatch(1);
+        executor.schedule(done::countDown, 0);
+        AssertJUnit.assertTrue(done.await(10, TimeUnit.SECONDS));
+
+        ScheduledFuture<?> pending = executor.schedule(() -> {
+        }, 60000);
+
+        // other instance is still alive
+        AssertJUnit.assertFalse(executor.release());
+        AssertJUnit.assertFalse(pending.isDone());
+
+        AssertJUnit.assertTrue(executor.release());
+        AssertJUnit.assertTrue(pending.isCancelled());
+        AssertJUnit.assertNull(executor.schedule(() -> {
+        }, 0));
+    }
+}
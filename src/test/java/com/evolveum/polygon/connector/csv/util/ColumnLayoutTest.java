@@ -0,0 +1,67 @@
+package com.evolveum.polygon.connector.csv.util;
+
+import com.evolveum.polygon.connector.csv.ObjectClassHandlerConfiguration;
+import org.identityconnectors.framework.common.objects.ObjectClass;
+import org.testng.AssertJUnit;
+import org.testng.annotations.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+
+public class ColumnLayoutTest {
+
+    @Test
+    public void uniqueAndNameDifferent() {
+        Map<String, Object> values = new HashMap<>();
+        values.put("uniqueAttribute", "uid");
+        values.put("nameAttribute", "login");
+        values.put("passwordAttribute", "password");
+        values.put("multivalueDelimiter", ",");
+
+        ColumnLayout layout = ColumnLayout.create(createHeader(),
+                new ObjectClassHandlerConfiguration(ObjectClass.ACCOUNT, values));
+
+        AssertJUnit.assertEquals(4, layout.size());
+        AssertJUnit.assertFalse(layout.isUidName());
+
+        AssertJUnit.assertEquals(ColumnLayout.Role.MULTIVALUE, layout.getRole(0));
+        AssertJUnit.assertEquals(ColumnLayout.Role.UID, layout.getRole(1));
+        AssertJUnit.assertEquals(ColumnLayout.Role.NAME, layout.getRole(2));
+        AssertJUnit.assertEquals(ColumnLayout.Role.PASSWORD, layout.getRole(3));
+
+        AssertJUnit.assertEquals(1, layout.getUidIndex());
+        AssertJUnit.assertEquals(2, layout.getNameIndex());
+        AssertJUnit.assertEquals(3, layout.getPasswordIndex());
+        AssertJUnit.assertSame("groups", layout.getName(0));
+    }
+
+    @Test
+    public void uniqueIsName() {
+        Map<String, Object> values = new HashMap<>();
+        values.put("uniqueAttribute", "uid");
+        values.put("nameAttribute", "uid");
+
+        ColumnLayout layout = ColumnLayout.create(createHeader(),
+                new ObjectClassHandlerConfiguration(ObjectClass.ACCOUNT, values));
+
+        AssertJUnit.assertTrue(layout.isUidName());
+
+        AssertJUnit.assertEquals(ColumnLayout.Role.PLAIN, layout.getRole(0));
+        AssertJUnit.assertEquals(ColumnLayout.Role.UID, layout.getRole(1));
+        AssertJUnit.assertEquals(ColumnLayout.Role.PLAIN, layout.getRole(2));
+        AssertJUnit.assertEquals(ColumnLayout.Role.PLAIN, layout.getRole(3));
+
+        AssertJUnit.assertEquals(1, layout.getNameIndex());
+        AssertJUnit.assertEquals(-1, layout.getPasswordIndex());
+    }
+
+    private Map<String, Column> createHeader() {
+        Map<String, Column> header = new HashMap<>();
+        header.put("groups", new Column("groups", 0));
+        header.put("uid", new Column("uid", 1));
+        header.put("login", new Column("login", 2));
+        header.put("password", new Column("password", 3));
+
+        return header;
+    }
+}
@@ -0,0 +1,170 @@
+package com.evolveum.polygon.connector.csv.util;
+
+import com.evolveum.polygon.connector.csv.ObjectClassHandlerConfiguration;
+import org.apache.commons.io.FileUtils;
+import org.identityconnectors.common.StringUtil;
+import org.identityconnectors.framework.common.objects.ObjectClass;
+import org.testng.AssertJUnit;
+import org.testng.annotations.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+public class CsvTokenizerTest {
+
+    private static final String TRICKY_CSV = "# comment \"with quote\n"
+            + "\n"
+            + "plain;\"quoted\nmultiline;value\";\"doubled \"\"quote\"\"\"\r\n"
+            + "  spaces  ;  \"quoted spaces\"  ; \\n escaped\\;\\x ;\n"
+            + "\"escaped \\\" quote\";escaped\\\nline feed;;\r"
+            + "\r\n"
+            + "trailing;\n"
+            + "last\u0160\u0165";
+
+    @Test
+    public void sameRecordsAsCommonsCsvOnTestFiles() throws Exception {
+        File[] files = new File("./src/test/resources").listFiles((dir, name) -> name.endsWith(".csv"));
+        AssertJUnit.assertNotNull(files);
+        AssertJUnit.assertTrue(files.length > 0);
+
+        for (File file : files) {
+            String csv = FileUtils.readFileToString(file, StandardCharsets.UTF_8);
+
+            for (Map<String, Object> values : createConfigurations()) {
+                assertSameRecords(file.getName() + " " + values, csv, values);
+            }
+        }
+    }
+
+    @Test
+    public void sameRecordsAsCommonsCsv() throws Exception {
+        for (Map<String, Object> values : createConfigurations()) {
+            assertSameRecords(values.toString(), TRICKY_CSV, values);
+        }
+    }
+
+    @Test
+    public void longRecords() throws Exception {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 50; i++) {
+            // records longer than tokenizer buffer
+            sb.append("\"");
+            for (int j = 0; j < 10000; j++) {
+                sb.append(j % 100 == 0 ? "\"\"" : "long value ");
+            }
+            sb.append("\";").append(i).append('\n');
+        }
+
+        assertSameRecords("long records", sb.toString(), new HashMap<>());
+    }
+
+    @Test
+    public void characterPosition() throws Exception {
+        String csv = "uid;name\n# comment\n\none;\"first\nsecond\"\r\ntwo;2";
+
+        ObjectClassHandlerConfiguration config = new ObjectClassHandlerConfiguration(ObjectClass.ACCOUNT,
+                new HashMap<>());
+        try (CsvTokenizer tokenizer = new CsvTokenizer(new StringReader(csv), config, 1)) {
+            AssertJUnit.assertTrue(tokenizer.next());
+            AssertJUnit.assertEquals(0, tokenizer.getCharacterPosition());
+
+            // comment and empty line belong to following record
+            AssertJUnit.assertTrue(tokenizer.next());
+            AssertJUnit.assertEquals(9, tokenizer.getCharacterPosition());
+            AssertJUnit.assertEquals(2, tokenizer.getRecordNumber());
+            AssertJUnit.assertEquals("first\nsecond", tokenizer.get(1));
+
+            AssertJUnit.assertTrue(tokenizer.next());
+            AssertJUnit.assertEquals(csv.indexOf("two"), tokenizer.getCharacterPosition());
+            AssertJUnit.assertEquals(Arrays.asList("two", "2"), Arrays.asList(tokenizer.toArray()));
+
+            AssertJUnit.assertFalse(tokenizer.next());
+        }
+    }
+
+    @Test
+    public void hash() throws Exception {
+        String csv = "one;\"\";;\"with \"\"quote\"\"\"\n";
+
+        Map<String, Object> values = new HashMap<>();
+        values.put("quoteMode", "NON_NUMERIC");
+        ObjectClassHandlerConfiguration config = new ObjectClassHandlerConfiguration(ObjectClass.ACCOUNT, values);
+
+        try (CsvTokenizer tokenizer = new CsvTokenizer(new StringReader(csv), config, 1)) {
+            AssertJUnit.assertTrue(tokenizer.next());
+            AssertJUnit.assertEquals(Arrays.asList("one", "", null, "with \"quote\""),
+                    Arrays.asList(tokenizer.toArray()));
+
+            // value in scratch buffer, empty and null value
+            AssertJUnit.assertEquals(SyncSnapshot.hash(tokenizer.toArray()), tokenizer.hash());
+        }
+    }
+
+    private List<Map<String, Object>> createConfigurations() {
+        List<Map<String, Object>> configurations = new ArrayList<>();
+
+        configurations.add(new HashMap<>());
+
+        Map<String, Object> values = new HashMap<>();
+        values.put("ignoreSurroundingSpaces", true);
+        values.put("trim", true);
+        configurations.add(values);
+
+        values = new HashMap<>();
+        values.put("ignoreEmptyLines", false);
+        values.put("trailingDelimiter", true);
+        values.put("quoteMode", "NON_NUMERIC");
+        configurations.add(values);
+
+        values = new HashMap<>();
+        values.put("fieldDelimiter", ",");
+        values.put("quote", "'");
+        values.put("commentMarker", "/");
+        configurations.add(values);
+
+        return configurations;
+    }
+
+    private void assertSameRecords(String message, String csv, Map<String, Object> values) throws IOException {
+        ObjectClassHandlerConfiguration config = new ObjectClassHandlerConfiguration(ObjectClass.ACCOUNT, values);
+
+        List<List<String>> expected = readRecords(new CsvParserRecordReader(new StringReader(csv),
+                Util.createCsvFormatReader(config), 1));
+        List<List<String>> real = readRecords(new CsvTokenizer(new StringReader(csv), config, 1));
+
+        AssertJUnit.assertEquals(message, expected, real);
+    }
+
+    private List<List<String>> readRecords(RecordReader reader) throws IOException {
+        List<List<String>> records = new ArrayList<>();
+        try {
+            while (reader.next()) {
+                List<String> record = new ArrayList<>(Arrays.asList(reader.toArray()));
+                // record number is compared too
+                record.add(Long.toString(reader.getRecordNumber()));
+
+                for (int i = 0; i < reader.size(); i++) {
+                    AssertJUnit.assertEquals(StringUtil.isBlank(reader.get(i)), reader.isBlank(i));
+                }
+                AssertJUnit.assertEquals(SyncSnapshot.hash(reader.toArray()), reader.hash());
+
+                records.add(record);
+            }
+        } catch (IOException | RuntimeException ex) {
+            // malformed csv (e.g. different delimiter), both parsers have to fail after the same record
+            records.add(Collections.singletonList("error"));
+        } finally {
+            reader.close();
+        }
+
+        return records;
+    }
+}
@@ -0,0 +1,91 @@
+package com.evolveum.polygon.connector.csv.util;
+
+import org.testng.AssertJUnit;
+import org.testng.annotations.Test;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+
+public class ExternalSorterTest {
+
+    private static final File TMP_FOLDER = new File("./target");
+
+    @Test
+    public void sortWithRuns() throws Exception {
+        List<String[]> expected = new ArrayList<>();
+
+        // small memory limit, records have to be written to several runs
+        try (ExternalSorter sorter = new ExternalSorter(Comparator.comparing(r -> r[0]), 1000, TMP_FOLDER, 0)) {
+            for (int i = 0; i < 500; i++) {
+                String[] record = {Integer.toString(i % 50), Integer.toString(i)};
+                sorter.add(record);
+                expected.add(record);
+            }
+
+            // stable sort
+            expected.sort(Comparator.comparing(r -> r[0]));
+
+            assertSorted(expected, sorter.sort());
+        }
+    }
+
+    @Test
+    public void sortWithLimit() throws Exception {
+        List<String[]> expected = new ArrayList<>();
+
+        try (ExternalSorter sorter = new ExternalSorter(Comparator.comparing(r -> r[0]), 1000, TMP_FOLDER, 10)) {
+            for (int i = 500; i > 0; i--) {
+                String[] record = {String.format("%03d", i)};
+                sorter.add(record);
+                expected.add(record);
+            }
+
+            expected.sort(Comparator.comparing(r -> r[0]));
+
+            Iterator<String[]> sorted = sorter.sort();
+            for (int i = 0; i < 10; i++) {
+                AssertJUnit.assertEquals(expected.get(i)[0], sorted.next()[0]);
+            }
+        }
+    }
+
+    @Test
+    public void sortNullValuesWithRuns() throws Exception {
+        List<String[]> expected = new ArrayList<>();
+
+        Comparator<String[]> comparator = Comparator.comparing(r -> r[0]);
+        try (ExternalSorter sorter = new ExternalSorter(comparator, 1000, TMP_FOLDER, 0)) {
+            for (int i = 0; i < 500; i++) {
+                // null values are produced by tokenizer e.g. for NON_NUMERIC quote mode
+                String[] record = {Integer.toString(i % 50), i % 3 == 0 ? null : "", i % 2 == 0 ? null : "x"};
+                sorter.add(record);
+                expected.add(record);
+            }
+
+            expected.sort(comparator);
+
+            Iterator<String[]> sorted = sorter.sort();
+            for (String[] record : expected) {
+                AssertJUnit.assertTrue(sorted.hasNext());
+                AssertJUnit.assertEquals(Arrays.asList(record), Arrays.asList(sorted.next()));
+            }
+            AssertJUnit.assertFalse(sorted.hasNext());
+        }
+    }
+
+    private void assertSorted(List<String[]> expected, Iterator<String[]> sorted) {
+        for (String[] record : expected) {
+            AssertJUnit.assertTrue(sorted.hasNext());
+
+            String[] real = sorted.next();
+            AssertJUnit.assertEquals(record[0], real[0]);
+            AssertJUnit.assertEquals(record[1], real[1]);
+        }
+
+        AssertJUnit.assertFalse(sorted.hasNext());
+    }
+}
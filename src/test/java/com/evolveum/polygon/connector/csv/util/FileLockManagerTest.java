@@ -0,0 +1,127 @@
+package com.evolveum.polygon.connector.csv.util;
+
+import org.apache.commons.io.FileUtils;
+import org.identityconnectors.framework.common.exceptions.ConnectorIOException;
+import org.testng.AssertJUnit;
+import org.testng.annotations.Test;
+
+import java.io.File;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+public class FileLockManagerTest {
+
+    @Test
+    public void threadsObtainLockInOrder() throws Exception {
+        File file = new File("./target/order.csv.lock");
+
+        List<Integer> order = Collections.synchronizedList(new ArrayList<>());
+
+        ExecutorService executor = Executors.newFixedThreadPool(5);
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            try (FileLockManager.Lock lock = FileLockManager.lock(file, 1000)) {
+                // threads are queued one by one, so that order of waiting threads is known
+                for (int i = 0; i < 5; i++) {
+                    int index = i;
+                    futures.add(executor.submit(() -> {
+                        try (FileLockManager.Lock l = FileLockManager.lock(file, 10000)) {
+                            order.add(index);
+                        }
+                        return null;
+                    }));
+                    waitForQueue(file, i + 1);
+                }
+            }
+
+            for (Future<?> future : futures) {
+                future.get(10, TimeUnit.SECONDS);
+            }
+
+            AssertJUnit.assertEquals(Arrays.asList(0, 1, 2, 3, 4), order);
+            AssertJUnit.assertTrue(FileLockManager.getStatistics(file).getCount() >= 6);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void timeoutWhenLockedByOtherThread() throws Exception {
+        File file = new File("./target/thread.csv.lock");
+
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try (FileLockManager.Lock lock = FileLockManager.lock(file, 1000)) {
+            Future<?> future = executor.submit(() -> FileLockManager.lock(file, 100));
+            try {
+                future.get(10, TimeUnit.SECONDS);
+                AssertJUnit.fail("Exception expected");
+            } catch (ExecutionException ex) {
+                AssertJUnit.assertTrue(ex.getCause() instanceof ConnectorIOException);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+
+        AssertJUnit.assertEquals(1, FileLockManager.getStatistics(file).getTimeouts());
+    }
+
+    @Test
+    public void timeoutWhenFileLocked() throws Exception {
+        File file = new File("./target/file.csv.lock");
+
+        // simulates lock held by other process
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE);
+             FileLock fileLock = channel.lock()) {
+
+            try {
+                FileLockManager.lock(file, 100);
+                AssertJUnit.fail("Exception expected");
+            } catch (ConnectorIOException ex) {
+                // expected
+            }
+        }
+
+        try (FileLockManager.Lock lock = FileLockManager.lock(file, 100)) {
+            AssertJUnit.assertTrue(file.exists());
+        }
+        AssertJUnit.assertTrue(file.exists());
+    }
+
+    @Test
+    public void staleOwnerDetected() throws Exception {
+        File file = new File("./target/stale.csv.lock");
+        FileUtils.writeStringToFile(file, "1;crashed;2020-01-01T00:00:00Z", StandardCharsets.UTF_8);
+
+        try (FileLockManager.Lock lock = FileLockManager.lock(file, 100)) {
+            AssertJUnit.assertEquals("1;crashed;2020-01-01T00:00:00Z", lock.getStaleOwner());
+
+            String owner = FileUtils.readFileToString(file, StandardCharsets.UTF_8);
+            AssertJUnit.assertTrue(owner.startsWith(ProcessHandle.current().pid() + ";"));
+        }
+        AssertJUnit.assertEquals(0, file.length());
+
+        try (FileLockManager.Lock lock = FileLockManager.lock(file, 100)) {
+            AssertJUnit.assertNull(lock.getStaleOwner());
+        }
+    }
+
+    private void waitForQueue(File file, int length) throws InterruptedException {
+        long end = System.currentTimeMillis() + 10000;
+        while (FileLockManager.getQueueLength(file) < length && System.currentTimeMillis() < end) {
+            Thread.sleep(10);
+        }
+        AssertJUnit.assertEquals(length, FileLockManager.getQueueLength(file));
+    }
+}
@@ -0,0 +1,33 @@
+package com.evolveum.polygon.connector.csv.util;
+
+import org.testng.AssertJUnit;
+import org.testng.annotations.Test;
+
+import java.io.File;
+
+public class FileLocksTest {
+
+    @Test
+    public void lockPerCanonicalPath() {
+        Object lock = FileLocks.get(new File("./target/locks.csv"));
+
+        AssertJUnit.assertSame(lock, FileLocks.get(new File("target/locks.csv").getAbsoluteFile()));
+        AssertJUnit.assertSame(lock, FileLocks.get(new File("./target/../target/locks.csv")));
+        AssertJUnit.assertNotSame(lock, FileLocks.get(new File("./target/other-locks.csv")));
+    }
+
+    @Test
+    public void unusedLocksReleased() throws Exception {
+        for (int i = 0; i < 100; i++) {
+            FileLocks.get(new File("./target/released-" + i + ".csv"));
+        }
+
+        // weak references are cleared eventually, we can only try few times
+        for (int i = 0; i < 50 && FileLocks.size() >= 100; i++) {
+            System.gc();
+            Thread.sleep(20);
+        }
+
+        AssertJUnit.assertTrue(FileLocks.size() < 100);
+    }
+}
@@ -0,0 +1,47 @@
+package com.evolveum.polygon.connector.csv.util;
+
+import org.apache.commons.io.FileUtils;
+import org.testng.AssertJUnit;
+import org.testng.annotations.Test;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+public class FileSplicerTest {
+
+    @Test
+    public void replaceAndRemoveRanges() throws Exception {
+        File source = new File("./target/splice-source.txt");
+        File target = new File("./target/splice-target.txt");
+        FileUtils.writeStringToFile(source, "header\nfirst\nsecond\nthird\nignored", StandardCharsets.UTF_8);
+
+        FileSplicer splicer = new FileSplicer();
+        splicer.replace(7, 13, ByteBuffer.wrap("changed\n".getBytes(StandardCharsets.UTF_8)));
+        splicer.replace(13, 20, null);
+        splicer.replace(26, 26, ByteBuffer.wrap("new\n".getBytes(StandardCharsets.UTF_8)));
+        splicer.write(source, 26, target);
+
+        AssertJUnit.assertEquals("header\nchanged\nthird\nnew\n",
+                FileUtils.readFileToString(target, StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void noRanges() throws Exception {
+        File source = new File("./target/splice-source.txt");
+        File target = new File("./target/splice-target.txt");
+        FileUtils.writeStringToFile(source, "header\nfirst\n", StandardCharsets.UTF_8);
+        FileUtils.writeStringToFile(target, "old longer content of target file", StandardCharsets.UTF_8);
+
+        new FileSplicer().write(source, 13, target);
+
+        AssertJUnit.assertEquals("header\nfirst\n", FileUtils.readFileToString(target, StandardCharsets.UTF_8));
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void overlappingRanges() {
+        FileSplicer splicer = new FileSplicer();
+        splicer.replace(5, 10, null);
+        splicer.replace(8, 12, null);
+    }
+}
@@ -0,0 +1,158 @@
+package com.evolveum.polygon.connector.csv.util;
+
+import org.testng.AssertJUnit;
+import org.testng.annotations.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+public class GroupCommitTest {
+
+    @Test
+    public void concurrentRequestsWrittenInOneBatch() throws Exception {
+        GroupCommit commit = new GroupCommit();
+
+        CountDownLatch firstWriteStarted = new CountDownLatch(1);
+        CountDownLatch othersSubmitted = new CountDownLatch(1);
+        List<Integer> batchSizes = Collections.synchronizedList(new ArrayList<>());
+
+        GroupCommit.BatchWriter writer = batch -> {
+            batchSizes.add(batch.size());
+            firstWriteStarted.countDown();
+            othersSubmitted.await();
+
+            for (GroupCommit.Request request : batch) {
+                String key = request.getKeys().iterator().next();
+                if (key.equals("unknown")) {
+                    request.fail(new IllegalStateException(key));
+                } else {
+                    request.complete(key);
+                }
+            }
+        };
+
+        ExecutorService executor = Executors.newFixedThreadPool(11);
+        try {
+            Future<Object> first = executor.submit(() -> commit.submit(new TestRequest("first", "first"), writer));
+            AssertJUnit.assertTrue(firstWriteStarted.await(10, TimeUnit.SECONDS));
+
+            List<Future<Object>> others = new ArrayList<>();
+            for (int i = 0; i < 9; i++) {
+                String key = "key" + i;
+                others.add(executor.submit(() -> commit.submit(new TestRequest(key, key), writer)));
+            }
+            Future<Object> unknown = executor.submit(
+                    () -> commit.submit(new TestRequest("unknown", "unknown"), writer));
+
+            waitForPending(commit, 10);
+            othersSubmitted.countDown();
+
+            AssertJUnit.assertEquals("first", first.get(10, TimeUnit.SECONDS));
+            for (int i = 0; i < others.size(); i++) {
+                AssertJUnit.assertEquals("key" + i, others.get(i).get(10, TimeUnit.SECONDS));
+            }
+
+            try {
+                unknown.get(10, TimeUnit.SECONDS);
+                AssertJUnit.fail("Exception expected");
+            } catch (ExecutionException ex) {
+                AssertJUnit.assertTrue(ex.getCause() instanceof IllegalStateException);
+            }
+
+            AssertJUnit.assertEquals(Arrays.asList(1, 10), batchSizes);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void conflictingRequestsNotInOneBatch() throws Exception {
+        GroupCommit commit = new GroupCommit();
+
+        CountDownLatch firstWriteStarted = new CountDownLatch(1);
+        CountDownLatch othersSubmitted = new CountDownLatch(1);
+        List<List<String>> batches = Collections.synchronizedList(new ArrayList<>());
+
+        GroupCommit.BatchWriter writer = batch -> {
+            firstWriteStarted.countDown();
+            othersSubmitted.await();
+
+            List<String> names = new ArrayList<>();
+            for (GroupCommit.Request request : batch) {
+                names.add(((TestRequest) request).name);
+                request.complete(null);
+            }
+            batches.add(names);
+        };
+
+        ExecutorService executor = Executors.newFixedThreadPool(5);
+        try {
+            List<Future<Object>> futures = new ArrayList<>();
+            futures.add(executor.submit(() -> commit.submit(new TestRequest("first", "x"), writer)));
+            AssertJUnit.assertTrue(firstWriteStarted.await(10, TimeUnit.SECONDS));
+
+            // requests are submitted one by one, so that order of pending requests is known
+            TestRequest[] requests = {new TestRequest("r1", "a"), new TestRequest("r2", "b"),
+                    new TestRequest("r3", "a", "c"), new TestRequest("r4", "d")};
+            for (int i = 0; i < requests.length; i++) {
+                TestRequest request = requests[i];
+                futures.add(executor.submit(() -> commit.submit(request, writer)));
+                waitForPending(commit, i + 1);
+            }
+            othersSubmitted.countDown();
+
+            for (Future<Object> future : futures) {
+                future.get(10, TimeUnit.SECONDS);
+            }
+
+            AssertJUnit.assertEquals(Arrays.asList(Collections.singletonList("first"), Arrays.asList("r1", "r2"),
+                    Arrays.asList("r3", "r4")), batches);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void writerExceptionFailsRequest() throws Exception {
+        GroupCommit commit = new GroupCommit();
+
+        commit.submit(new TestRequest("a", "a"), batch -> {
+            throw new IllegalArgumentException();
+        });
+    }
+
+    private void waitForPending(GroupCommit commit, int count) throws InterruptedException {
+        long end = System.currentTimeMillis() + 10000;
+        while (commit.getPendingCount() < count && System.currentTimeMillis() < end) {
+            Thread.sleep(10);
+        }
+        AssertJUnit.assertEquals(count, commit.getPendingCount());
+    }
+
+    private static class TestRequest extends GroupCommit.Request {
+
+        private final String name;
+
+        private final Set<String> keys;
+
+        private TestRequest(String name, String... keys) {
+            this.name = name;
+            this.keys = new HashSet<>(Arrays.asList(keys));
+        }
+
+        @Override
+        public Set<String> getKeys() {
+            return keys;
+        }
+    }
+}
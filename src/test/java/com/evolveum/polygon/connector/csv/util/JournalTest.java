@@ -0,0 +1,88 @@
+package com.evolveum.polygon.connector.csv.util;
+
+import com.evolveum.polygon.connector.csv.ObjectClassHandlerConfiguration;
+import org.apache.commons.io.FileUtils;
+import org.identityconnectors.framework.common.objects.ObjectClass;
+import org.testng.AssertJUnit;
+import org.testng.annotations.Test;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+public class JournalTest {
+
+    @Test
+    public void appendAndLoad() throws Exception {
+        ObjectClassHandlerConfiguration config = createConfiguration("./target/journal-append.csv");
+        File file = Util.createJournalFile(config);
+        file.delete();
+
+        Journal journal = Journal.getInstance(config);
+        synchronized (journal) {
+            journal.refresh(config);
+            AssertJUnit.assertTrue(journal.isEmpty());
+
+            journal.append(Arrays.asList(new Journal.Entry("vilo", new String[]{"vilo", "repan"}),
+                    new Journal.Entry("jack", null)), config, false);
+            journal.append(Arrays.asList(new Journal.Entry("vilo", new String[]{"vilo", "changed"})), config,
+                    false);
+
+            AssertJUnit.assertEquals(file.length(), journal.getSize());
+        }
+
+        // other process (connector loaded by other class loader) reads journal from file
+        file.setLastModified(file.lastModified() - 2000);
+        synchronized (journal) {
+            journal.refresh(config);
+
+            AssertJUnit.assertEquals(Arrays.asList("vilo", "changed"),
+                    Arrays.asList(journal.get("vilo").getRecord()));
+            AssertJUnit.assertTrue(journal.get("jack").isDeleted());
+            AssertJUnit.assertNull(journal.get("unknown"));
+
+            journal.clear(config);
+            AssertJUnit.assertTrue(journal.isEmpty());
+            AssertJUnit.assertEquals(0, file.length());
+        }
+    }
+
+    @Test
+    public void unfinishedBatchIgnored() throws Exception {
+        ObjectClassHandlerConfiguration config = createConfiguration("./target/journal-unfinished.csv");
+        File file = Util.createJournalFile(config);
+
+        // writer crashed before second batch was committed
+        String committed = "U;vilo;vilo;repan\nC\n";
+        FileUtils.writeStringToFile(file, committed + "D;vilo\n", StandardCharsets.UTF_8);
+
+        Journal journal = Journal.getInstance(config);
+        synchronized (journal) {
+            journal.refresh(config);
+
+            AssertJUnit.assertFalse(journal.get("vilo").isDeleted());
+            AssertJUnit.assertEquals(committed.length(), journal.getSize());
+
+            // unfinished batch is replaced by next one
+            journal.append(Arrays.asList(new Journal.Entry("jack", new String[]{"jack", "sparrow"})), config,
+                    false);
+        }
+
+        AssertJUnit.assertEquals(committed + "U;jack;jack;sparrow\nC\n",
+                FileUtils.readFileToString(file, StandardCharsets.UTF_8));
+    }
+
+    private ObjectClassHandlerConfiguration createConfiguration(String path) {
+        Map<String, Object> values = new HashMap<>();
+        values.put("filePath", new File(path));
+        values.put("recordSeparator", "\n");
+
+        ObjectClassHandlerConfiguration config = new ObjectClassHandlerConfiguration(ObjectClass.ACCOUNT, values);
+        // journal is written to tmp folder, which is folder of csv file (./target)
+        config.recompute();
+
+        return config;
+    }
+}
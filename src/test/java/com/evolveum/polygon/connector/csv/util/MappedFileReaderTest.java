@@ -0,0 +1,122 @@
+package com.evolveum.polygon.connector.csv.util;
+
+import org.apache.commons.io.FileUtils;
+import org.testng.AssertJUnit;
+import org.testng.annotations.Test;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+public class MappedFileReaderTest {
+
+    private static final File FILE = new File("./target/mapped-file-reader.csv");
+
+    /**
+     * 1, 2, 3 and 4 byte characters in UTF-8, 4 byte character is surrogate pair
+     */
+    private static final String MIXED = "a;\u00E1;\u20AC;\uD83D\uDE00\n";
+
+    @Test
+    public void charactersAcrossWindows() throws Exception {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 200; i++) {
+            sb.append(MIXED).append(i);
+        }
+        FileUtils.writeStringToFile(FILE, sb.toString(), StandardCharsets.UTF_8);
+
+        // every multi byte character is split by window boundary with some of these sizes
+        for (int windowSize = 4; windowSize <= 13; windowSize++) {
+            for (int bufferSize : new int[]{2, 3, 7, 1024}) {
+                AssertJUnit.assertEquals("window " + windowSize + ", buffer " + bufferSize,
+                        readExpected(StandardCharsets.UTF_8),
+                        readMapped(windowSize, bufferSize, StandardCharsets.UTF_8));
+            }
+        }
+    }
+
+    @Test
+    public void surrogatePairReadByOneCharacter() throws Exception {
+        String content = "\uD83D\uDE00x\uD83D\uDE01\u20AC\uD83D\uDE02";
+        FileUtils.writeStringToFile(FILE, content, StandardCharsets.UTF_8);
+
+        for (int windowSize = 4; windowSize <= 7; windowSize++) {
+            StringBuilder sb = new StringBuilder();
+            try (Reader reader = new MappedFileReader(FILE, StandardCharsets.UTF_8, windowSize)) {
+                int c;
+                while ((c = reader.read()) != -1) {
+                    sb.append((char) c);
+                }
+
+                // end of file is stable
+                AssertJUnit.assertEquals(-1, reader.read());
+            }
+
+            AssertJUnit.assertEquals("window " + windowSize, content, sb.toString());
+        }
+    }
+
+    @Test
+    public void incompleteCharacterAtEndOfFile() throws Exception {
+        byte[] euro = "\u20AC".getBytes(StandardCharsets.UTF_8);
+        byte[] content = {'a', ';', euro[0], euro[1]};
+        Files.write(FILE.toPath(), content);
+
+        // decoder is flushed on last window, malformed input is replaced same as by InputStreamReader
+        for (int windowSize = 4; windowSize <= 5; windowSize++) {
+            for (int bufferSize : new int[]{1, 1024}) {
+                AssertJUnit.assertEquals(readExpected(StandardCharsets.UTF_8),
+                        readMapped(windowSize, bufferSize, StandardCharsets.UTF_8));
+            }
+        }
+    }
+
+    @Test
+    public void emptyFile() throws Exception {
+        Files.write(FILE.toPath(), new byte[0]);
+
+        try (Reader reader = new MappedFileReader(FILE, StandardCharsets.UTF_8, 4)) {
+            AssertJUnit.assertEquals(-1, reader.read());
+            AssertJUnit.assertEquals(-1, reader.read(new char[10], 0, 10));
+        }
+    }
+
+    @Test(expectedExceptions = IOException.class)
+    public void readAfterClose() throws Exception {
+        FileUtils.writeStringToFile(FILE, MIXED, StandardCharsets.UTF_8);
+
+        Reader reader = new MappedFileReader(FILE, StandardCharsets.UTF_8, 4);
+        reader.close();
+
+        reader.read(new char[10], 0, 10);
+    }
+
+    private String readExpected(Charset charset) throws IOException {
+        try (Reader reader = new InputStreamReader(new FileInputStream(FILE), charset)) {
+            return read(reader, 1024);
+        }
+    }
+
+    private String readMapped(int windowSize, int bufferSize, Charset charset) throws IOException {
+        try (Reader reader = new MappedFileReader(FILE, charset, windowSize)) {
+            return read(reader, bufferSize);
+        }
+    }
+
+    private String read(Reader reader, int bufferSize) throws IOException {
+        StringBuilder sb = new StringBuilder();
+
+        char[] buffer = new char[bufferSize];
+        int count;
+        while ((count = reader.read(buffer, 0, bufferSize)) != -1) {
+            sb.append(buffer, 0, count);
+        }
+
+        return sb.toString();
+    }
+}
@@ -0,0 +1,93 @@
+package com.evolveum.polygon.connector.csv.util;
+
+import org.identityconnectors.common.logging.Log;
+import org.testng.AssertJUnit;
+import org.testng.annotations.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Compares {@link MultivalueCodec} with previous regular expression split and join. Not executed by default build
+ * (class name doesn't match surefire includes), run it using <code>mvn test -Dtest=MultivalueCodecBenchmark</code>.
+ */
+public class MultivalueCodecBenchmark {
+
+    private static final Log LOG = Log.getLog(MultivalueCodecBenchmark.class);
+
+    private static final String DELIMITER = ",";
+
+    private static final int VALUES = 5000;
+
+    private static final int ITERATIONS = 200;
+
+    @Test
+    public void splitAndJoin() {
+        List<Object> values = new ArrayList<>();
+        for (int i = 0; i < VALUES; i++) {
+            values.add("cn=group" + i + ";ou=groups;dc=example;dc=com");
+        }
+
+        MultivalueCodec codec = new MultivalueCodec(DELIMITER, null);
+        String raw = codec.join(values);
+        AssertJUnit.assertEquals(legacyJoin(values), raw);
+        AssertJUnit.assertEquals(legacySplit(raw), codec.split(raw));
+
+        // warm up
+        run(codec, raw);
+        runLegacy(raw);
+
+        long start = System.nanoTime();
+        run(codec, raw);
+        long codecTime = System.nanoTime() - start;
+
+        start = System.nanoTime();
+        runLegacy(raw);
+        long legacyTime = System.nanoTime() - start;
+
+        MultivalueCodec escaped = new MultivalueCodec(DELIMITER, "\\");
+        String escapedRaw = escaped.join(values);
+        start = System.nanoTime();
+        run(escaped, escapedRaw);
+        long escapedTime = System.nanoTime() - start;
+
+        LOG.info("Split and join of {0} values, {1} iterations: codec {2}ms, escaped codec {3}ms, regex {4}ms",
+                VALUES, ITERATIONS, codecTime / 1000000, escapedTime / 1000000, legacyTime / 1000000);
+    }
+
+    private void run(MultivalueCodec codec, String raw) {
+        for (int i = 0; i < ITERATIONS; i++) {
+            List<Object> values = new ArrayList<>(codec.split(raw));
+            codec.join(values);
+        }
+    }
+
+    private void runLegacy(String raw) {
+        for (int i = 0; i < ITERATIONS; i++) {
+            List<Object> values = new ArrayList<>(legacySplit(raw));
+            legacyJoin(values);
+        }
+    }
+
+    private List<String> legacySplit(String raw) {
+        List<String> values = new ArrayList<>();
+        for (String item : raw.split(DELIMITER)) {
+            if (item.isEmpty()) {
+                continue;
+            }
+            values.add(item);
+        }
+        return values;
+    }
+
+    private String legacyJoin(List<Object> values) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < values.size(); i++) {
+            sb.append(values.get(i));
+            if (i + 1 < values.size()) {
+                sb.append(DELIMITER);
+            }
+        }
+        return sb.toString();
+    }
+}
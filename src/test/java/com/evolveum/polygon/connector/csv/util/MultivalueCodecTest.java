@@ -0,0 +1,67 @@
+package com.evolveum.polygon.connector.csv.util;
+
+import org.identityconnectors.common.security.GuardedString;
+import org.identityconnectors.framework.common.exceptions.ConnectorException;
+import org.testng.AssertJUnit;
+import org.testng.annotations.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+public class MultivalueCodecTest {
+
+    @Test
+    public void literalDelimiter() {
+        // regular expression meta characters are not special
+        MultivalueCodec codec = new MultivalueCodec("|", null);
+
+        AssertJUnit.assertEquals(Arrays.asList("a", "b.c", "d"), codec.split("a|b.c||d|"));
+        AssertJUnit.assertEquals("a|b", codec.join(Arrays.asList("a", "b")));
+
+        codec = new MultivalueCodec(".*", null);
+        AssertJUnit.assertEquals(Arrays.asList("a", "b"), codec.split(".*a.*b"));
+    }
+
+    @Test
+    public void noDelimiter() {
+        MultivalueCodec codec = new MultivalueCodec(null, "\\");
+
+        AssertJUnit.assertFalse(codec.isMultivalue());
+        AssertJUnit.assertEquals(Collections.singletonList("a,b"), codec.split("a,b"));
+        AssertJUnit.assertEquals(Collections.emptyList(), codec.split(""));
+        AssertJUnit.assertEquals("a\\b", codec.join(Collections.singletonList("a\\b")));
+        AssertJUnit.assertNull(codec.join(Collections.emptyList()));
+
+        try {
+            codec.join(Arrays.asList("a", "b"));
+            AssertJUnit.fail("Exception expected");
+        } catch (ConnectorException ex) {
+            // expected
+        }
+    }
+
+    @Test
+    public void guardedString() {
+        MultivalueCodec codec = new MultivalueCodec(",", null);
+
+        GuardedString password = new GuardedString("secret".toCharArray());
+        AssertJUnit.assertEquals("secret", codec.join(Collections.singletonList(password)));
+    }
+
+    @Test
+    public void escapedRoundTrip() {
+        MultivalueCodec codec = new MultivalueCodec(",;", "\\");
+
+        List<Object> values = new ArrayList<>(Arrays.asList("a,;b", "c\\", ",", "d;"));
+        String raw = codec.join(values);
+
+        AssertJUnit.assertEquals("a\\,\\;b,;c\\\\,;\\,,;d\\;", raw);
+        AssertJUnit.assertEquals(values, codec.split(raw));
+
+        // escaping can be skipped for columns which are never split
+        AssertJUnit.assertEquals("c\\", codec.join(Collections.singletonList("c\\"), false));
+        AssertJUnit.assertEquals(Arrays.asList("c\\", "d"), codec.split("c\\,;d", false));
+    }
+}
@@ -0,0 +1,80 @@
+package com.evolveum.polygon.connector.csv.util;
+
+import com.evolveum.polygon.connector.csv.ObjectClassHandlerConfiguration;
+import org.apache.commons.io.FileUtils;
+import org.identityconnectors.framework.common.objects.ObjectClass;
+import org.testng.AssertJUnit;
+import org.testng.annotations.Test;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+public class RecordBoundaryScannerTest {
+
+    private static final File CSV_FILE = new File("./target/boundaries.csv");
+
+    @Test
+    public void findBoundaries() throws Exception {
+        testFindBoundaries("\n");
+    }
+
+    @Test
+    public void findBoundariesCrLf() throws Exception {
+        testFindBoundaries("\r\n");
+    }
+
+    private void testFindBoundaries(String separator) throws Exception {
+        Set<Long> recordStarts = new HashSet<>();
+        recordStarts.add(0L);
+
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 2000; i++) {
+            if (i % 7 == 0) {
+                // comment and empty line belong to following record
+                sb.append("# comment \"with quote").append(separator).append(separator);
+            }
+
+            sb.append("plain").append(i).append(';');
+            sb.append("\"quoted\nmultiline;value\"").append(';');
+            sb.append("\"doubled \"\"quote\"\"\n\"").append(';');
+            sb.append("\"escaped \\\" quote\n\"").append(';');
+            sb.append("escaped\\\nline feed").append(';');
+            sb.append("unquoted \"quote\" \u0160\u0165astn\u00fd");
+            sb.append(separator);
+
+            recordStarts.add((long) sb.toString().getBytes(StandardCharsets.UTF_8).length);
+        }
+        FileUtils.writeStringToFile(CSV_FILE, sb.toString(), StandardCharsets.UTF_8);
+
+        ObjectClassHandlerConfiguration config = new ObjectClassHandlerConfiguration(ObjectClass.ACCOUNT,
+                new HashMap<>());
+        RecordBoundaryScanner scanner = RecordBoundaryScanner.create(config);
+        AssertJUnit.assertNotNull(scanner);
+
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            long[] boundaries = scanner.findBoundaries(CSV_FILE, 200, executor);
+            AssertJUnit.assertTrue(boundaries.length > 100);
+
+            for (long boundary : boundaries) {
+                AssertJUnit.assertTrue("Not a record start: " + boundary, recordStarts.contains(boundary));
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void unsupportedEncoding() {
+        HashMap<String, Object> values = new HashMap<>();
+        values.put("encoding", "utf-16");
+
+        ObjectClassHandlerConfiguration config = new ObjectClassHandlerConfiguration(ObjectClass.ACCOUNT, values);
+        AssertJUnit.assertNull(RecordBoundaryScanner.create(config));
+    }
+}
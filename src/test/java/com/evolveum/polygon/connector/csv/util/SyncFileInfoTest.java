@@ -0,0 +1,46 @@
+package com.evolveum.polygon.connector.csv.util;
+
+import org.apache.commons.io.FileUtils;
+import org.testng.AssertJUnit;
+import org.testng.annotations.Test;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+
+public class SyncFileInfoTest {
+
+    private static final File CSV_FILE = new File("./target/info.csv");
+
+    private static final File SYNC_FILE = new File("./target/info.csv.sync.1300734815289");
+
+    @Test
+    public void sourceUnchanged() throws Exception {
+        FileUtils.writeStringToFile(CSV_FILE, "uid;name\nvilo;repan\n", StandardCharsets.UTF_8);
+        FileUtils.copyFile(CSV_FILE, SYNC_FILE);
+
+        SyncFileInfo.of(SYNC_FILE, false, FileVersion.of(CSV_FILE), SyncFileInfo.digest(CSV_FILE)).write(SYNC_FILE);
+
+        SyncFileInfo info = SyncFileInfo.read(SYNC_FILE);
+        AssertJUnit.assertFalse(info.isLinked());
+        AssertJUnit.assertTrue(info.matches(SYNC_FILE));
+        AssertJUnit.assertTrue(info.isSourceOf(CSV_FILE));
+
+        // same size, modification time is restored
+        long modified = CSV_FILE.lastModified();
+        FileUtils.writeStringToFile(CSV_FILE, "uid;name\nvilo;repam\n", StandardCharsets.UTF_8);
+        CSV_FILE.setLastModified(modified);
+
+        AssertJUnit.assertFalse(info.isSourceOf(CSV_FILE));
+    }
+
+    @Test
+    public void unknownSource() throws Exception {
+        FileUtils.writeStringToFile(CSV_FILE, "uid;name\nvilo;repan\n", StandardCharsets.UTF_8);
+        FileUtils.copyFile(CSV_FILE, SYNC_FILE);
+
+        SyncFileInfo.of(SYNC_FILE, false, null, 0).write(SYNC_FILE);
+
+        AssertJUnit.assertFalse(SyncFileInfo.read(SYNC_FILE).isSourceOf(CSV_FILE));
+        AssertJUnit.assertNull(SyncFileInfo.read(new File("./target/info.csv.sync.1")));
+    }
+}
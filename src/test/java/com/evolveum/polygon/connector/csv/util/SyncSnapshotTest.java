@@ -0,0 +1,62 @@
+package com.evolveum.polygon.connector.csv.util;
+
+import org.apache.commons.io.FileUtils;
+import org.identityconnectors.framework.common.exceptions.ConnectorException;
+import org.testng.AssertJUnit;
+import org.testng.annotations.Test;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+
+public class SyncSnapshotTest {
+
+    private static final File SYNC_FILE = new File("./target/snapshot.csv.sync.1300734815289");
+
+    @Test
+    public void writeAndRead() throws Exception {
+        FileUtils.writeStringToFile(SYNC_FILE, "uid;name\nvilo;repan\njack;sparrow\n", StandardCharsets.UTF_8);
+
+        SyncSnapshot.Builder builder = new SyncSnapshot.Builder(SYNC_FILE);
+        builder.add("vilo", SyncSnapshot.hash(new String[]{"vilo", "repan"}), 9);
+        builder.add("jack", SyncSnapshot.hash(new String[]{"jack", "sparrow"}), 20);
+
+        File file = Util.createSyncSnapshotFile(SYNC_FILE);
+        builder.build().write(file);
+
+        SyncSnapshot snapshot = SyncSnapshot.read(file);
+        AssertJUnit.assertTrue(snapshot.matches(SYNC_FILE));
+        AssertJUnit.assertEquals(2, snapshot.size());
+
+        // sorted by unique attribute value
+        AssertJUnit.assertEquals("jack", snapshot.getUid(0));
+        AssertJUnit.assertEquals(20, snapshot.getOffset(0));
+
+        int index = snapshot.indexOf("vilo");
+        AssertJUnit.assertEquals(9, snapshot.getOffset(index));
+        AssertJUnit.assertEquals(SyncSnapshot.hash(new String[]{"vilo", "repan"}), snapshot.getHash(index));
+        AssertJUnit.assertEquals(-1, snapshot.indexOf("unknown"));
+
+        FileUtils.writeStringToFile(SYNC_FILE, "uid;name\nvilo;repan\n", StandardCharsets.UTF_8);
+        AssertJUnit.assertFalse(snapshot.matches(SYNC_FILE));
+    }
+
+    @Test(expectedExceptions = ConnectorException.class)
+    public void duplicateUid() {
+        SyncSnapshot.Builder builder = new SyncSnapshot.Builder(SYNC_FILE);
+        builder.add("vilo", 1, 0);
+        builder.add("vilo", 2, 10);
+
+        builder.build();
+    }
+
+    @Test
+    public void hashSeparatesValues() {
+        long hash = SyncSnapshot.hash(new String[]{"ab", "c"});
+
+        AssertJUnit.assertFalse(hash == SyncSnapshot.hash(new String[]{"a", "bc"}));
+        AssertJUnit.assertFalse(hash == SyncSnapshot.hash(new String[]{"ab", "c", ""}));
+        AssertJUnit.assertFalse(hash == SyncSnapshot.hash(new String[]{"ab", "c", null}));
+        AssertJUnit.assertFalse(SyncSnapshot.hash(new String[]{""}) == SyncSnapshot.hash(new String[]{null}));
+        AssertJUnit.assertEquals(hash, SyncSnapshot.hash(new String[]{"ab", "c"}));
+    }
+}